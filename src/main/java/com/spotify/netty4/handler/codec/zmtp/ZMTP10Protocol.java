@@ -52,7 +52,9 @@ class ZMTP10Protocol implements ZMTPProtocol {
     public ZMTPHandshake handshake(final ByteBuf in, final ChannelHandlerContext ctx)
         throws ZMTPException {
       final ByteBuffer remoteIdentity = readIdentity(in);
-      assert remoteIdentity != null;
+      if (remoteIdentity == null) {
+        return null;
+      }
       return ZMTPHandshake.of(ZMTP10, remoteIdentity);
     }
   }
@@ -27,16 +27,25 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
 
   /**
    * Read the remote identity octets from a ZMTP/1.0 greeting.
+   *
+   * @return The identity, or null if the buffer does not yet hold the entire greeting, in which
+   * case nothing is consumed.
    */
   static ByteBuffer readIdentity(final ByteBuf buffer) throws ZMTPParsingException {
+    final int mark = buffer.readerIndex();
     final long length = readLength(buffer);
     if (length == -1) {
+      buffer.readerIndex(mark);
       return null;
     }
     final long identityLength = length - 1;
     if (identityLength < 0 || identityLength > 255) {
       throw new ZMTPParsingException("Bad remote identity length: " + length);
     }
+    if (buffer.readableBytes() < length) {
+      buffer.readerIndex(mark);
+      return null;
+    }
 
     // skip the flags byte
     buffer.skipBytes(1);
@@ -119,7 +128,7 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
   static class ZMTP10Header implements Header {
 
     int maxLength;
-    int length;
+    long length;
     boolean more;
 
     @Override
@@ -147,12 +156,16 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
         throw new ZMTPParsingException("Received frame with zero length");
       }
 
+      if (len < 0) {
+        throw new ZMTPParsingException("Received frame with negative length: " + len);
+      }
+
       if (in.readableBytes() < 1) {
         // Wait for more data
         return false;
       }
 
-      length = (int) len - 1;
+      length = len - 1;
       more = (in.readByte() & MORE_FLAG) == MORE_FLAG;
 
       return true;
@@ -167,5 +180,10 @@ class ZMTP10WireFormat implements ZMTPWireFormat {
     public boolean more() {
       return more;
     }
+
+    @Override
+    public boolean command() {
+      return false;
+    }
   }
 }
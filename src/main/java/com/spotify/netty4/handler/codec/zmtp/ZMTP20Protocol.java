@@ -24,7 +24,11 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.BODY_IDENTITY_LENGTH_OFFSET;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.GREETING_IDENTITY_LENGTH_OFFSET;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.canDetectProtocolVersion;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.detectProtocolVersion;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.isGreetingComplete;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.readGreeting;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.readGreetingBody;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.writeGreetingBody;
@@ -41,16 +45,23 @@ class ZMTP20Protocol implements ZMTPProtocol {
 
   static class Handshaker implements ZMTPHandshaker {
 
+    private enum State {
+      SIGNATURE,
+      GREETING,
+      GREETING_BODY
+    }
+
     private final ZMTPSocketType socketType;
     private final ByteBuffer identity;
     private final boolean interop;
 
-    private boolean splitHandshake;
+    private State state;
 
     Handshaker(final ZMTPSocketType socketType, final ByteBuffer identity, final boolean interop) {
       this.socketType = checkNotNull(socketType, "ZMTP/2.0 requires a socket type");
       this.identity = checkNotNull(identity, "identity");
       this.interop = interop;
+      this.state = interop ? State.SIGNATURE : State.GREETING;
     }
 
     @Override
@@ -67,41 +78,66 @@ class ZMTP20Protocol implements ZMTPProtocol {
     @Override
     public ZMTPHandshake handshake(final ByteBuf in, final ChannelHandlerContext ctx)
         throws ZMTPException {
-      if (splitHandshake) {
-        final Greeting remoteGreeting = readGreetingBody(in);
-        if (remoteGreeting.revision() < 1) {
-          throw new ZMTPException("Bad ZMTP revision: " + remoteGreeting.revision());
-        }
-        return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
+      switch (state) {
+        case SIGNATURE:
+          return signature(in, ctx);
+        case GREETING:
+          if (!canDetectProtocolVersion(in)) {
+            return null;
+          }
+          if (in.getByte(in.readerIndex()) != (byte) 0xff) {
+            throw new ZMTPParsingException("Illegal ZMTP/2.0 greeting, first octet not 0xff");
+          }
+          if (!isGreetingComplete(in, GREETING_IDENTITY_LENGTH_OFFSET)) {
+            return null;
+          }
+          final Greeting greeting = readGreeting(in);
+          return ZMTPHandshake.of(ZMTP20, greeting.identity(), greeting.socketType());
+        case GREETING_BODY:
+          if (!isGreetingComplete(in, BODY_IDENTITY_LENGTH_OFFSET)) {
+            return null;
+          }
+          final Greeting remoteGreeting = readGreetingBody(in);
+          if (remoteGreeting.revision() < 1) {
+            throw new ZMTPException("Bad ZMTP revision: " + remoteGreeting.revision());
+          }
+          return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
+        default:
+          throw new IllegalStateException("Unknown state: " + state);
       }
+    }
 
-      if (interop) {
-        final int mark = in.readerIndex();
-        final ZMTPVersion version = detectProtocolVersion(in);
-        switch (version) {
-          case ZMTP10:
-            in.readerIndex(mark);
-            // when a ZMTP/1.0 peer is detected, just send the identity bytes. Together
-            // with the compatibility signature it makes for a valid ZMTP/1.0 greeting.
-            ctx.writeAndFlush(Unpooled.wrappedBuffer(identity));
-            final ByteBuffer remoteIdentity = ZMTP10WireFormat.readIdentity(in);
-            assert remoteIdentity != null;
-            return ZMTPHandshake.of(ZMTP10, remoteIdentity);
-          case ZMTP20:
-            splitHandshake = true;
-            final ByteBuf out = Unpooled.buffer();
-            writeGreetingBody(out, socketType, identity);
-            ctx.writeAndFlush(out);
+    /**
+     * Detect ZMTP/1.0 peers from the signature. Otherwise send the rest of our greeting.
+     */
+    private ZMTPHandshake signature(final ByteBuf in, final ChannelHandlerContext ctx)
+        throws ZMTPException {
+      if (!canDetectProtocolVersion(in)) {
+        return null;
+      }
+      final int mark = in.readerIndex();
+      final ZMTPVersion version = detectProtocolVersion(in);
+      switch (version) {
+        case ZMTP10:
+          in.readerIndex(mark);
+          final ByteBuffer remoteIdentity = ZMTP10WireFormat.readIdentity(in);
+          if (remoteIdentity == null) {
             return null;
-          default:
-            throw new ZMTPException("Unknown ZMTP version: " + version);
-        }
-      } else {
-        final Greeting remoteGreeting = readGreeting(in);
-        return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
+          }
+          // when a ZMTP/1.0 peer is detected, just send the identity bytes. Together
+          // with the compatibility signature it makes for a valid ZMTP/1.0 greeting.
+          ctx.writeAndFlush(Unpooled.wrappedBuffer(identity));
+          return ZMTPHandshake.of(ZMTP10, remoteIdentity);
+        case ZMTP20:
+          final ByteBuf out = Unpooled.buffer();
+          writeGreetingBody(out, socketType, identity);
+          ctx.writeAndFlush(out);
+          state = State.GREETING_BODY;
+          return null;
+        default:
+          throw new ZMTPException("Unknown ZMTP version: " + version);
       }
     }
-
   }
 
   @Override
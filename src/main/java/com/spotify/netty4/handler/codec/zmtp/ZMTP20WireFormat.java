@@ -32,6 +32,27 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
   static final byte LONG_FLAG = 0x02;
   static final byte MORE_FLAG = 0x1;
 
+  /**
+   * The length of the greeting signature, which is also the length of a backwards compatible
+   * signature.
+   */
+  static final int SIGNATURE_LENGTH = 10;
+
+  /**
+   * The offset of the identity length octet in a complete greeting.
+   */
+  static final int GREETING_IDENTITY_LENGTH_OFFSET = SIGNATURE_LENGTH + 3;
+
+  /**
+   * The offset of the identity length octet in a greeting body, starting with the revision.
+   */
+  static final int BODY_IDENTITY_LENGTH_OFFSET = 3;
+
+  /**
+   * The offset of the identity length octet in the part of a greeting body following the revision.
+   */
+  static final int BODY_AFTER_REVISION_IDENTITY_LENGTH_OFFSET = 2;
+
   @Override
   public int frameLength(final int content) {
     if (content < 256) {
@@ -75,13 +96,28 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
    */
   static Greeting readGreetingBody(final ByteBuf in) throws ZMTPParsingException {
     final int revision = in.readByte();
+    return readGreetingBody(in, revision);
+  }
+
+  /**
+   * Read the part of a ZMTP/2.0 greeting body following the revision octet.
+   *
+   * @param in       The buffer to read the greeting from.
+   * @param revision The already read revision.
+   * @return A {@link com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.Greeting}.
+   * @throws ZMTPParsingException      If the greeting is malformed.
+   * @throws IndexOutOfBoundsException If there is not enough readable bytes to read an entire
+   *                                   greeting.
+   */
+  static Greeting readGreetingBody(final ByteBuf in, final int revision)
+      throws ZMTPParsingException {
     final ZMTPSocketType socketType = readSocketType(in);
     final int flags = in.readByte();
     if (flags != 0x00) {
       throw new ZMTPParsingException(format(
           "Malformed ZMTP/2.0 greeting. Flags (byte 13) expected to be 0x00, was 0x%02x", flags));
     }
-    final int len = in.readByte();
+    final int len = in.readUnsignedByte();
     final byte[] identity = new byte[len];
     in.readBytes(identity);
     return new Greeting(revision, socketType, ByteBuffer.wrap(identity));
@@ -173,6 +209,32 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
     }
   }
 
+  /**
+   * Check whether a buffer holds a complete ZMTP/2.0 greeting, or part of one, ending with the
+   * identity. Nothing is consumed.
+   *
+   * @param in                   The buffer to check.
+   * @param identityLengthOffset The offset of the identity length octet from the reader index.
+   */
+  static boolean isGreetingComplete(final ByteBuf in, final int identityLengthOffset) {
+    if (in.readableBytes() <= identityLengthOffset) {
+      return false;
+    }
+    final int identityLength = in.getUnsignedByte(in.readerIndex() + identityLengthOffset);
+    return in.readableBytes() >= identityLengthOffset + 1 + identityLength;
+  }
+
+  /**
+   * Check whether a buffer holds enough bytes for {@link #detectProtocolVersion}. Nothing is
+   * consumed.
+   */
+  static boolean canDetectProtocolVersion(final ByteBuf in) {
+    if (!in.isReadable()) {
+      return false;
+    }
+    return in.getByte(in.readerIndex()) != (byte) 0xff || in.readableBytes() >= SIGNATURE_LENGTH;
+  }
+
   /**
    * Read enough bytes from buffer to deduce the remote protocol version in a backwards compatible
    * ZMTP handshake.
@@ -226,6 +288,19 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
   static void writeGreetingBody(final ByteBuf out, final ZMTPSocketType socketType,
                                 final ByteBuffer identity) {
     out.writeByte(0x01);
+    writeGreetingBodyAfterRevision(out, socketType, identity);
+  }
+
+  /**
+   * Write the part of a ZMTP/2.0 greeting body following the revision octet. Used when a peer
+   * supporting a later revision downgrades to ZMTP/2.0.
+   *
+   * @param out        The buffer to write the greeting body to.
+   * @param socketType The socket type.
+   * @param identity   The socket identity.
+   */
+  static void writeGreetingBodyAfterRevision(final ByteBuf out, final ZMTPSocketType socketType,
+                                             final ByteBuffer identity) {
     // socket-type
     writeSocketType(out, socketType);
     // identity
@@ -250,7 +325,7 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
   static class ZMTP20Header implements Header {
 
     int maxLength;
-    int length;
+    long length;
     boolean more;
 
     @Override
@@ -273,7 +348,7 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
     }
 
     @Override
-    public boolean read(final ByteBuf in) {
+    public boolean read(final ByteBuf in) throws ZMTPParsingException {
       if (in.readableBytes() < 2) {
         return false;
       }
@@ -287,7 +362,10 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
         return false;
       }
       final long len = in.readLong();
-      length = (int) len;
+      if (len < 0) {
+        throw new ZMTPParsingException("Received frame with negative length: " + len);
+      }
+      length = len;
       return true;
     }
 
@@ -300,6 +378,11 @@ class ZMTP20WireFormat implements ZMTPWireFormat {
     public boolean more() {
       return more;
     }
+
+    @Override
+    public boolean command() {
+      return false;
+    }
   }
 
   /**
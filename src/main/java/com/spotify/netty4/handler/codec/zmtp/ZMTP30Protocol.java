@@ -0,0 +1,199 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.Greeting;
+import com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.Ready;
+
+import java.nio.ByteBuffer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.BODY_AFTER_REVISION_IDENTITY_LENGTH_OFFSET;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.canDetectProtocolVersion;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.detectProtocolVersion;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.isGreetingComplete;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.readGreetingBody;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP20WireFormat.writeGreetingBodyAfterRevision;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.GREETING_BODY_LENGTH;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.GREETING_LENGTH;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.MAJOR_VERSION;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.MAX_READY_LENGTH;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.isFrameComplete;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.readGreeting;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.readReady;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.writeGreeting;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.writeGreetingBody;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTP30WireFormat.writeReady;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP30;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP31;
+import static java.lang.Math.min;
+
+/**
+ * ZMTP/3.0 and ZMTP/3.1 using the NULL security mechanism. In interop mode, ZMTP/1.0 and ZMTP/2.0
+ * peers are detected and the handshake is downgraded accordingly.
+ */
+class ZMTP30Protocol implements ZMTPProtocol {
+
+  private final int minor;
+
+  ZMTP30Protocol(final int minor) {
+    this.minor = minor;
+  }
+
+  @Override
+  public ZMTPHandshaker handshaker(final ZMTPConfig config) {
+    return new Handshaker(config.socketType(), config.localIdentity(), config.interop(), minor);
+  }
+
+  static class Handshaker implements ZMTPHandshaker {
+
+    private enum State {
+      SIGNATURE,
+      REVISION,
+      ZMTP20_GREETING,
+      ZMTP30_GREETING,
+      READY
+    }
+
+    private final ZMTPSocketType socketType;
+    private final ByteBuffer identity;
+    private final boolean interop;
+    private final int minor;
+
+    private State state;
+    private int remoteRevision;
+    private int remoteMinor;
+
+    Handshaker(final ZMTPSocketType socketType, final ByteBuffer identity, final boolean interop,
+               final int minor) {
+      this.socketType = checkNotNull(socketType, "ZMTP/3.0 requires a socket type");
+      this.identity = checkNotNull(identity, "identity");
+      this.interop = interop;
+      this.minor = minor;
+      this.state = interop ? State.SIGNATURE : State.ZMTP30_GREETING;
+    }
+
+    @Override
+    public ByteBuf greeting() {
+      final ByteBuf out = Unpooled.buffer();
+      if (interop) {
+        ZMTP20WireFormat.writeCompatSignature(out, identity);
+      } else {
+        writeGreeting(out, minor);
+      }
+      return out;
+    }
+
+    @Override
+    public ZMTPHandshake handshake(final ByteBuf in, final ChannelHandlerContext ctx)
+        throws ZMTPException {
+      switch (state) {
+        case SIGNATURE:
+          return signature(in, ctx);
+        case REVISION:
+          return revision(in, ctx);
+        case ZMTP20_GREETING:
+          if (!isGreetingComplete(in, BODY_AFTER_REVISION_IDENTITY_LENGTH_OFFSET)) {
+            return null;
+          }
+          final Greeting remoteGreeting = readGreetingBody(in, remoteRevision);
+          return ZMTPHandshake.of(ZMTP20, remoteGreeting.identity(), remoteGreeting.socketType());
+        case ZMTP30_GREETING:
+          if (in.readableBytes() < (interop ? GREETING_BODY_LENGTH : GREETING_LENGTH)) {
+            return null;
+          }
+          remoteMinor = interop ? ZMTP30WireFormat.readGreetingBody(in) : readGreeting(in);
+          final ByteBuf ready = Unpooled.buffer();
+          writeReady(ready, socketType, identity);
+          ctx.writeAndFlush(ready);
+          state = State.READY;
+          return null;
+        case READY:
+          if (!isFrameComplete(in, MAX_READY_LENGTH)) {
+            return null;
+          }
+          final Ready remoteReady = readReady(in);
+          final ZMTPVersion version = min(minor, remoteMinor) >= 1 ? ZMTP31 : ZMTP30;
+          return ZMTPHandshake.of(version, remoteReady.identity(), remoteReady.socketType());
+        default:
+          throw new IllegalStateException("Unknown state: " + state);
+      }
+    }
+
+    /**
+     * Detect ZMTP/1.0 peers from the signature. Otherwise send our major version.
+     */
+    private ZMTPHandshake signature(final ByteBuf in, final ChannelHandlerContext ctx)
+        throws ZMTPException {
+      if (!canDetectProtocolVersion(in)) {
+        return null;
+      }
+      final int mark = in.readerIndex();
+      final ZMTPVersion version = detectProtocolVersion(in);
+      if (version == ZMTP10) {
+        in.readerIndex(mark);
+        final ByteBuffer remoteIdentity = ZMTP10WireFormat.readIdentity(in);
+        if (remoteIdentity == null) {
+          return null;
+        }
+        // when a ZMTP/1.0 peer is detected, just send the identity bytes. Together
+        // with the compatibility signature it makes for a valid ZMTP/1.0 greeting.
+        ctx.writeAndFlush(Unpooled.wrappedBuffer(identity));
+        return ZMTPHandshake.of(ZMTP10, remoteIdentity);
+      }
+      ctx.writeAndFlush(Unpooled.wrappedBuffer(new byte[]{MAJOR_VERSION}));
+      state = State.REVISION;
+      return null;
+    }
+
+    /**
+     * Downgrade to ZMTP/2.0 if the peer does not support ZMTP/3.0. Otherwise complete our
+     * greeting.
+     */
+    private ZMTPHandshake revision(final ByteBuf in, final ChannelHandlerContext ctx)
+        throws ZMTPException {
+      if (!in.isReadable()) {
+        return null;
+      }
+      remoteRevision = in.readByte();
+      if (remoteRevision < 1) {
+        throw new ZMTPException("Bad ZMTP revision: " + remoteRevision);
+      }
+      final ByteBuf out = Unpooled.buffer();
+      if (remoteRevision < MAJOR_VERSION) {
+        writeGreetingBodyAfterRevision(out, socketType, identity);
+        state = State.ZMTP20_GREETING;
+      } else {
+        writeGreetingBody(out, minor);
+        state = State.ZMTP30_GREETING;
+      }
+      ctx.writeAndFlush(out);
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return minor == 0 ? "ZMTP/3.0" : "ZMTP/3." + minor;
+  }
+}
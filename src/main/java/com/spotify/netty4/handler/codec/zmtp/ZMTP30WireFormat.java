@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+import static io.netty.util.CharsetUtil.US_ASCII;
+import static java.lang.String.format;
+
+/**
+ * Tools for reading and writing the ZMTP/3.x wire format, greeting, commands and message frames.
+ */
+class ZMTP30WireFormat implements ZMTPWireFormat {
+
+  static final byte FINAL_FLAG = 0x0;
+  static final byte MORE_FLAG = 0x1;
+  static final byte LONG_FLAG = 0x02;
+  static final byte COMMAND_FLAG = 0x04;
+
+  static final int MAJOR_VERSION = 3;
+
+  static final String NULL_MECHANISM = "NULL";
+  static final String READY = "READY";
+  static final String ERROR = "ERROR";
+  static final String SOCKET_TYPE = "Socket-Type";
+  static final String IDENTITY = "Identity";
+
+  /**
+   * The length of the greeting following the signature and major version octets.
+   */
+  static final int GREETING_BODY_LENGTH = 1 + 20 + 1 + 31;
+
+  /**
+   * The length of a complete greeting.
+   */
+  static final int GREETING_LENGTH = 10 + 1 + GREETING_BODY_LENGTH;
+
+  private static final int MECHANISM_LENGTH = 20;
+
+  /**
+   * The maximum length of a READY command body accepted during the handshake.
+   */
+  static final int MAX_READY_LENGTH = 64 * 1024;
+
+  /**
+   * The maximum length of a command body accepted after the handshake, e.g. PING or SUBSCRIBE.
+   */
+  static final int MAX_COMMAND_LENGTH = 64 * 1024;
+
+  private static final int FILLER_LENGTH = 31;
+
+  @Override
+  public int frameLength(final int content) {
+    if (content < 256) {
+      return 1 + 1 + content;
+    } else {
+      return 1 + 8 + content;
+    }
+  }
+
+  @Override
+  public Header header() {
+    return new ZMTP30Header();
+  }
+
+  /**
+   * Write a complete ZMTP/3.x greeting.
+   *
+   * @param out   The buffer to write the greeting to.
+   * @param minor The minor version.
+   */
+  static void writeGreeting(final ByteBuf out, final int minor) {
+    out.writeByte(0xff);
+    out.writeLong(0x00);
+    out.writeByte(0x7f);
+    out.writeByte(MAJOR_VERSION);
+    writeGreetingBody(out, minor);
+  }
+
+  /**
+   * Write the part of a ZMTP/3.x greeting following the signature and major version octets, using
+   * the NULL security mechanism.
+   *
+   * @param out   The buffer to write the greeting body to.
+   * @param minor The minor version.
+   */
+  static void writeGreetingBody(final ByteBuf out, final int minor) {
+    out.writeByte(minor);
+    out.writeBytes(NULL_MECHANISM.getBytes(US_ASCII));
+    out.writeZero(MECHANISM_LENGTH - NULL_MECHANISM.length());
+    // as-server
+    out.writeByte(0x00);
+    out.writeZero(FILLER_LENGTH);
+  }
+
+  /**
+   * Read a complete ZMTP/3.x greeting.
+   *
+   * @param in The buffer to read the greeting from.
+   * @return The minor version of the remote peer.
+   * @throws ZMTPParsingException      If the greeting is malformed.
+   * @throws IndexOutOfBoundsException If there is not enough readable bytes to read an entire
+   *                                   greeting.
+   */
+  static int readGreeting(final ByteBuf in) throws ZMTPParsingException {
+    if (in.readByte() != (byte) 0xff) {
+      throw new ZMTPParsingException("Illegal ZMTP/3.0 greeting, first octet not 0xff");
+    }
+    in.skipBytes(8);
+    if ((in.readByte() & 0x01) == 0) {
+      throw new ZMTPParsingException("Illegal ZMTP/3.0 greeting, tenth octet bit 0 not set");
+    }
+    final int major = in.readByte();
+    if (major < MAJOR_VERSION) {
+      throw new ZMTPParsingException("Illegal ZMTP/3.0 greeting, major version: " + major);
+    }
+    return readGreetingBody(in);
+  }
+
+  /**
+   * Read the part of a ZMTP/3.x greeting following the signature and major version octets.
+   *
+   * @param in The buffer to read the greeting body from.
+   * @return The minor version of the remote peer.
+   * @throws ZMTPParsingException      If the greeting is malformed or uses another security
+   *                                   mechanism than NULL.
+   * @throws IndexOutOfBoundsException If there is not enough readable bytes to read an entire
+   *                                   greeting body.
+   */
+  static int readGreetingBody(final ByteBuf in) throws ZMTPParsingException {
+    final int minor = in.readByte();
+    final String mechanism = in.toString(in.readerIndex(), MECHANISM_LENGTH, US_ASCII).trim();
+    in.skipBytes(MECHANISM_LENGTH);
+    final int asServer = in.readByte();
+    in.skipBytes(FILLER_LENGTH);
+    if (!NULL_MECHANISM.equals(mechanism)) {
+      throw new ZMTPParsingException("Unsupported security mechanism: " + mechanism);
+    }
+    if (asServer != 0x00) {
+      throw new ZMTPParsingException(format(
+          "Malformed ZMTP/3.0 greeting. as-server expected to be 0x00, was 0x%02x", asServer));
+    }
+    return minor;
+  }
+
+  /**
+   * Write a READY command.
+   *
+   * @param out        The buffer to write the command to.
+   * @param socketType The socket type.
+   * @param identity   The socket identity.
+   */
+  static void writeReady(final ByteBuf out, final ZMTPSocketType socketType,
+                         final ByteBuffer identity) {
+    final byte[] type = socketType.name().getBytes(US_ASCII);
+    final boolean sendIdentity = identity.hasRemaining() && hasIdentity(socketType);
+    int size = 1 + READY.length() + property(SOCKET_TYPE, type.length);
+    if (sendIdentity) {
+      size += property(IDENTITY, identity.remaining());
+    }
+    writeCommandHeader(out, size);
+    out.writeByte(READY.length());
+    out.writeBytes(READY.getBytes(US_ASCII));
+    out.writeByte(SOCKET_TYPE.length());
+    out.writeBytes(SOCKET_TYPE.getBytes(US_ASCII));
+    out.writeInt(type.length);
+    out.writeBytes(type);
+    if (sendIdentity) {
+      out.writeByte(IDENTITY.length());
+      out.writeBytes(IDENTITY.getBytes(US_ASCII));
+      out.writeInt(identity.remaining());
+      out.writeBytes(identity.duplicate());
+    }
+  }
+
+  /**
+   * Write the header of a command frame.
+   *
+   * @param out  The buffer to write the header to.
+   * @param size The size of the command body.
+   */
+  static void writeCommandHeader(final ByteBuf out, final int size) {
+    if (size < 256) {
+      out.writeByte(COMMAND_FLAG);
+      out.writeByte(size);
+    } else {
+      out.writeByte(COMMAND_FLAG | LONG_FLAG);
+      out.writeLong(size);
+    }
+  }
+
+  /**
+   * Check whether a buffer holds a complete command or message frame. Nothing is consumed.
+   *
+   * @param maxLength The maximum frame body length. Checked as soon as the header is readable,
+   *                  without waiting for the body.
+   * @throws ZMTPParsingException If the frame body is longer than {@code maxLength}.
+   */
+  static boolean isFrameComplete(final ByteBuf in, final long maxLength)
+      throws ZMTPParsingException {
+    if (in.readableBytes() < 2) {
+      return false;
+    }
+    final int index = in.readerIndex();
+    final long length;
+    final int headerLength;
+    if ((in.getByte(index) & LONG_FLAG) == 0) {
+      length = in.getUnsignedByte(index + 1);
+      headerLength = 2;
+    } else {
+      if (in.readableBytes() < 9) {
+        return false;
+      }
+      length = in.getLong(index + 1);
+      headerLength = 9;
+    }
+    if (length < 0 || length > maxLength) {
+      throw new ZMTPParsingException("Frame too large: " + length);
+    }
+    return length <= in.readableBytes() - headerLength;
+  }
+
+  /**
+   * Read a READY command, as sent by a peer using the NULL security mechanism.
+   *
+   * @param in The buffer to read the command from.
+   * @return The socket type and identity of the peer.
+   * @throws ZMTPParsingException      If the command is malformed or is not a READY command.
+   * @throws IndexOutOfBoundsException If there is not enough readable bytes to read an entire
+   *                                   command.
+   */
+  static Ready readReady(final ByteBuf in) throws ZMTPParsingException {
+    final ZMTP30Header header = new ZMTP30Header();
+    if (!header.read(in)) {
+      throw new IndexOutOfBoundsException("Incomplete READY command");
+    }
+    if (!header.command()) {
+      throw new ZMTPParsingException("Expected READY command, got message frame");
+    }
+    if (header.length() > MAX_READY_LENGTH) {
+      throw new ZMTPParsingException("READY command too large: " + header.length());
+    }
+    if (header.length() > in.readableBytes()) {
+      throw new IndexOutOfBoundsException("Incomplete READY command");
+    }
+    final ByteBuf body = in.readSlice((int) header.length());
+    final String name = readShortString(body);
+    if (ERROR.equals(name)) {
+      throw new ZMTPParsingException("Peer sent ERROR: " + readShortString(body));
+    }
+    if (!READY.equals(name)) {
+      throw new ZMTPParsingException("Expected READY command, got: " + name);
+    }
+    final Map<String, ByteBuffer> metadata = readMetadata(body);
+    return new Ready(socketType(metadata), identity(metadata));
+  }
+
+  /**
+   * Read a command from a complete command frame body.
+   *
+   * @param body The command frame body.
+   * @return The command.
+   * @throws ZMTPParsingException If the command is malformed.
+   */
+  static ZMTPCommand readCommand(final ByteBuf body) throws ZMTPParsingException {
+    final String name = readShortString(body);
+    final byte[] data = new byte[body.readableBytes()];
+    body.readBytes(data);
+    return ZMTPCommand.of(name, ByteBuffer.wrap(data));
+  }
+
+  /**
+   * Write a command frame.
+   *
+   * @param out     The buffer to write the command to.
+   * @param command The command.
+   */
+  static void writeCommand(final ByteBuf out, final ZMTPCommand command) {
+    final ByteBuffer data = command.data();
+    writeCommandHeader(out, 1 + command.name().length() + data.remaining());
+    out.writeByte(command.name().length());
+    out.writeBytes(command.name().getBytes(US_ASCII));
+    out.writeBytes(data);
+  }
+
+  /**
+   * Get the length of a command frame, including the header.
+   */
+  static int commandLength(final ZMTPCommand command) {
+    final int size = 1 + command.name().length() + command.data().remaining();
+    return (size < 256 ? 1 + 1 : 1 + 8) + size;
+  }
+
+  /**
+   * Read command metadata properties.
+   */
+  static Map<String, ByteBuffer> readMetadata(final ByteBuf in) throws ZMTPParsingException {
+    final Map<String, ByteBuffer> metadata = new LinkedHashMap<String, ByteBuffer>();
+    while (in.isReadable()) {
+      final String name = readShortString(in);
+      if (in.readableBytes() < 4) {
+        throw new ZMTPParsingException("Malformed metadata property: " + name);
+      }
+      final long length = in.readUnsignedInt();
+      if (length > in.readableBytes()) {
+        throw new ZMTPParsingException("Malformed metadata property: " + name);
+      }
+      final byte[] value = new byte[(int) length];
+      in.readBytes(value);
+      metadata.put(name.toLowerCase(Locale.ENGLISH), ByteBuffer.wrap(value));
+    }
+    return metadata;
+  }
+
+  /**
+   * Translate a ZMTP/3.0 Socket-Type property value to a {@link ZMTPSocketType}.
+   *
+   * @param metadata The READY command metadata.
+   * @return a {@link ZMTPSocketType}
+   * @throws ZMTPParsingException If the socket type is missing or invalid.
+   */
+  private static ZMTPSocketType socketType(final Map<String, ByteBuffer> metadata)
+      throws ZMTPParsingException {
+    final ByteBuffer value = metadata.get(SOCKET_TYPE.toLowerCase(Locale.ENGLISH));
+    if (value == null) {
+      throw new ZMTPParsingException("Missing Socket-Type in READY command");
+    }
+    final String socketType = US_ASCII.decode(value.duplicate()).toString();
+    try {
+      return ZMTPSocketType.valueOf(socketType);
+    } catch (IllegalArgumentException e) {
+      throw new ZMTPParsingException("Invalid socket type: " + socketType);
+    }
+  }
+
+  /**
+   * Get the Identity property value, or an empty buffer if none was sent.
+   */
+  private static ByteBuffer identity(final Map<String, ByteBuffer> metadata)
+      throws ZMTPParsingException {
+    final ByteBuffer value = metadata.get(IDENTITY.toLowerCase(Locale.ENGLISH));
+    if (value == null) {
+      return ZMTPConfig.ANONYMOUS;
+    }
+    if (value.remaining() > 255) {
+      throw new ZMTPParsingException("Bad remote identity length: " + value.remaining());
+    }
+    return value;
+  }
+
+  /**
+   * Only REQ, DEALER and ROUTER sockets send their identity.
+   */
+  private static boolean hasIdentity(final ZMTPSocketType socketType) {
+    switch (socketType) {
+      case REQ:
+      case DEALER:
+      case ROUTER:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static int property(final String name, final int length) {
+    return 1 + name.length() + 4 + length;
+  }
+
+  private static String readShortString(final ByteBuf in) throws ZMTPParsingException {
+    if (!in.isReadable()) {
+      throw new ZMTPParsingException("Malformed command");
+    }
+    final int length = in.readUnsignedByte();
+    if (length > in.readableBytes()) {
+      throw new ZMTPParsingException("Malformed command");
+    }
+    final String s = in.toString(in.readerIndex(), length, US_ASCII);
+    in.skipBytes(length);
+    return s;
+  }
+
+  static class ZMTP30Header implements Header {
+
+    int maxLength;
+    long length;
+    boolean more;
+    boolean command;
+
+    @Override
+    public void set(final int maxLength, final int length, final boolean more) {
+      this.maxLength = maxLength;
+      this.length = length;
+      this.more = more;
+      this.command = false;
+    }
+
+    @Override
+    public void write(final ByteBuf out) {
+      final byte flags = more ? MORE_FLAG : FINAL_FLAG;
+      if (maxLength < 256) {
+        out.writeByte(flags);
+        out.writeByte((byte) length);
+      } else {
+        out.writeByte(flags | LONG_FLAG);
+        out.writeLong(length);
+      }
+    }
+
+    @Override
+    public boolean read(final ByteBuf in) throws ZMTPParsingException {
+      if (in.readableBytes() < 2) {
+        return false;
+      }
+      final int flags = in.readByte();
+      if ((flags & ~(MORE_FLAG | LONG_FLAG | COMMAND_FLAG)) != 0) {
+        throw new ZMTPParsingException(format("Malformed frame, reserved flags set: 0x%02x", flags));
+      }
+      command = (flags & COMMAND_FLAG) == COMMAND_FLAG;
+      more = (flags & MORE_FLAG) == MORE_FLAG;
+      if (command && more) {
+        throw new ZMTPParsingException("Malformed frame, command with MORE flag set");
+      }
+      if ((flags & LONG_FLAG) != LONG_FLAG) {
+        length = in.readByte() & 0xff;
+        return true;
+      }
+      if (in.readableBytes() < 8) {
+        return false;
+      }
+      final long len = in.readLong();
+      if (len < 0) {
+        throw new ZMTPParsingException("Received frame with negative length: " + len);
+      }
+      length = len;
+      return true;
+    }
+
+    @Override
+    public long length() {
+      return length;
+    }
+
+    @Override
+    public boolean more() {
+      return more;
+    }
+
+    @Override
+    public boolean command() {
+      return command;
+    }
+  }
+
+  /**
+   * The ZMTP/3.x READY command metadata of a peer.
+   */
+  static class Ready {
+
+    private final ZMTPSocketType socketType;
+    private final ByteBuffer identity;
+
+    Ready(final ZMTPSocketType socketType, final ByteBuffer identity) {
+      this.socketType = checkNotNull(socketType, "socketType");
+      this.identity = checkNotNull(identity, "identity");
+    }
+
+    ZMTPSocketType socketType() {
+      return socketType;
+    }
+
+    ByteBuffer identity() {
+      return identity.asReadOnlyBuffer();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+import static io.netty.util.CharsetUtil.ISO_8859_1;
+
+/**
+ * A zero-copy {@link CharSequence} view of the bytes of a frame, mapping every byte to a single
+ * char. Suitable for ASCII frames such as textual envelopes and method names.
+ *
+ * The view does not retain the frame, so it must not be used after the message holding the frame
+ * has been released. The hash code is computed once and equals {@link String#hashCode()} of the
+ * same ASCII text.
+ */
+public class ZMTPAsciiString implements CharSequence {
+
+  private final ByteBuf buf;
+  private final int offset;
+  private final int length;
+
+  private int hash;
+  private String string;
+
+  ZMTPAsciiString(final ByteBuf buf, final int offset, final int length) {
+    this.buf = buf;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Create a view of the readable bytes of a {@link ByteBuf}.
+   */
+  public static ZMTPAsciiString of(final ByteBuf buf) {
+    checkNotNull(buf, "buf");
+    return new ZMTPAsciiString(buf, buf.readerIndex(), buf.readableBytes());
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(final int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("index " + index + " of " + length);
+    }
+    return (char) (buf.getByte(offset + index) & 0xFF);
+  }
+
+  @Override
+  public ZMTPAsciiString subSequence(final int start, final int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new IndexOutOfBoundsException("subSequence " + start + ", " + end + " of " + length);
+    }
+    return new ZMTPAsciiString(buf, offset + start, end - start);
+  }
+
+  /**
+   * Check whether this view holds the same chars as a {@link CharSequence}, without allocating.
+   */
+  public boolean contentEquals(final CharSequence s) {
+    if (s == null || s.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if ((buf.getByte(offset + i) & 0xFF) != s.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) { return true; }
+    if (o == null || getClass() != o.getClass()) { return false; }
+
+    final ZMTPAsciiString that = (ZMTPAsciiString) o;
+
+    if (length != that.length || hashCode() != that.hashCode()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (buf.getByte(offset + i) != that.buf.getByte(that.offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int h = hash;
+    if (h == 0 && length > 0) {
+      for (int i = 0; i < length; i++) {
+        h = 31 * h + (buf.getByte(offset + i) & 0xFF);
+      }
+      hash = h;
+    }
+    return h;
+  }
+
+  /**
+   * Get the chars of this view as a {@link String}. The string is created once and cached.
+   */
+  @Override
+  public String toString() {
+    String s = string;
+    if (s == null) {
+      s = buf.toString(offset, length, ISO_8859_1);
+      string = s;
+    }
+    return s;
+  }
+}
@@ -26,7 +26,7 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.CombinedChannelDuplexHandler;
-import io.netty.handler.codec.ReplayingDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 
@@ -35,13 +35,15 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
  *
  * Note: A single codec instance is not {@link Sharable} among multiple {@link Channel} instances.
  */
-public class ZMTPCodec extends ReplayingDecoder<Void> {
+public class ZMTPCodec extends ByteToMessageDecoder {
 
   private final ZMTPSession session;
   private final ZMTPHandshaker handshaker;
 
   private final ZMTPConfig config;
 
+  private long handshakeStart;
+
   public ZMTPCodec(final ZMTPSession session) {
     this.config = session.config();
     this.session = checkNotNull(session, "session");
@@ -55,9 +57,26 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
     return session;
   }
 
+  @Override
+  public void handlerAdded(final ChannelHandlerContext ctx) throws Exception {
+    super.handlerAdded(ctx);
+    // The event loop is only known once the channel is registered, e.g. not when added by a
+    // bootstrap handler
+    if (ctx.channel().isRegistered()) {
+      session.executor(ctx.executor());
+    }
+  }
+
+  @Override
+  public void channelRegistered(final ChannelHandlerContext ctx) throws Exception {
+    session.executor(ctx.executor());
+    super.channelRegistered(ctx);
+  }
+
   @Override
   public void channelActive(final ChannelHandlerContext ctx) throws Exception {
     super.channelActive(ctx);
+    handshakeStart = System.nanoTime();
     ctx.writeAndFlush(handshaker.greeting());
   }
 
@@ -65,8 +84,7 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
   public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
     super.channelInactive(ctx);
     if (!session.handshakeFuture().isDone()) {
-      session.handshakeFailure(new ClosedChannelException());
-      ctx.fireUserEventTriggered(new ZMTPHandshakeFailure(session));
+      handshakeFailure(ctx, new ClosedChannelException());
     }
   }
 
@@ -78,6 +96,7 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
     if (session.handshakeFuture().isDone()) {
       assert !session.handshakeFuture().isSuccess();
       in.skipBytes(in.readableBytes());
+      return;
     }
 
     // Shake hands
@@ -89,31 +108,54 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
         return;
       }
     } catch (Exception e) {
-      session.handshakeFailure(e);
-      ctx.fireUserEventTriggered(new ZMTPHandshakeFailure(session));
+      handshakeFailure(ctx, e);
       throw e;
     }
 
     // Handshake is done.
     session.handshakeSuccess(handshake);
+    session.metrics().handshakeSuccess(System.nanoTime() - handshakeStart);
 
     // Replace this handler with the framing encoder and decoder
-    if (actualReadableBytes() > 0) {
-      out.add(in.readBytes(actualReadableBytes()));
+    if (in.isReadable()) {
+      out.add(in.readBytes(in.readableBytes()));
     }
     final ZMTPDecoder decoder = config.decoder().decoder(session);
     final ZMTPEncoder encoder = config.encoder().encoder(session);
     final ZMTPWireFormat wireFormat = ZMTPWireFormats.wireFormat(session.negotiatedVersion());
+    final ZMTPFramingDecoder framingDecoder =
+        new ZMTPFramingDecoder(wireFormat, decoder, config.maxFrameLength(), config.maxFrames(),
+                               config.maxMessageLength(), config.receiveHighWaterMark(),
+                               config.receiveHighWaterMarkBytes(), config.highWaterMarkPolicy(),
+                               session.metrics());
+    framingDecoder.setCumulator(config.cumulator());
     final ChannelHandler handler =
         new CombinedChannelDuplexHandler<ZMTPFramingDecoder, ZMTPFramingEncoder>(
-            new ZMTPFramingDecoder(wireFormat, decoder),
-            new ZMTPFramingEncoder(wireFormat, encoder));
+            framingDecoder,
+            new ZMTPFramingEncoder(wireFormat, encoder, config.spliceThreshold(),
+                                   config.autoFlushThreshold(), config.sendHighWaterMark(),
+                                   config.sendHighWaterMarkBytes(),
+                                   config.highWaterMarkPolicy(), config.vectoredWrites(),
+                                   session.metrics()));
     ctx.pipeline().replace(this, ctx.name(), handler);
 
+    // Heartbeat using PING and PONG commands if supported by the peer
+    if (session.negotiatedVersion() == ZMTPVersion.ZMTP31) {
+      ctx.pipeline().addAfter(ctx.name(), ctx.name() + "-heartbeat",
+                              new ZMTPHeartbeatHandler(config.heartbeatInterval(),
+                                                       config.heartbeatTtl()));
+    }
+
     // Tell the user that the handshake is complete
     ctx.fireUserEventTriggered(new ZMTPHandshakeSuccess(session, handshake));
   }
 
+  private void handshakeFailure(final ChannelHandlerContext ctx, final Throwable cause) {
+    session.handshakeFailure(cause);
+    session.metrics().handshakeFailure(System.nanoTime() - handshakeStart, cause);
+    ctx.fireUserEventTriggered(new ZMTPHandshakeFailure(session));
+  }
+
   public static Builder builder() {
     return new Builder();
   }
@@ -192,6 +234,86 @@ public class ZMTPCodec extends ReplayingDecoder<Void> {
       return this;
     }
 
+    public Builder spliceThreshold(final int spliceThreshold) {
+      config.spliceThreshold(spliceThreshold);
+      return this;
+    }
+
+    public Builder maxFrameLength(final long maxFrameLength) {
+      config.maxFrameLength(maxFrameLength);
+      return this;
+    }
+
+    public Builder maxFrames(final int maxFrames) {
+      config.maxFrames(maxFrames);
+      return this;
+    }
+
+    public Builder maxMessageLength(final long maxMessageLength) {
+      config.maxMessageLength(maxMessageLength);
+      return this;
+    }
+
+    public Builder heartbeatInterval(final long heartbeatInterval) {
+      config.heartbeatInterval(heartbeatInterval);
+      return this;
+    }
+
+    public Builder heartbeatTtl(final long heartbeatTtl) {
+      config.heartbeatTtl(heartbeatTtl);
+      return this;
+    }
+
+    public Builder autoFlushThreshold(final int autoFlushThreshold) {
+      config.autoFlushThreshold(autoFlushThreshold);
+      return this;
+    }
+
+    public Builder sendHighWaterMark(final int sendHighWaterMark) {
+      config.sendHighWaterMark(sendHighWaterMark);
+      return this;
+    }
+
+    public Builder sendHighWaterMarkBytes(final long sendHighWaterMarkBytes) {
+      config.sendHighWaterMarkBytes(sendHighWaterMarkBytes);
+      return this;
+    }
+
+    public Builder receiveHighWaterMark(final int receiveHighWaterMark) {
+      config.receiveHighWaterMark(receiveHighWaterMark);
+      return this;
+    }
+
+    public Builder receiveHighWaterMarkBytes(final long receiveHighWaterMarkBytes) {
+      config.receiveHighWaterMarkBytes(receiveHighWaterMarkBytes);
+      return this;
+    }
+
+    public Builder highWaterMarkPolicy(final ZMTPHighWaterMarkPolicy highWaterMarkPolicy) {
+      config.highWaterMarkPolicy(highWaterMarkPolicy);
+      return this;
+    }
+
+    public Builder vectoredWrites(final boolean vectoredWrites) {
+      config.vectoredWrites(vectoredWrites);
+      return this;
+    }
+
+    public Builder metrics(final ZMTPMetrics.Factory metrics) {
+      config.metrics(metrics);
+      return this;
+    }
+
+    public Builder frameCopyRatio(final int frameCopyRatio) {
+      config.frameCopyRatio(frameCopyRatio);
+      return this;
+    }
+
+    public Builder cumulator(final ByteToMessageDecoder.Cumulator cumulator) {
+      config.cumulator(cumulator);
+      return this;
+    }
+
     public ZMTPCodec build() {
       return ZMTPCodec.from(config.build());
     }
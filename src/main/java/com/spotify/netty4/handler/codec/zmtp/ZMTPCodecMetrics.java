@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.netty.util.internal.LongCounter;
+import io.netty.util.internal.PlatformDependent;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * {@link ZMTPMetrics} that count codec activity per session and in aggregate over all sessions
+ * created by this factory, e.g. all connections of a broker.
+ *
+ * Aggregate counters are striped {@link LongCounter}s, so that event loops updating them
+ * concurrently do not contend. Per session counters are only written by the event loop of the
+ * session and may be read from any thread.
+ *
+ * Sizes and latencies are recorded in power of two histograms, where bucket {@code 0} counts zero
+ * values and bucket {@code i > 0} counts values in the range {@code [2^(i-1), 2^i)}.
+ */
+public class ZMTPCodecMetrics implements ZMTPMetrics.Factory {
+
+  private static final int BUCKETS = 65;
+
+  private final LongCounter sessions = PlatformDependent.newLongCounter();
+  private final LongCounter handshakes = PlatformDependent.newLongCounter();
+  private final LongCounter handshakeNanos = PlatformDependent.newLongCounter();
+  private final LongCounter bytesReceived = PlatformDependent.newLongCounter();
+  private final LongCounter framesReceived = PlatformDependent.newLongCounter();
+  private final LongCounter messagesReceived = PlatformDependent.newLongCounter();
+  private final LongCounter messagesDropped = PlatformDependent.newLongCounter();
+  private final LongCounter bytesSent = PlatformDependent.newLongCounter();
+  private final LongCounter framesSent = PlatformDependent.newLongCounter();
+  private final LongCounter messagesSent = PlatformDependent.newLongCounter();
+  private final LongCounter messagesRejected = PlatformDependent.newLongCounter();
+  private final LongCounter flushes = PlatformDependent.newLongCounter();
+
+  private final LongCounter[] handshakeLatencies = histogram();
+  private final LongCounter[] receivedFrameSizes = histogram();
+  private final LongCounter[] sentFrameSizes = histogram();
+  private final LongCounter[] flushSizes = histogram();
+
+  private final ConcurrentMap<String, LongCounter> handshakeFailures =
+      new ConcurrentHashMap<String, LongCounter>();
+
+  @Override
+  public ZMTPMetrics metrics(final ZMTPSession session) {
+    sessions.increment();
+    return new Session();
+  }
+
+  /**
+   * Get the per session metrics of a session created with this factory.
+   *
+   * @return The metrics, or null if the session was not created with this factory.
+   */
+  public Session session(final ZMTPSession session) {
+    checkNotNull(session, "session");
+    final ZMTPMetrics metrics = session.metrics();
+    if (metrics instanceof Session && ((Session) metrics).parent() == this) {
+      return (Session) metrics;
+    }
+    return null;
+  }
+
+  /**
+   * @return The number of sessions created.
+   */
+  public long sessions() {
+    return sessions.value();
+  }
+
+  /**
+   * @return The number of successful handshakes.
+   */
+  public long handshakes() {
+    return handshakes.value();
+  }
+
+  /**
+   * @return The average latency in nanoseconds of successful handshakes.
+   */
+  public double averageHandshakeNanos() {
+    final long handshakes = this.handshakes.value();
+    return handshakes == 0 ? 0 : (double) handshakeNanos.value() / handshakes;
+  }
+
+  /**
+   * @return A histogram of the latencies in nanoseconds of successful handshakes.
+   */
+  public long[] handshakeLatencies() {
+    return snapshot(handshakeLatencies);
+  }
+
+  /**
+   * @return The number of failed handshakes by the class name of the cause.
+   */
+  public Map<String, Long> handshakeFailures() {
+    final Map<String, Long> failures = new HashMap<String, Long>();
+    for (final Map.Entry<String, LongCounter> entry : handshakeFailures.entrySet()) {
+      failures.put(entry.getKey(), entry.getValue().value());
+    }
+    return Collections.unmodifiableMap(failures);
+  }
+
+  public long bytesReceived() {
+    return bytesReceived.value();
+  }
+
+  public long framesReceived() {
+    return framesReceived.value();
+  }
+
+  public long messagesReceived() {
+    return messagesReceived.value();
+  }
+
+  /**
+   * @return The number of messages discarded as the receive high water mark was reached.
+   */
+  public long messagesDropped() {
+    return messagesDropped.value();
+  }
+
+  /**
+   * @return A histogram of the content length of received frames.
+   */
+  public long[] receivedFrameSizes() {
+    return snapshot(receivedFrameSizes);
+  }
+
+  public long bytesSent() {
+    return bytesSent.value();
+  }
+
+  public long framesSent() {
+    return framesSent.value();
+  }
+
+  public long messagesSent() {
+    return messagesSent.value();
+  }
+
+  /**
+   * @return The number of messages dropped or failed as the send high water mark was reached.
+   */
+  public long messagesRejected() {
+    return messagesRejected.value();
+  }
+
+  /**
+   * @return A histogram of the content length of sent frames.
+   */
+  public long[] sentFrameSizes() {
+    return snapshot(sentFrameSizes);
+  }
+
+  /**
+   * @return The number of flushes of messages, not counting flushes of only commands.
+   */
+  public long flushes() {
+    return flushes.value();
+  }
+
+  /**
+   * @return A histogram of the number of messages per flush.
+   */
+  public long[] flushSizes() {
+    return snapshot(flushSizes);
+  }
+
+  private void handshakeFailure(final Throwable cause) {
+    final String name = cause.getClass().getName();
+    LongCounter counter = handshakeFailures.get(name);
+    if (counter == null) {
+      final LongCounter newCounter = PlatformDependent.newLongCounter();
+      counter = handshakeFailures.putIfAbsent(name, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.increment();
+  }
+
+  private static LongCounter[] histogram() {
+    final LongCounter[] histogram = new LongCounter[BUCKETS];
+    for (int i = 0; i < histogram.length; i++) {
+      histogram[i] = PlatformDependent.newLongCounter();
+    }
+    return histogram;
+  }
+
+  private static void record(final LongCounter[] histogram, final long value) {
+    histogram[64 - Long.numberOfLeadingZeros(value)].increment();
+  }
+
+  private static long[] snapshot(final LongCounter[] histogram) {
+    final long[] snapshot = new long[histogram.length];
+    for (int i = 0; i < histogram.length; i++) {
+      snapshot[i] = histogram[i].value();
+    }
+    return snapshot;
+  }
+
+  /**
+   * The metrics of a single session. Updates are also recorded in the aggregate metrics.
+   */
+  public class Session implements ZMTPMetrics {
+
+    // Written on the event loop only
+    private volatile long handshakeNanos = -1;
+    private volatile long bytesReceived;
+    private volatile long framesReceived;
+    private volatile long messagesReceived;
+    private volatile long messagesDropped;
+    private volatile long bytesSent;
+    private volatile long framesSent;
+    private volatile long messagesSent;
+    private volatile long messagesRejected;
+    private volatile long flushes;
+
+    private Session() {
+    }
+
+    private ZMTPCodecMetrics parent() {
+      return ZMTPCodecMetrics.this;
+    }
+
+    /**
+     * @return The handshake latency in nanoseconds, or -1 if the handshake has not succeeded.
+     */
+    public long handshakeNanos() {
+      return handshakeNanos;
+    }
+
+    public long bytesReceived() {
+      return bytesReceived;
+    }
+
+    public long framesReceived() {
+      return framesReceived;
+    }
+
+    public long messagesReceived() {
+      return messagesReceived;
+    }
+
+    public long messagesDropped() {
+      return messagesDropped;
+    }
+
+    public long bytesSent() {
+      return bytesSent;
+    }
+
+    public long framesSent() {
+      return framesSent;
+    }
+
+    public long messagesSent() {
+      return messagesSent;
+    }
+
+    public long messagesRejected() {
+      return messagesRejected;
+    }
+
+    /**
+     * @return The number of flushes of messages, not counting flushes of only commands.
+     */
+    public long flushes() {
+      return flushes;
+    }
+
+    /**
+     * @return The average number of messages per flush.
+     */
+    public double averageFlushSize() {
+      final long flushes = this.flushes;
+      return flushes == 0 ? 0 : (double) messagesSent / flushes;
+    }
+
+    @Override
+    public void handshakeSuccess(final long nanos) {
+      handshakeNanos = nanos;
+      handshakes.increment();
+      ZMTPCodecMetrics.this.handshakeNanos.add(nanos);
+      record(handshakeLatencies, nanos);
+    }
+
+    @Override
+    public void handshakeFailure(final long nanos, final Throwable cause) {
+      ZMTPCodecMetrics.this.handshakeFailure(cause);
+    }
+
+    @Override
+    public void bytesReceived(final int bytes) {
+      bytesReceived += bytes;
+      ZMTPCodecMetrics.this.bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void frameReceived(final long length) {
+      framesReceived++;
+      ZMTPCodecMetrics.this.framesReceived.increment();
+      record(receivedFrameSizes, length);
+    }
+
+    @Override
+    public void messageReceived(final int frames, final long length) {
+      messagesReceived++;
+      ZMTPCodecMetrics.this.messagesReceived.increment();
+    }
+
+    @Override
+    public void messageDropped() {
+      messagesDropped++;
+      ZMTPCodecMetrics.this.messagesDropped.increment();
+    }
+
+    @Override
+    public void frameSent(final int length) {
+      framesSent++;
+      ZMTPCodecMetrics.this.framesSent.increment();
+      record(sentFrameSizes, length);
+    }
+
+    @Override
+    public void messageRejected() {
+      messagesRejected++;
+      ZMTPCodecMetrics.this.messagesRejected.increment();
+    }
+
+    @Override
+    public void flushed(final int messages, final int bytes) {
+      bytesSent += bytes;
+      ZMTPCodecMetrics.this.bytesSent.add(bytes);
+      // Flushes of only commands, e.g. heartbeats, would skew the flush sizes
+      if (messages == 0) {
+        return;
+      }
+      flushes++;
+      messagesSent += messages;
+      ZMTPCodecMetrics.this.flushes.increment();
+      ZMTPCodecMetrics.this.messagesSent.add(messages);
+      record(flushSizes, messages);
+    }
+  }
+}
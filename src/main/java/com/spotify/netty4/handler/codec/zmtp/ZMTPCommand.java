@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * A ZMTP/3.x command, e.g. PING or SUBSCRIBE. Commands received after the handshake are passed on
+ * to upstream handlers as {@link ZMTPCommand} instances. Commands may also be written to a channel,
+ * but only once a ZMTP/3.x session has been established.
+ */
+public class ZMTPCommand {
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+  private final String name;
+  private final ByteBuffer data;
+
+  private ZMTPCommand(final String name, final ByteBuffer data) {
+    this.name = checkNotNull(name, "name");
+    this.data = checkNotNull(data, "data");
+    checkArgument(name.length() < 256, "command name too long: %s", name);
+  }
+
+  /**
+   * The command name.
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * The command data following the name.
+   */
+  public ByteBuffer data() {
+    return data.asReadOnlyBuffer();
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) { return true; }
+    if (o == null || getClass() != o.getClass()) { return false; }
+
+    final ZMTPCommand that = (ZMTPCommand) o;
+
+    if (!name.equals(that.name)) { return false; }
+    return data.equals(that.data);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = name.hashCode();
+    result = 31 * result + data.hashCode();
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPCommand{" +
+           "name=" + name +
+           ", data=" + data +
+           '}';
+  }
+
+  public static ZMTPCommand of(final String name) {
+    return new ZMTPCommand(name, EMPTY);
+  }
+
+  public static ZMTPCommand of(final String name, final ByteBuffer data) {
+    return new ZMTPCommand(name, data);
+  }
+}
@@ -20,6 +20,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
 
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 import static io.netty.util.CharsetUtil.UTF_8;
 
@@ -31,6 +34,21 @@ public class ZMTPConfig {
 
   public static final ByteBuffer ANONYMOUS = ByteBuffer.allocate(0).asReadOnlyBuffer();
 
+  /**
+   * Splice threshold that disables splicing, i.e. all frame content is copied when encoding.
+   */
+  public static final int NO_SPLICING = Integer.MAX_VALUE;
+
+  /**
+   * Auto flush threshold that disables automatic flushing.
+   */
+  public static final int NO_AUTO_FLUSH = Integer.MAX_VALUE;
+
+  /**
+   * The largest heartbeat TTL in milliseconds that can be advertised in a PING command.
+   */
+  public static final long MAX_HEARTBEAT_TTL = 0xffff * 100L;
+
   private final ZMTPProtocol protocol;
   private final boolean interop;
   private final ZMTPSocketType socketType;
@@ -38,6 +56,22 @@ public class ZMTPConfig {
   private final ZMTPEncoder.Factory encoder;
   private final ZMTPDecoder.Factory decoder;
   private final ZMTPIdentityGenerator identityGenerator;
+  private final int spliceThreshold;
+  private final long maxFrameLength;
+  private final int maxFrames;
+  private final long maxMessageLength;
+  private final long heartbeatInterval;
+  private final long heartbeatTtl;
+  private final int autoFlushThreshold;
+  private final int sendHighWaterMark;
+  private final long sendHighWaterMarkBytes;
+  private final int receiveHighWaterMark;
+  private final long receiveHighWaterMarkBytes;
+  private final ZMTPHighWaterMarkPolicy highWaterMarkPolicy;
+  private final boolean vectoredWrites;
+  private final ZMTPMetrics.Factory metrics;
+  private final int frameCopyRatio;
+  private final ByteToMessageDecoder.Cumulator cumulator;
 
   private ZMTPConfig(final Builder builder) {
     this.protocol = checkNotNull(builder.protocol, "protocol");
@@ -47,6 +81,42 @@ public class ZMTPConfig {
     this.encoder = checkNotNull(builder.encoder, "encoder");
     this.decoder = checkNotNull(builder.decoder, "decoder");
     this.identityGenerator = checkNotNull(builder.identityGenerator, "identityGenerator");
+    this.spliceThreshold = builder.spliceThreshold;
+    checkArgument(spliceThreshold > 0, "spliceThreshold must be positive: %d", spliceThreshold);
+    this.maxFrameLength = builder.maxFrameLength;
+    checkArgument(maxFrameLength >= 0, "maxFrameLength must not be negative: %d", maxFrameLength);
+    this.maxFrames = builder.maxFrames;
+    checkArgument(maxFrames > 0, "maxFrames must be positive: %d", maxFrames);
+    this.maxMessageLength = builder.maxMessageLength;
+    checkArgument(maxMessageLength >= 0, "maxMessageLength must not be negative: %d",
+                  maxMessageLength);
+    this.heartbeatInterval = builder.heartbeatInterval;
+    checkArgument(heartbeatInterval >= 0, "heartbeatInterval must not be negative: %d",
+                  heartbeatInterval);
+    this.heartbeatTtl = builder.heartbeatTtl;
+    checkArgument(heartbeatTtl >= 0 && heartbeatTtl <= MAX_HEARTBEAT_TTL,
+                  "heartbeatTtl must be between 0 and " + MAX_HEARTBEAT_TTL + ": %d", heartbeatTtl);
+    this.autoFlushThreshold = builder.autoFlushThreshold;
+    checkArgument(autoFlushThreshold > 0, "autoFlushThreshold must be positive: %d",
+                  autoFlushThreshold);
+    this.sendHighWaterMark = builder.sendHighWaterMark;
+    checkArgument(sendHighWaterMark >= 0, "sendHighWaterMark must not be negative: %d",
+                  sendHighWaterMark);
+    this.sendHighWaterMarkBytes = builder.sendHighWaterMarkBytes;
+    checkArgument(sendHighWaterMarkBytes >= 0, "sendHighWaterMarkBytes must not be negative: %d",
+                  sendHighWaterMarkBytes);
+    this.receiveHighWaterMark = builder.receiveHighWaterMark;
+    checkArgument(receiveHighWaterMark >= 0, "receiveHighWaterMark must not be negative: %d",
+                  receiveHighWaterMark);
+    this.receiveHighWaterMarkBytes = builder.receiveHighWaterMarkBytes;
+    checkArgument(receiveHighWaterMarkBytes >= 0,
+                  "receiveHighWaterMarkBytes must not be negative: %d", receiveHighWaterMarkBytes);
+    this.highWaterMarkPolicy = checkNotNull(builder.highWaterMarkPolicy, "highWaterMarkPolicy");
+    this.vectoredWrites = builder.vectoredWrites;
+    this.metrics = checkNotNull(builder.metrics, "metrics");
+    this.frameCopyRatio = builder.frameCopyRatio;
+    checkArgument(frameCopyRatio >= 0, "frameCopyRatio must not be negative: %d", frameCopyRatio);
+    this.cumulator = checkNotNull(builder.cumulator, "cumulator");
   }
 
   public ZMTPProtocol protocol() {
@@ -77,6 +147,140 @@ public class ZMTPConfig {
     return identityGenerator;
   }
 
+  /**
+   * Frames with content of at least this many bytes are spliced into the encoder output as
+   * retained slices instead of being copied. Defaults to {@link #NO_SPLICING}.
+   */
+  public int spliceThreshold() {
+    return spliceThreshold;
+  }
+
+  /**
+   * The maximum length in bytes of a single incoming frame. Defaults to unlimited.
+   */
+  public long maxFrameLength() {
+    return maxFrameLength;
+  }
+
+  /**
+   * The maximum number of frames in a single incoming message. Defaults to unlimited.
+   */
+  public int maxFrames() {
+    return maxFrames;
+  }
+
+  /**
+   * The maximum total length in bytes of the frames of a single incoming message. Defaults to
+   * unlimited.
+   */
+  public long maxMessageLength() {
+    return maxMessageLength;
+  }
+
+  /**
+   * The interval in milliseconds at which ZMTP/3.1 PING commands are sent to the peer. Defaults to
+   * 0, which disables heartbeating.
+   */
+  public long heartbeatInterval() {
+    return heartbeatInterval;
+  }
+
+  /**
+   * The time in milliseconds without any traffic from the peer after which the channel is closed.
+   * This is also advertised to the peer in PING commands and is limited to {@link
+   * #MAX_HEARTBEAT_TTL}. Defaults to 0, meaning that the channel is only closed if the peer
+   * advertises a TTL. The local TTL is only enforced along with a non-zero {@link
+   * #heartbeatInterval()}, while a TTL advertised by the peer is enforced regardless.
+   */
+  public long heartbeatTtl() {
+    return heartbeatTtl;
+  }
+
+  /**
+   * When the estimated size in bytes of messages written but not yet flushed reaches this
+   * threshold, they are flushed automatically. Defaults to {@link #NO_AUTO_FLUSH}.
+   */
+  public int autoFlushThreshold() {
+    return autoFlushThreshold;
+  }
+
+  /**
+   * The maximum number of outgoing messages queued for the peer, counting messages buffered by the
+   * codec and messages flushed but not yet written to the socket. What happens when it is reached
+   * is governed by the {@link #highWaterMarkPolicy()}. Defaults to 0, meaning no limit.
+   */
+  public int sendHighWaterMark() {
+    return sendHighWaterMark;
+  }
+
+  /**
+   * The maximum number of outgoing bytes queued for the peer. Defaults to 0, meaning no limit.
+   */
+  public long sendHighWaterMarkBytes() {
+    return sendHighWaterMarkBytes;
+  }
+
+  /**
+   * The maximum number of incoming {@link ZMTPMessage}s that have been received from the peer but
+   * not yet released. Defaults to 0, meaning no limit.
+   */
+  public int receiveHighWaterMark() {
+    return receiveHighWaterMark;
+  }
+
+  /**
+   * The maximum number of incoming bytes that have been received from the peer but not yet
+   * released. Defaults to 0, meaning no limit.
+   */
+  public long receiveHighWaterMarkBytes() {
+    return receiveHighWaterMarkBytes;
+  }
+
+  /**
+   * What to do when a high water mark is reached. Defaults to
+   * {@link ZMTPHighWaterMarkPolicy#BLOCK}.
+   */
+  public ZMTPHighWaterMarkPolicy highWaterMarkPolicy() {
+    return highWaterMarkPolicy;
+  }
+
+  /**
+   * Whether spliced frame content is written to the channel as separate buffers, next to
+   * buffers holding the encoded frame headers and copied frames, instead of being gathered into a
+   * {@link io.netty.buffer.CompositeByteBuf}. The transport sends the buffers of a flush with a
+   * single gathering write.
+   */
+  public boolean vectoredWrites() {
+    return vectoredWrites;
+  }
+
+  /**
+   * Get the factory of the metrics that codec activity of each session is reported to. Defaults to
+   * {@link ZMTPMetrics.Factory#NOOP}.
+   */
+  public ZMTPMetrics.Factory metrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the input buffer to frame size ratio above which frames decoded by {@link
+   * ZMTPMessageDecoder} are copied into right-sized buffers instead of being sliced from the input
+   * buffer. A sliced frame keeps the whole input buffer alive for as long as it is held, so copying
+   * small frames bounds the memory held by slow consumers. Defaults to 0, always slicing.
+   */
+  public int frameCopyRatio() {
+    return frameCopyRatio;
+  }
+
+  /**
+   * Get the {@link ByteToMessageDecoder.Cumulator} that the framing decoder uses to accumulate
+   * input. Defaults to {@link ByteToMessageDecoder#MERGE_CUMULATOR}. {@link
+   * ByteToMessageDecoder#COMPOSITE_CUMULATOR} avoids copying input when frames span reads.
+   */
+  public ByteToMessageDecoder.Cumulator cumulator() {
+    return cumulator;
+  }
+
   public Builder toBuilder() {
     return new Builder(this);
   }
@@ -93,7 +297,23 @@ public class ZMTPConfig {
     private ByteBuffer localIdentity = ANONYMOUS;
     private ZMTPEncoder.Factory encoder = ZMTPMessageEncoder.FACTORY;
     private ZMTPDecoder.Factory decoder = ZMTPMessageDecoder.FACTORY;
-    private ZMTPIdentityGenerator identityGenerator = ZMTPLongIdentityGenerator.GLOBAL;
+    private ZMTPIdentityGenerator identityGenerator = ZMTPStripedIdentityGenerator.GLOBAL;
+    private int spliceThreshold = NO_SPLICING;
+    private long maxFrameLength = Long.MAX_VALUE;
+    private int maxFrames = Integer.MAX_VALUE;
+    private long maxMessageLength = Long.MAX_VALUE;
+    private long heartbeatInterval = 0;
+    private long heartbeatTtl = 0;
+    private int autoFlushThreshold = NO_AUTO_FLUSH;
+    private int sendHighWaterMark = 0;
+    private long sendHighWaterMarkBytes = 0;
+    private int receiveHighWaterMark = 0;
+    private long receiveHighWaterMarkBytes = 0;
+    private ZMTPHighWaterMarkPolicy highWaterMarkPolicy = ZMTPHighWaterMarkPolicy.BLOCK;
+    private boolean vectoredWrites = false;
+    private ZMTPMetrics.Factory metrics = ZMTPMetrics.Factory.NOOP;
+    private int frameCopyRatio = 0;
+    private ByteToMessageDecoder.Cumulator cumulator = ByteToMessageDecoder.MERGE_CUMULATOR;
 
     private Builder() {
     }
@@ -105,7 +325,23 @@ public class ZMTPConfig {
       this.localIdentity = config.localIdentity;
       this.encoder = config.encoder;
       this.decoder = config.decoder;
-
+      this.identityGenerator = config.identityGenerator;
+      this.spliceThreshold = config.spliceThreshold;
+      this.maxFrameLength = config.maxFrameLength;
+      this.maxFrames = config.maxFrames;
+      this.maxMessageLength = config.maxMessageLength;
+      this.heartbeatInterval = config.heartbeatInterval;
+      this.heartbeatTtl = config.heartbeatTtl;
+      this.autoFlushThreshold = config.autoFlushThreshold;
+      this.sendHighWaterMark = config.sendHighWaterMark;
+      this.sendHighWaterMarkBytes = config.sendHighWaterMarkBytes;
+      this.receiveHighWaterMark = config.receiveHighWaterMark;
+      this.receiveHighWaterMarkBytes = config.receiveHighWaterMarkBytes;
+      this.highWaterMarkPolicy = config.highWaterMarkPolicy;
+      this.vectoredWrites = config.vectoredWrites;
+      this.metrics = config.metrics;
+      this.frameCopyRatio = config.frameCopyRatio;
+      this.cumulator = config.cumulator;
     }
 
     public Builder protocol(final ZMTPProtocol protocol) {
@@ -159,6 +395,86 @@ public class ZMTPConfig {
       return this;
     }
 
+    public Builder spliceThreshold(final int spliceThreshold) {
+      this.spliceThreshold = spliceThreshold;
+      return this;
+    }
+
+    public Builder maxFrameLength(final long maxFrameLength) {
+      this.maxFrameLength = maxFrameLength;
+      return this;
+    }
+
+    public Builder maxFrames(final int maxFrames) {
+      this.maxFrames = maxFrames;
+      return this;
+    }
+
+    public Builder maxMessageLength(final long maxMessageLength) {
+      this.maxMessageLength = maxMessageLength;
+      return this;
+    }
+
+    public Builder heartbeatInterval(final long heartbeatInterval) {
+      this.heartbeatInterval = heartbeatInterval;
+      return this;
+    }
+
+    public Builder heartbeatTtl(final long heartbeatTtl) {
+      this.heartbeatTtl = heartbeatTtl;
+      return this;
+    }
+
+    public Builder autoFlushThreshold(final int autoFlushThreshold) {
+      this.autoFlushThreshold = autoFlushThreshold;
+      return this;
+    }
+
+    public Builder sendHighWaterMark(final int sendHighWaterMark) {
+      this.sendHighWaterMark = sendHighWaterMark;
+      return this;
+    }
+
+    public Builder sendHighWaterMarkBytes(final long sendHighWaterMarkBytes) {
+      this.sendHighWaterMarkBytes = sendHighWaterMarkBytes;
+      return this;
+    }
+
+    public Builder receiveHighWaterMark(final int receiveHighWaterMark) {
+      this.receiveHighWaterMark = receiveHighWaterMark;
+      return this;
+    }
+
+    public Builder receiveHighWaterMarkBytes(final long receiveHighWaterMarkBytes) {
+      this.receiveHighWaterMarkBytes = receiveHighWaterMarkBytes;
+      return this;
+    }
+
+    public Builder highWaterMarkPolicy(final ZMTPHighWaterMarkPolicy highWaterMarkPolicy) {
+      this.highWaterMarkPolicy = highWaterMarkPolicy;
+      return this;
+    }
+
+    public Builder vectoredWrites(final boolean vectoredWrites) {
+      this.vectoredWrites = vectoredWrites;
+      return this;
+    }
+
+    public Builder metrics(final ZMTPMetrics.Factory metrics) {
+      this.metrics = metrics;
+      return this;
+    }
+
+    public Builder frameCopyRatio(final int frameCopyRatio) {
+      this.frameCopyRatio = frameCopyRatio;
+      return this;
+    }
+
+    public Builder cumulator(final ByteToMessageDecoder.Cumulator cumulator) {
+      this.cumulator = cumulator;
+      return this;
+    }
+
     public ZMTPConfig build() {
       return new ZMTPConfig(this);
     }
@@ -174,6 +490,22 @@ public class ZMTPConfig {
            ", localIdentity=" + localIdentity +
            ", encoder=" + encoder +
            ", decoder=" + decoder +
+           ", spliceThreshold=" + spliceThreshold +
+           ", maxFrameLength=" + maxFrameLength +
+           ", maxFrames=" + maxFrames +
+           ", maxMessageLength=" + maxMessageLength +
+           ", heartbeatInterval=" + heartbeatInterval +
+           ", heartbeatTtl=" + heartbeatTtl +
+           ", autoFlushThreshold=" + autoFlushThreshold +
+           ", sendHighWaterMark=" + sendHighWaterMark +
+           ", sendHighWaterMarkBytes=" + sendHighWaterMarkBytes +
+           ", receiveHighWaterMark=" + receiveHighWaterMark +
+           ", receiveHighWaterMarkBytes=" + receiveHighWaterMarkBytes +
+           ", highWaterMarkPolicy=" + highWaterMarkPolicy +
+           ", vectoredWrites=" + vectoredWrites +
+           ", metrics=" + metrics +
+           ", frameCopyRatio=" + frameCopyRatio +
+           ", cumulator=" + cumulator +
            '}';
   }
 
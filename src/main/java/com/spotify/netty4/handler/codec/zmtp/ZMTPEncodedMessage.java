@@ -0,0 +1,136 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.util.AbstractReferenceCounted;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * A {@link ZMTPMessage} that is encoded at most once per wire format, for sending the same message
+ * to many peers.
+ *
+ * The encoded form is produced by the first peer encoder that needs it and is then shared as a
+ * read-only {@link ByteBuf} by all peer encoders using the same wire format, which pass it through
+ * without encoding the message again. Write the message to each channel with a {@link #retain()}ed
+ * reference. The frames are encoded as by {@link ZMTPMessageEncoder}, regardless of the encoder
+ * configured for the channel.
+ *
+ * The message is released when the encoded message is deallocated.
+ */
+public class ZMTPEncodedMessage extends AbstractReferenceCounted {
+
+  private static final int ZMTP10_SLOT = 0;
+  private static final int ZMTP20_SLOT = 1;
+  private static final int ZMTP30_SLOT = 2;
+  private static final int SLOTS = 3;
+
+  private final ZMTPMessage message;
+  private final AtomicReferenceArray<ByteBuf> encoded = new AtomicReferenceArray<ByteBuf>(SLOTS);
+
+  private ZMTPEncodedMessage(final ZMTPMessage message) {
+    this.message = checkNotNull(message, "message");
+  }
+
+  /**
+   * Create an encoded message, taking over the reference to a message.
+   */
+  public static ZMTPEncodedMessage from(final ZMTPMessage message) {
+    return new ZMTPEncodedMessage(message);
+  }
+
+  /**
+   * The message that is encoded.
+   */
+  public ZMTPMessage message() {
+    return message;
+  }
+
+  /**
+   * Get the encoded form of the message for a wire format, encoding it if this is the first time it
+   * is requested. The returned buffer is shared and must not be released by the caller.
+   */
+  ByteBuf content(final ByteBufAllocator alloc, final ZMTPWireFormat wireFormat) {
+    final int slot = slot(wireFormat);
+    final ByteBuf content = encoded.get(slot);
+    if (content != null) {
+      return content;
+    }
+    final ByteBuf encoded = encode(alloc, wireFormat);
+    if (this.encoded.compareAndSet(slot, null, encoded)) {
+      return encoded;
+    }
+    // Another thread got there first
+    encoded.release();
+    return this.encoded.get(slot);
+  }
+
+  private ByteBuf encode(final ByteBufAllocator alloc, final ZMTPWireFormat wireFormat) {
+    final ZMTPMessageEncoder encoder = new ZMTPMessageEncoder();
+    final ZMTPEstimator estimator = new ZMTPEstimator(wireFormat);
+    encoder.estimate(message, estimator);
+    // Without metrics, as the frames are reported by each encoder that sends them
+    final ZMTPWriter writer = new ZMTPWriter(wireFormat);
+    writer.reset(alloc.buffer(estimator.size()));
+    encoder.encode(message, writer);
+    return Unpooled.unmodifiableBuffer(writer.finish());
+  }
+
+  private static int slot(final ZMTPWireFormat wireFormat) {
+    if (wireFormat instanceof ZMTP10WireFormat) {
+      return ZMTP10_SLOT;
+    } else if (wireFormat instanceof ZMTP20WireFormat) {
+      return ZMTP20_SLOT;
+    } else if (wireFormat instanceof ZMTP30WireFormat) {
+      return ZMTP30_SLOT;
+    }
+    throw new IllegalArgumentException("Unsupported wire format: " + wireFormat);
+  }
+
+  @Override
+  public ZMTPEncodedMessage retain() {
+    super.retain();
+    return this;
+  }
+
+  @Override
+  public ZMTPEncodedMessage retain(final int increment) {
+    super.retain(increment);
+    return this;
+  }
+
+  @Override
+  protected void deallocate() {
+    message.release();
+    for (int i = 0; i < SLOTS; i++) {
+      final ByteBuf content = encoded.getAndSet(i, null);
+      if (content != null) {
+        content.release();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ZMTPEncodedMessage{" + message + '}';
+  }
+}
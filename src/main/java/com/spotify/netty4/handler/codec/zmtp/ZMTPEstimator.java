@@ -16,28 +16,93 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import io.netty.buffer.ByteBuf;
+
 public class ZMTPEstimator {
 
   private int size;
+  private long wireSize;
 
-  private ZMTPWireFormat wireFormat;
+  private final ZMTPWireFormat wireFormat;
+  private final int spliceThreshold;
 
   ZMTPEstimator(final ZMTPWireFormat wireFormat) {
+    this(wireFormat, Integer.MAX_VALUE);
+  }
+
+  ZMTPEstimator(final ZMTPWireFormat wireFormat, final int spliceThreshold) {
     this.wireFormat = wireFormat;
+    this.spliceThreshold = spliceThreshold;
   }
 
   public void reset() {
     size = 0;
+    wireSize = 0;
   }
 
   public void frame(final int size) {
-    this.size += wireFormat.frameLength(size);
+    final int length = wireFormat.frameLength(size);
+    this.size += length;
+    this.wireSize += length;
+  }
+
+  /**
+   * Estimate a frame that will be written using {@link ZMTPWriter#frame(ByteBuf, boolean)}. Content
+   * that will be spliced rather than copied only accounts for the header.
+   */
+  public void frame(final ByteBuf content) {
+    final int size = content.readableBytes();
+    final int length = wireFormat.frameLength(size);
+    if (size < spliceThreshold) {
+      this.size += length;
+    } else {
+      this.size += length - size;
+    }
+    this.wireSize += length;
+  }
+
+  /**
+   * Estimate a frame that will be written using {@link ZMTPWriter#writeUtf8Frame}. The estimate is
+   * an upper bound of the encoded size.
+   */
+  public void utf8Frame(final CharSequence s) {
+    final int length = wireFormat.frameLength(ZMTPUtils.utf8MaxLength(s));
+    this.size += length;
+    this.wireSize += length;
   }
 
+  /**
+   * Estimate the already encoded frames of a {@link ZMTPEncodedMessage}, which will be written
+   * using {@link ZMTPWriter#encoded(ByteBuf)}. They are always spliced, so they only add to the
+   * {@link #wireSize()}.
+   */
+  void encoded(final ByteBuf content) {
+    this.wireSize += content.readableBytes();
+  }
+
+  /**
+   * Estimate a ZMTP/3.x command frame.
+   */
+  void command(final ZMTPCommand command) {
+    final int length = ZMTP30WireFormat.commandLength(command);
+    this.size += length;
+    this.wireSize += length;
+  }
+
+  /**
+   * The estimated size of the output buffer, excluding spliced content.
+   */
   public int size() {
     return size;
   }
 
+  /**
+   * The estimated number of bytes that will be sent to the peer, including spliced content.
+   */
+  long wireSize() {
+    return wireSize;
+  }
+
   static ZMTPEstimator create(final ZMTPVersion version) {
     return new ZMTPEstimator(ZMTPWireFormats.wireFormat(version));
   }
@@ -26,18 +26,66 @@ import static java.lang.Math.min;
 
 /**
  * Netty ZMTP decoder.
+ *
+ * If a receive high water mark is configured, decoded {@link ZMTPMessage}s are counted until they
+ * are released. While the count is at the high water mark, incoming messages are either discarded
+ * undecoded or reading from the channel is paused, depending on the {@link
+ * ZMTPHighWaterMarkPolicy}.
  */
 class ZMTPFramingDecoder extends ByteToMessageDecoder {
 
   private final ZMTPDecoder decoder;
   private final ZMTPWireFormat.Header header;
+  private final long maxFrameLength;
+  private final int maxFrames;
+  private final long maxMessageLength;
+  private final ZMTPHighWaterMarkPolicy policy;
+  private final ZMTPReceiveQueue queue;
+  private final ZMTPMetrics metrics;
 
   private long remaining;
   private boolean headerParsed;
+  private int frames;
+  private long messageLength;
+  private boolean failed;
+  private boolean dropping;
 
   public ZMTPFramingDecoder(final ZMTPWireFormat wireFormat, final ZMTPDecoder decoder) {
+    this(wireFormat, decoder, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+  }
+
+  public ZMTPFramingDecoder(final ZMTPWireFormat wireFormat, final ZMTPDecoder decoder,
+                            final long maxFrameLength, final int maxFrames,
+                            final long maxMessageLength) {
+    this(wireFormat, decoder, maxFrameLength, maxFrames, maxMessageLength, 0, 0,
+         ZMTPHighWaterMarkPolicy.BLOCK);
+  }
+
+  public ZMTPFramingDecoder(final ZMTPWireFormat wireFormat, final ZMTPDecoder decoder,
+                            final long maxFrameLength, final int maxFrames,
+                            final long maxMessageLength, final int receiveHighWaterMark,
+                            final long receiveHighWaterMarkBytes,
+                            final ZMTPHighWaterMarkPolicy policy) {
+    this(wireFormat, decoder, maxFrameLength, maxFrames, maxMessageLength, receiveHighWaterMark,
+         receiveHighWaterMarkBytes, policy, ZMTPMetrics.NOOP);
+  }
+
+  public ZMTPFramingDecoder(final ZMTPWireFormat wireFormat, final ZMTPDecoder decoder,
+                            final long maxFrameLength, final int maxFrames,
+                            final long maxMessageLength, final int receiveHighWaterMark,
+                            final long receiveHighWaterMarkBytes,
+                            final ZMTPHighWaterMarkPolicy policy, final ZMTPMetrics metrics) {
     this.header = wireFormat.header();
     this.decoder = decoder;
+    // Frame content is handed to decoders in ByteBufs, which cannot hold more than 2 GiB
+    this.maxFrameLength = min(maxFrameLength, Integer.MAX_VALUE);
+    this.maxFrames = maxFrames;
+    this.maxMessageLength = maxMessageLength;
+    this.policy = policy;
+    this.queue = (receiveHighWaterMark > 0 || receiveHighWaterMarkBytes > 0)
+                 ? new ZMTPReceiveQueue(receiveHighWaterMark, receiveHighWaterMarkBytes)
+                 : null;
+    this.metrics = metrics;
   }
 
   @Override
@@ -48,6 +96,22 @@ class ZMTPFramingDecoder extends ByteToMessageDecoder {
   @Override
   protected void decode(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out)
       throws ZMTPParsingException {
+    final int start = in.readerIndex();
+    try {
+      read(ctx, in, out);
+    } finally {
+      metrics.bytesReceived(in.readerIndex() - start);
+    }
+  }
+
+  private void read(final ChannelHandlerContext ctx, final ByteBuf in, final List<Object> out)
+      throws ZMTPParsingException {
+    // Discard input if a limit was exceeded. It is expected that the user will close the channel.
+    if (failed) {
+      in.skipBytes(in.readableBytes());
+      return;
+    }
+
     while (in.isReadable()) {
       if (!headerParsed) {
         final int mark = in.readerIndex();
@@ -57,26 +121,124 @@ class ZMTPFramingDecoder extends ByteToMessageDecoder {
           in.readerIndex(mark);
           return;
         }
-        decoder.header(ctx, header.length(), header.more(), out);
+        if (header.command()) {
+          if (!command(in, out)) {
+            // Wait for the complete command
+            in.readerIndex(mark);
+            headerParsed = false;
+            return;
+          }
+          headerParsed = false;
+          continue;
+        }
+        checkLimits(in);
+        metrics.frameReceived(header.length());
+        if (frames == 1 && queue != null) {
+          dropping = policy == ZMTPHighWaterMarkPolicy.DROP && queue.full();
+        }
+        if (!dropping) {
+          decoder.header(ctx, header.length(), header.more(), out);
+        }
         remaining = header.length();
       }
 
-      final int writerMark = in.writerIndex();
       final int n = (int) min(remaining, in.readableBytes());
-      final int readerMark = in.readerIndex();
-      in.writerIndex(readerMark + n);
-      decoder.content(ctx, in, out);
-      in.writerIndex(writerMark);
-      final int read = in.readerIndex() - readerMark;
-      remaining -= read;
+      if (dropping) {
+        in.skipBytes(n);
+        remaining -= n;
+      } else {
+        final int writerMark = in.writerIndex();
+        final int readerMark = in.readerIndex();
+        in.writerIndex(readerMark + n);
+        decoder.content(ctx, in, out);
+        in.writerIndex(writerMark);
+        final int read = in.readerIndex() - readerMark;
+        remaining -= read;
+      }
       if (remaining > 0) {
         // Wait for more data
         return;
       }
       if (!header.more()) {
-        decoder.finish(ctx, out);
+        if (dropping) {
+          dropping = false;
+          metrics.messageDropped();
+        } else {
+          decoder.finish(ctx, out);
+          metrics.messageReceived(frames, messageLength);
+          if (queue != null) {
+            enqueue(ctx, out);
+          }
+        }
+        frames = 0;
+        messageLength = 0;
       }
       headerParsed = false;
     }
   }
+
+  /**
+   * Count a just decoded message against the receive queue and pause reading if it is full.
+   */
+  private void enqueue(final ChannelHandlerContext ctx, final List<Object> out) {
+    if (out.isEmpty()) {
+      return;
+    }
+    final Object message = out.get(out.size() - 1);
+    if (!(message instanceof ZMTPMessage)) {
+      return;
+    }
+    queue.add((ZMTPMessage) message, messageLength);
+    if (policy != ZMTPHighWaterMarkPolicy.DROP && queue.full()) {
+      queue.pause(ctx.channel());
+    }
+  }
+
+  /**
+   * Read a complete ZMTP/3.x command and pass it on as a {@link ZMTPCommand}. Commands are not part
+   * of any message and do not count towards the message limits. As commands are buffered whole,
+   * their length is limited to {@link ZMTP30WireFormat#MAX_COMMAND_LENGTH}, and checked before
+   * waiting for the body.
+   *
+   * @return false if the command body is not yet readable.
+   */
+  private boolean command(final ByteBuf in, final List<Object> out)
+      throws ZMTPParsingException {
+    final long length = header.length();
+    final long maxLength = min(maxFrameLength, ZMTP30WireFormat.MAX_COMMAND_LENGTH);
+    if (length > maxLength) {
+      fail(in, "Command length " + length + " exceeds maximum of " + maxLength);
+    }
+    if (in.readableBytes() < length) {
+      return false;
+    }
+    out.add(ZMTP30WireFormat.readCommand(in.readSlice((int) length)));
+    return true;
+  }
+
+  /**
+   * Check the parsed header against the configured frame and message limits before any frame
+   * content is buffered.
+   */
+  private void checkLimits(final ByteBuf in) throws ZMTPParsingException {
+    final long length = header.length();
+    frames++;
+    if (length > maxFrameLength) {
+      fail(in, "Frame length " + length + " exceeds maximum of " + maxFrameLength);
+    }
+    if (frames > maxFrames) {
+      fail(in, "Message frame count exceeds maximum of " + maxFrames);
+    }
+    // Compared before adding, as the sum of huge frame lengths could overflow
+    if (length > maxMessageLength - messageLength) {
+      fail(in, "Message length exceeds maximum of " + maxMessageLength);
+    }
+    messageLength += length;
+  }
+
+  private void fail(final ByteBuf in, final String message) throws ZMTPParsingException {
+    failed = true;
+    in.skipBytes(in.readableBytes());
+    throw new ZMTPParsingException(message);
+  }
 }
@@ -22,23 +22,77 @@ import java.util.List;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundBuffer;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
-import io.netty.channel.DefaultChannelPromise;
+import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 
 /**
  * Netty ZMTP encoder.
+ *
+ * Messages are buffered until flushed. The estimated wire size of the buffered messages, including
+ * spliced and shared encoded content, is accounted against the write buffer water marks of the
+ * channel, making the channel unwritable while it exceeds the high water mark.
+ *
+ * If a send high water mark is configured, messages that have been written but not yet written to
+ * the socket are also counted, in messages and bytes. While the count is at the high water mark,
+ * further messages are dropped, fail or make the channel unwritable, depending on the {@link
+ * ZMTPHighWaterMarkPolicy}.
+ *
+ * If vectored writes are enabled, spliced frame content is written to the channel as separate
+ * buffers instead of being gathered into a {@link io.netty.buffer.CompositeByteBuf}, allowing the
+ * transport to send the headers and the payloads of a flush with a single gathering write.
  */
 class ZMTPFramingEncoder extends ChannelOutboundHandlerAdapter {
 
+  /**
+   * The user defined writability index used to signal that too many bytes are buffered.
+   */
+  private static final int WRITABILITY_INDEX = 1;
+
+  /**
+   * The user defined writability index used to signal that the send high water mark is reached.
+   */
+  private static final int HIGH_WATER_MARK_WRITABILITY_INDEX = 2;
+
+  private final ZMTPWireFormat wireFormat;
   private final ZMTPEncoder encoder;
+  private final int autoFlushThreshold;
+  private final int sendHighWaterMark;
+  private final long sendHighWaterMarkBytes;
+  private final ZMTPHighWaterMarkPolicy policy;
+  private final ZMTPSendQueue queue;
+  private final boolean vectoredWrites;
+  private final ZMTPMetrics metrics;
 
   private final List<Object> messages = new ArrayList<Object>();
   private final List<ChannelPromise> promises = new ArrayList<ChannelPromise>();
+  private final List<ByteBuf> output = new ArrayList<ByteBuf>();
   private ZMTPWriter writer;
   private ZMTPEstimator estimator;
+  private int pendingMessages;
+  private boolean blocked;
+
+  /**
+   * Rechecks the send queue when a write made while it was full completes. Executed later as the
+   * written bytes are only subtracted from the outbound buffer after the promise is notified.
+   */
+  private final ChannelFutureListener unblock = new ChannelFutureListener() {
+    @Override
+    public void operationComplete(final ChannelFuture future) {
+      final Channel channel = future.channel();
+      channel.eventLoop().execute(new Runnable() {
+        @Override
+        public void run() {
+          unblock(channel);
+        }
+      });
+    }
+  };
 
   ZMTPFramingEncoder(final ZMTPSession session, final ZMTPEncoder encoder) {
     if (session == null) {
@@ -47,21 +101,85 @@ class ZMTPFramingEncoder extends ChannelOutboundHandlerAdapter {
     if (encoder == null) {
       throw new NullPointerException("encoder");
     }
+    final ZMTPConfig config = session.config();
+    final ZMTPWireFormat wireFormat = ZMTPWireFormats.wireFormat(session.negotiatedVersion());
+    this.wireFormat = wireFormat;
     this.encoder = encoder;
-    this.writer = ZMTPWriter.create(session.negotiatedVersion());
-    this.estimator = ZMTPEstimator.create(session.negotiatedVersion());
+    this.autoFlushThreshold = config.autoFlushThreshold();
+    this.sendHighWaterMark = config.sendHighWaterMark();
+    this.sendHighWaterMarkBytes = config.sendHighWaterMarkBytes();
+    this.policy = config.highWaterMarkPolicy();
+    this.queue = queue(sendHighWaterMark, sendHighWaterMarkBytes);
+    this.vectoredWrites = config.vectoredWrites();
+    this.metrics = session.metrics();
+    this.writer = new ZMTPWriter(wireFormat, config.spliceThreshold(), metrics);
+    this.estimator = new ZMTPEstimator(wireFormat, config.spliceThreshold());
   }
 
   public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder) {
+    this(wireFormat, encoder, Integer.MAX_VALUE);
+  }
+
+  public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder,
+                            final int spliceThreshold) {
+    this(wireFormat, encoder, spliceThreshold, Integer.MAX_VALUE);
+  }
+
+  public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder,
+                            final int spliceThreshold, final int autoFlushThreshold) {
+    this(wireFormat, encoder, spliceThreshold, autoFlushThreshold, 0, 0,
+         ZMTPHighWaterMarkPolicy.BLOCK);
+  }
+
+  public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder,
+                            final int spliceThreshold, final int autoFlushThreshold,
+                            final int sendHighWaterMark, final long sendHighWaterMarkBytes,
+                            final ZMTPHighWaterMarkPolicy policy) {
+    this(wireFormat, encoder, spliceThreshold, autoFlushThreshold, sendHighWaterMark,
+         sendHighWaterMarkBytes, policy, false);
+  }
+
+  public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder,
+                            final int spliceThreshold, final int autoFlushThreshold,
+                            final int sendHighWaterMark, final long sendHighWaterMarkBytes,
+                            final ZMTPHighWaterMarkPolicy policy, final boolean vectoredWrites) {
+    this(wireFormat, encoder, spliceThreshold, autoFlushThreshold, sendHighWaterMark,
+         sendHighWaterMarkBytes, policy, vectoredWrites, ZMTPMetrics.NOOP);
+  }
+
+  public ZMTPFramingEncoder(final ZMTPWireFormat wireFormat, final ZMTPEncoder encoder,
+                            final int spliceThreshold, final int autoFlushThreshold,
+                            final int sendHighWaterMark, final long sendHighWaterMarkBytes,
+                            final ZMTPHighWaterMarkPolicy policy, final boolean vectoredWrites,
+                            final ZMTPMetrics metrics) {
     if (wireFormat == null) {
       throw new NullPointerException("wireFormat");
     }
     if (encoder == null) {
       throw new NullPointerException("encoder");
     }
+    if (policy == null) {
+      throw new NullPointerException("policy");
+    }
+    if (metrics == null) {
+      throw new NullPointerException("metrics");
+    }
+    this.wireFormat = wireFormat;
     this.encoder = encoder;
-    this.writer = new ZMTPWriter(wireFormat);
-    this.estimator = new ZMTPEstimator(wireFormat);
+    this.autoFlushThreshold = autoFlushThreshold;
+    this.sendHighWaterMark = sendHighWaterMark;
+    this.sendHighWaterMarkBytes = sendHighWaterMarkBytes;
+    this.policy = policy;
+    this.queue = queue(sendHighWaterMark, sendHighWaterMarkBytes);
+    this.vectoredWrites = vectoredWrites;
+    this.metrics = metrics;
+    this.writer = new ZMTPWriter(wireFormat, spliceThreshold, metrics);
+    this.estimator = new ZMTPEstimator(wireFormat, spliceThreshold);
+  }
+
+  private static ZMTPSendQueue queue(final int sendHighWaterMark,
+                                     final long sendHighWaterMarkBytes) {
+    return (sendHighWaterMark > 0 || sendHighWaterMarkBytes > 0) ? new ZMTPSendQueue() : null;
   }
 
   @Override
@@ -72,67 +190,244 @@ class ZMTPFramingEncoder extends ChannelOutboundHandlerAdapter {
   @Override
   public void write(final ChannelHandlerContext ctx, final Object msg,
                     final ChannelPromise promise) {
+    if (msg instanceof ZMTPCommand) {
+      estimator.command((ZMTPCommand) msg);
+    } else {
+      if (queue != null && policy != ZMTPHighWaterMarkPolicy.BLOCK && full(ctx.channel())) {
+        reject(msg, promise);
+        return;
+      }
+      if (msg instanceof ZMTPEncodedMessage) {
+        estimator.encoded(((ZMTPEncodedMessage) msg).content(ctx.alloc(), wireFormat));
+      } else {
+        encoder.estimate(msg, estimator);
+      }
+      pendingMessages++;
+    }
     messages.add(msg);
-    promises.add(promise);
+    if (!isVoid(ctx, promise)) {
+      promises.add(promise);
+    }
+    // Spliced and encoded content is not copied but is still held until flushed
+    final long pending = estimator.wireSize();
+    if (pending >= autoFlushThreshold) {
+      flush(ctx);
+    } else if (pending > ctx.channel().config().getWriteBufferHighWaterMark()) {
+      setWritable(ctx.channel(), WRITABILITY_INDEX, false);
+    }
+    if (queue != null && policy == ZMTPHighWaterMarkPolicy.BLOCK && !blocked &&
+        full(ctx.channel())) {
+      blocked = true;
+      setWritable(ctx.channel(), HIGH_WATER_MARK_WRITABILITY_INDEX, false);
+    }
+  }
+
+  /**
+   * Drop or fail a message written while the send queue is full.
+   */
+  private void reject(final Object msg, final ChannelPromise promise) {
+    ReferenceCountUtil.release(msg);
+    metrics.messageRejected();
+    if (policy == ZMTPHighWaterMarkPolicy.DROP) {
+      promise.trySuccess();
+    } else {
+      promise.tryFailure(new ZMTPException("Send high water mark reached"));
+    }
+  }
+
+  /**
+   * Check whether the messages and bytes queued for the peer are at either send high water mark.
+   */
+  private boolean full(final Channel channel) {
+    final ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+    final long pendingWriteBytes = (buffer == null) ? 0 : buffer.totalPendingWriteBytes();
+    if (sendHighWaterMark > 0 &&
+        pendingMessages + queue.messages(pendingWriteBytes) >= sendHighWaterMark) {
+      return true;
+    }
+    return sendHighWaterMarkBytes > 0 &&
+           estimator.wireSize() + pendingWriteBytes >= sendHighWaterMarkBytes;
+  }
+
+  private void unblock(final Channel channel) {
+    if (blocked && !full(channel)) {
+      blocked = false;
+      setWritable(channel, HIGH_WATER_MARK_WRITABILITY_INDEX, true);
+    }
   }
 
   @Override
-  public void flush(final ChannelHandlerContext ctx) throws Exception {
-    if (messages == null) {
+  public void flush(final ChannelHandlerContext ctx) {
+    if (messages.isEmpty()) {
+      ctx.flush();
       return;
     }
+    final int size = encode(ctx);
+    metrics.flushed(pendingMessages, size);
+    ChannelPromise promise = promise(ctx);
+    messages.clear();
+    promises.clear();
+    if (queue != null) {
+      queue.flushed(pendingMessages, size);
+      if (blocked) {
+        if (isVoid(ctx, promise)) {
+          promise = ctx.newPromise();
+        }
+        promise.addListener(unblock);
+      }
+    }
+    pendingMessages = 0;
+    final int last = output.size() - 1;
+    for (int i = 0; i < last; i++) {
+      ctx.write(output.get(i), ctx.voidPromise());
+    }
+    ctx.write(output.get(last), promise);
+    output.clear();
+    ctx.flush();
+    setWritable(ctx.channel(), WRITABILITY_INDEX, true);
+  }
+
+  /**
+   * Encode and release the pending messages into the output buffers. A single pending {@link
+   * ZMTPEncodedMessage} is passed through as a reference to its shared encoded content without
+   * copying.
+   *
+   * @return The number of encoded bytes.
+   */
+  private int encode(final ChannelHandlerContext ctx) {
+    final int size = estimator.size();
     estimator.reset();
-    for (final Object message : messages) {
-      encoder.estimate(message, estimator);
+    if (messages.size() == 1 && messages.get(0) instanceof ZMTPEncodedMessage) {
+      final ZMTPEncodedMessage message = (ZMTPEncodedMessage) messages.get(0);
+      final ByteBuf content = message.content(ctx.alloc(), wireFormat).duplicate().retain();
+      encodedSent(message);
+      message.release();
+      output.add(content);
+      return content.readableBytes();
     }
-    final ByteBuf output = ctx.alloc().buffer(estimator.size());
-    writer.reset(output);
+    writer.reset(ctx.alloc().buffer(size));
     for (final Object message : messages) {
-      encoder.encode(message, writer);
+      if (message instanceof ZMTPCommand) {
+        writer.command((ZMTPCommand) message);
+      } else if (message instanceof ZMTPEncodedMessage) {
+        final ZMTPEncodedMessage encoded = (ZMTPEncodedMessage) message;
+        writer.encoded(encoded.content(ctx.alloc(), wireFormat));
+        encodedSent(encoded);
+      } else {
+        encoder.encode(message, writer);
+      }
       ReferenceCountUtil.release(message);
     }
-    final ChannelPromise aggregate = new AggregatePromise(ctx.channel(), promises);
-    messages.clear();
-    promises.clear();
-    ctx.write(output, aggregate);
-    ctx.flush();
+    if (vectoredWrites) {
+      return writer.finish(output);
+    }
+    final ByteBuf buf = writer.finish();
+    output.add(buf);
+    return buf.readableBytes();
+  }
+
+  /**
+   * Report the frames of an encoded message, which are written without passing through the writer
+   * of this encoder and the metrics of this session.
+   */
+  private void encodedSent(final ZMTPEncodedMessage encoded) {
+    final ZMTPMessage message = encoded.message();
+    for (int i = 0; i < message.size(); i++) {
+      metrics.frameSent(message.frame(i).readableBytes());
+    }
   }
 
-  private static class AggregatePromise extends DefaultChannelPromise {
+  /**
+   * Signal whether the buffered messages exceed the write buffer high water mark, or whether the
+   * send queue is full, using a user defined writability index. Buffered messages are handed to
+   * the outbound buffer when flushed, which then accounts for their bytes itself.
+   */
+  private static void setWritable(final Channel channel, final int index,
+                                  final boolean writable) {
+    final ChannelOutboundBuffer buffer = channel.unsafe().outboundBuffer();
+    if (buffer != null && buffer.getUserDefinedWritability(index) != writable) {
+      buffer.setUserDefinedWritability(index, writable);
+    }
+  }
 
-    private final ChannelPromise[] promises;
+  /**
+   * Check whether a promise is a void promise, including void promises of other channels or
+   * contexts. Netty 4.0 lacks {@code ChannelPromise.isVoid()} and its void promise class is not
+   * public, so the class of the void promise of the context is compared instead.
+   */
+  private static boolean isVoid(final ChannelHandlerContext ctx, final ChannelPromise promise) {
+    return promise.getClass() == ctx.voidPromise().getClass();
+  }
 
-    private AggregatePromise(final Channel channel,
-                             final List<ChannelPromise> promises) {
-      super(channel);
-      this.promises = promises.toArray(new ChannelPromise[promises.size()]);
+  /**
+   * Get a promise for the write of the pending messages, avoiding allocations per flush. The first
+   * pending promise that is not yet done and can be made uncancellable is used, as the channel
+   * would drop the whole batch if written with a cancelled or completed promise. Any other pending
+   * promises are completed along with it by a recycled listener.
+   */
+  private ChannelPromise promise(final ChannelHandlerContext ctx) {
+    for (int i = 0; i < promises.size(); i++) {
+      final ChannelPromise promise = promises.get(i);
+      if (!promise.isDone() && promise.setUncancellable()) {
+        if (promises.size() > 1) {
+          promise.addListener(AggregateListener.from(promises, i));
+        }
+        return promise;
+      }
     }
+    return ctx.voidPromise();
+  }
 
-    @Override
-    public ChannelPromise setSuccess(final Void result) {
-      super.setSuccess(result);
-      for (final ChannelPromise promise : promises) {
-        promise.setSuccess(result);
+  /**
+   * Completes the promises of the other writes of a flush when the promise of the flush completes.
+   */
+  private static class AggregateListener implements ChannelFutureListener {
+
+    private static final Recycler<AggregateListener> RECYCLER = new Recycler<AggregateListener>() {
+      @Override
+      protected AggregateListener newObject(final Handle handle) {
+        return new AggregateListener(handle);
       }
-      return this;
+    };
+
+    private final Recycler.Handle handle;
+
+    private ChannelPromise[] promises = new ChannelPromise[4];
+    private int size;
+
+    private AggregateListener(final Recycler.Handle handle) {
+      this.handle = handle;
     }
 
-    @Override
-    public boolean trySuccess() {
-      final boolean result = super.trySuccess();
-      for (final ChannelPromise promise : promises) {
-        promise.trySuccess();
+    private static AggregateListener from(final List<ChannelPromise> promises, final int skip) {
+      final AggregateListener listener = RECYCLER.get();
+      final int n = promises.size() - 1;
+      if (listener.promises.length < n) {
+        listener.promises = new ChannelPromise[n];
+      }
+      int j = 0;
+      for (int i = 0; i < promises.size(); i++) {
+        if (i != skip) {
+          listener.promises[j++] = promises.get(i);
+        }
       }
-      return result;
+      listener.size = n;
+      return listener;
     }
 
     @Override
-    public ChannelPromise setFailure(final Throwable cause) {
-      super.setFailure(cause);
-      for (final ChannelPromise promise : promises) {
-        promise.setFailure(cause);
+    public void operationComplete(final ChannelFuture future) {
+      final Throwable cause = future.isSuccess() ? null : future.cause();
+      for (int i = 0; i < size; i++) {
+        if (cause == null) {
+          promises[i].trySuccess();
+        } else {
+          promises[i].tryFailure(cause);
+        }
+        promises[i] = null;
       }
-      return this;
+      size = 0;
+      RECYCLER.recycle(this, handle);
     }
   }
 }
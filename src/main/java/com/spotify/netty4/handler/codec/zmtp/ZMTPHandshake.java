@@ -25,11 +25,11 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 public class ZMTPHandshake {
 
   private final ZMTPVersion negotiatedVersion;
-  private final ByteBuffer remoteIdentity;
+  private final ZMTPIdentity remoteIdentity;
   private final ZMTPSocketType remoteSocketType;
 
   private ZMTPHandshake(final ZMTPVersion negotiatedVersion,
-                        final ByteBuffer remoteIdentity, final ZMTPSocketType remoteSocketType) {
+                        final ZMTPIdentity remoteIdentity, final ZMTPSocketType remoteSocketType) {
     this.negotiatedVersion = checkNotNull(negotiatedVersion, "negotiatedVersion");
     this.remoteIdentity = checkNotNull(remoteIdentity, "remoteIdentity");
     this.remoteSocketType = remoteSocketType;
@@ -39,8 +39,8 @@ public class ZMTPHandshake {
     return negotiatedVersion;
   }
 
-  public ByteBuffer remoteIdentity() {
-    return remoteIdentity.asReadOnlyBuffer();
+  public ZMTPIdentity remoteIdentity() {
+    return remoteIdentity;
   }
 
   @Nullable
@@ -81,11 +81,12 @@ public class ZMTPHandshake {
 
   static ZMTPHandshake of(final ZMTPVersion negotiatedVersion,
                           final ByteBuffer remoteIdentity) {
-    return new ZMTPHandshake(negotiatedVersion, remoteIdentity, null);
+    return new ZMTPHandshake(negotiatedVersion, ZMTPIdentity.from(remoteIdentity), null);
   }
 
   static ZMTPHandshake of(final ZMTPVersion negotiatedVersion,
                           final ByteBuffer remoteIdentity, final ZMTPSocketType remoteSocketType) {
-    return new ZMTPHandshake(negotiatedVersion, remoteIdentity, remoteSocketType);
+    return new ZMTPHandshake(negotiatedVersion, ZMTPIdentity.from(remoteIdentity),
+                             remoteSocketType);
   }
 }
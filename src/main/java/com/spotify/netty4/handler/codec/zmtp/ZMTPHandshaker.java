@@ -30,6 +30,10 @@ interface ZMTPHandshaker {
    * Continue handshake in response to receiving data from the remote peer. This method is called
    * repeatedly until it returns a non-null {@link ZMTPHandshake} result.
    *
+   * Each call consumes at most one step of the handshake, and only once all data for that step is
+   * available. Partial input is left unconsumed and the handshaker keeps its state between calls,
+   * so input does not need to be parsed again from the start.
+   *
    * @param in  Data from the remote peer.
    * @param ctx The channel handler context.
    * @return A {@link ZMTPHandshake} if the handshake is complete, null otherwise.
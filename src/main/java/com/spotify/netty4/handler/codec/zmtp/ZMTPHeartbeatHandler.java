@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledFuture;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+
+import static java.lang.Math.min;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * ZMTP/3.1 heartbeating. Answers PINGs from the peer with PONGs. If a heartbeat interval is
+ * configured, also sends a PING command every interval and closes the channel when nothing has been
+ * received from the peer within the TTL. Without an interval, the channel is still closed when
+ * nothing has been received within a TTL advertised by the peer, checked every half TTL.
+ *
+ * The TTL is checked from a timer task on the channel event loop, so reading a message only costs
+ * setting a flag.
+ */
+class ZMTPHeartbeatHandler extends ChannelDuplexHandler {
+
+  static final String PING = "PING";
+  static final String PONG = "PONG";
+
+  private static final int MAX_CONTEXT_LENGTH = 16;
+
+  private final long interval;
+  private final long ttl;
+  private final ByteBuffer ping;
+
+  private ScheduledFuture<?> timer;
+  private boolean read;
+  private long lastRead;
+  private long remoteTtl;
+
+  ZMTPHeartbeatHandler(final long interval, final long ttl) {
+    this.interval = interval;
+    this.ttl = ttl;
+    this.ping = ByteBuffer.allocate(2);
+    ping.putShort(0, (short) (ttl / 100));
+  }
+
+  @Override
+  public void handlerAdded(final ChannelHandlerContext ctx) {
+    if (interval == 0) {
+      return;
+    }
+    schedule(ctx, interval);
+  }
+
+  private void schedule(final ChannelHandlerContext ctx, final long period) {
+    lastRead = System.nanoTime();
+    timer = ctx.executor().scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        heartbeat(ctx);
+      }
+    }, period, period, MILLISECONDS);
+  }
+
+  @Override
+  public void handlerRemoved(final ChannelHandlerContext ctx) {
+    cancel();
+  }
+
+  @Override
+  public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+    cancel();
+    super.channelInactive(ctx);
+  }
+
+  @Override
+  public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+    read = true;
+    if (!(msg instanceof ZMTPCommand)) {
+      ctx.fireChannelRead(msg);
+      return;
+    }
+    final ZMTPCommand command = (ZMTPCommand) msg;
+    if (PING.equals(command.name())) {
+      ping(ctx, command.data());
+    } else if (!PONG.equals(command.name())) {
+      ctx.fireChannelRead(msg);
+    }
+  }
+
+  /**
+   * Answer a PING with a PONG echoing its context and take note of the TTL advertised by the peer.
+   */
+  private void ping(final ChannelHandlerContext ctx, final ByteBuffer data) {
+    if (data.remaining() < 2) {
+      return;
+    }
+    remoteTtl = (data.getShort(data.position()) & 0xffff) * 100L;
+    if (interval == 0 && remoteTtl > 0 && timer == null && ctx.channel().isActive()) {
+      // Enforce the TTL of the peer even though we do not send PINGs ourselves
+      schedule(ctx, remoteTtl / 2);
+    }
+    final ByteBuffer context = data.duplicate();
+    context.position(context.position() + 2);
+    if (context.remaining() > MAX_CONTEXT_LENGTH) {
+      context.limit(context.position() + MAX_CONTEXT_LENGTH);
+    }
+    ctx.writeAndFlush(ZMTPCommand.of(PONG, context.slice()));
+  }
+
+  private void heartbeat(final ChannelHandlerContext ctx) {
+    final long now = System.nanoTime();
+    if (read) {
+      read = false;
+      lastRead = now;
+    } else {
+      final long timeout = timeout();
+      if (timeout > 0 && NANOSECONDS.toMillis(now - lastRead) >= timeout) {
+        cancel();
+        ctx.close();
+        return;
+      }
+    }
+    if (interval > 0) {
+      ctx.writeAndFlush(ZMTPCommand.of(PING, ping));
+    }
+  }
+
+  /**
+   * The effective TTL: the smaller of the local TTL and the TTL advertised by the peer, if any.
+   */
+  private long timeout() {
+    if (ttl == 0) {
+      return remoteTtl;
+    }
+    if (remoteTtl == 0) {
+      return ttl;
+    }
+    return min(ttl, remoteTtl);
+  }
+
+  private void cancel() {
+    if (timer != null) {
+      timer.cancel(false);
+      timer = null;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+/**
+ * What to do when a send or receive high water mark is reached.
+ *
+ * @see ZMTPConfig#sendHighWaterMark()
+ * @see ZMTPConfig#receiveHighWaterMark()
+ */
+public enum ZMTPHighWaterMarkPolicy {
+
+  /**
+   * Drop the newest messages. Outgoing messages are released and their write promises succeed.
+   * Incoming messages are discarded without being decoded. Suitable for PUB sockets.
+   */
+  DROP,
+
+  /**
+   * Mark the channel unwritable while the send queue is full and stop reading from the channel, by
+   * turning off auto read, while the receive queue is full. Suitable for PUSH and PULL sockets.
+   */
+  BLOCK,
+
+  /**
+   * Fail the write promise of outgoing messages with a {@link ZMTPException}. The receive queue is
+   * handled as for {@link #BLOCK}, as there is no promise to fail.
+   */
+  FAIL
+}
@@ -0,0 +1,181 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * An immutable ZMTP peer identity. The hash code and string representation are computed once, and
+ * identities can be compared with and written to {@link ByteBuf}s without allocating.
+ */
+public final class ZMTPIdentity {
+
+  public static final ZMTPIdentity ANONYMOUS = new ZMTPIdentity(new byte[0]);
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private final byte[] bytes;
+  private final int hash;
+  private final ByteBuf buf;
+
+  private String string;
+
+  private ZMTPIdentity(final byte[] bytes) {
+    this.bytes = bytes;
+    this.hash = Arrays.hashCode(bytes);
+    this.buf = Unpooled.unreleasableBuffer(Unpooled.unmodifiableBuffer(
+        Unpooled.wrappedBuffer(bytes)));
+  }
+
+  /**
+   * Create an identity from a copy of the remaining bytes of a {@link ByteBuffer}.
+   */
+  public static ZMTPIdentity from(final ByteBuffer identity) {
+    checkNotNull(identity, "identity");
+    if (!identity.hasRemaining()) {
+      return ANONYMOUS;
+    }
+    final byte[] bytes = new byte[identity.remaining()];
+    identity.duplicate().get(bytes);
+    return new ZMTPIdentity(bytes);
+  }
+
+  /**
+   * Create an identity from a copy of the readable bytes of a {@link ByteBuf}.
+   */
+  public static ZMTPIdentity from(final ByteBuf identity) {
+    checkNotNull(identity, "identity");
+    if (!identity.isReadable()) {
+      return ANONYMOUS;
+    }
+    final byte[] bytes = new byte[identity.readableBytes()];
+    identity.getBytes(identity.readerIndex(), bytes);
+    return new ZMTPIdentity(bytes);
+  }
+
+  /**
+   * Get the length of this identity in bytes.
+   */
+  public int length() {
+    return bytes.length;
+  }
+
+  /**
+   * Check whether this identity is empty, i.e. anonymous.
+   */
+  public boolean isEmpty() {
+    return bytes.length == 0;
+  }
+
+  /**
+   * Get a byte of this identity.
+   */
+  public byte get(final int index) {
+    return bytes[index];
+  }
+
+  /**
+   * Get a read only {@link ByteBuf} view of this identity, e.g. for use as a routing envelope frame.
+   * The view shares the bytes of this identity and does not need to be released.
+   */
+  public ByteBuf buf() {
+    return buf.duplicate();
+  }
+
+  /**
+   * Get a read only {@link ByteBuffer} view of this identity.
+   */
+  public ByteBuffer asByteBuffer() {
+    return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+  }
+
+  /**
+   * Get a copy of the bytes of this identity.
+   */
+  public byte[] toByteArray() {
+    return bytes.clone();
+  }
+
+  /**
+   * Write this identity to a {@link ByteBuf}.
+   */
+  public void writeTo(final ByteBuf out) {
+    out.writeBytes(bytes);
+  }
+
+  /**
+   * Check whether the readable bytes of a {@link ByteBuf} are equal to this identity.
+   */
+  public boolean contentEquals(final ByteBuf buf) {
+    final int index = buf.readerIndex();
+    if (buf.readableBytes() != bytes.length) {
+      return false;
+    }
+    for (int i = 0; i < bytes.length; i++) {
+      if (buf.getByte(index + i) != bytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o) { return true; }
+    if (o == null || getClass() != o.getClass()) { return false; }
+
+    final ZMTPIdentity that = (ZMTPIdentity) o;
+
+    return hash == that.hash && Arrays.equals(bytes, that.bytes);
+  }
+
+  /**
+   * The hash code of this identity, equal to {@link Arrays#hashCode(byte[])} of its bytes.
+   */
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  /**
+   * Get a human readable representation of this identity, keeping printable ascii and hex encoding
+   * everything else.
+   */
+  @Override
+  public String toString() {
+    String s = string;
+    if (s == null) {
+      final StringBuilder builder = new StringBuilder(bytes.length);
+      for (final byte b : bytes) {
+        if (b > 31 && b < 127 && b != '%') {
+          builder.append((char) b);
+        } else {
+          builder.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+      }
+      s = builder.toString();
+      string = s;
+    }
+    return s;
+  }
+}
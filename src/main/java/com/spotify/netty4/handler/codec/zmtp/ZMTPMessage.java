@@ -18,28 +18,83 @@ package com.spotify.netty4.handler.codec.zmtp;
 
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.List;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.AbstractReferenceCounted;
-import io.netty.util.internal.RecyclableArrayList;
+import io.netty.util.Recycler;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
 import static io.netty.buffer.ByteBufUtil.encodeString;
+import static io.netty.util.CharsetUtil.US_ASCII;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static java.util.Arrays.asList;
 
 public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<ByteBuf> {
 
-  private final ByteBuf[] frames;
+  private static final int INITIAL_CAPACITY = 4;
+
+  private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+  private static final Recycler<ZMTPMessage> RECYCLER = new Recycler<ZMTPMessage>() {
+    @Override
+    protected ZMTPMessage newObject(final Handle handle) {
+      return new ZMTPMessage(new ByteBuf[INITIAL_CAPACITY], 0, handle);
+    }
+  };
+
+  private final Recycler.Handle handle;
+
+  private ByteBuf[] frames;
+  private int size;
+
+  private ZMTPReceiveQueue queue;
+  private long queuedBytes;
+
+  // Lazily populated per frame caches, assuming that frames are not modified
+  private String[] strings;
+  private ZMTPAsciiString[] asciiStrings;
+  private int[] hashes;
 
   private ZMTPMessage(final ByteBuf[] frames) {
-    this.frames = checkNotNull(frames, "frames");
+    this(checkNotNull(frames, "frames"), frames.length, null);
+  }
+
+  private ZMTPMessage(final ByteBuf[] frames, final int size, final Recycler.Handle handle) {
+    this.frames = frames;
+    this.size = size;
+    this.handle = handle;
+  }
+
+  /**
+   * Create an empty message that frames are {@link #add added} to. Used by decoders to build
+   * messages without an intermediate frame list.
+   */
+  static ZMTPMessage newInstance() {
+    return new ZMTPMessage(new ByteBuf[INITIAL_CAPACITY], 0, null);
+  }
+
+  /**
+   * Get an empty message from a thread local pool. The message and its frame array are returned to
+   * the pool when the message is deallocated, so it must not be used after it has been released.
+   */
+  static ZMTPMessage newRecycledInstance() {
+    final ZMTPMessage message = RECYCLER.get();
+    message.setRefCnt(1);
+    return message;
+  }
+
+  /**
+   * Add a frame to the end of this message. Only to be used while building a message.
+   */
+  void add(final ByteBuf frame) {
+    if (size == frames.length) {
+      frames = Arrays.copyOf(frames, Math.max(INITIAL_CAPACITY, size * 2));
+    }
+    frames[size++] = frame;
   }
 
   @Override
@@ -111,11 +166,28 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    */
   public static ZMTPMessage from(final ByteBufAllocator alloc, final Charset charset,
                                  final Iterable<? extends CharSequence> strings) {
-    final List<ByteBuf> frames = new ArrayList<ByteBuf>();
+    final ZMTPMessage message = newInstance();
     for (final CharSequence string : strings) {
-      frames.add(encodeString(alloc, CharBuffer.wrap(string), charset));
+      message.add(encode(alloc, string, charset));
     }
-    return from(frames);
+    return message;
+  }
+
+  /**
+   * Encode a string frame. UTF-8 and US-ASCII are written directly into an exactly sized buffer.
+   */
+  private static ByteBuf encode(final ByteBufAllocator alloc, final CharSequence string,
+                                final Charset charset) {
+    if (charset.equals(UTF_8)) {
+      final ByteBuf frame = alloc.buffer(ZMTPUtils.utf8Length(string));
+      ZMTPUtils.writeUtf8(frame, string);
+      return frame;
+    } else if (charset.equals(US_ASCII)) {
+      final ByteBuf frame = alloc.buffer(string.length());
+      ZMTPUtils.writeAscii(frame, string);
+      return frame;
+    }
+    return encodeString(alloc, CharBuffer.wrap(string), charset);
   }
 
   /**
@@ -134,7 +206,7 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
   }
 
   public int size() {
-    return frames.length;
+    return size;
   }
 
   @Override
@@ -146,13 +218,107 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    * Get a specific frame.
    */
   public ByteBuf frame(final int i) {
+    if (i >= size) {
+      throw new IndexOutOfBoundsException("frame " + i + " of " + size);
+    }
     return frames[i];
   }
 
+  /**
+   * Get a specific frame decoded as UTF-8. The string is decoded on first access and cached.
+   */
+  public String frameString(final int i) {
+    final ByteBuf frame = frame(i);
+    String[] strings = this.strings;
+    if (strings == null || strings.length < size) {
+      strings = this.strings = new String[frames.length];
+    }
+    String s = strings[i];
+    if (s == null) {
+      if (frame.hasArray()) {
+        s = new String(frame.array(), frame.arrayOffset() + frame.readerIndex(),
+                       frame.readableBytes(), UTF_8);
+      } else {
+        s = frame.toString(UTF_8);
+      }
+      strings[i] = s;
+    }
+    return s;
+  }
+
+  /**
+   * Get a zero-copy {@link ZMTPAsciiString} view of a specific frame. The view is created on first
+   * access and cached, and is only valid until this message is released.
+   */
+  public ZMTPAsciiString frameAscii(final int i) {
+    final ByteBuf frame = frame(i);
+    ZMTPAsciiString[] asciiStrings = this.asciiStrings;
+    if (asciiStrings == null || asciiStrings.length < size) {
+      asciiStrings = this.asciiStrings = new ZMTPAsciiString[frames.length];
+    }
+    ZMTPAsciiString s = asciiStrings[i];
+    if (s == null) {
+      s = ZMTPAsciiString.of(frame);
+      asciiStrings[i] = s;
+    }
+    return s;
+  }
+
+  /**
+   * Get the hash code of a specific frame, as computed by {@link ByteBuf#hashCode()}. The hash code
+   * is computed on first access and cached, so it is stale if the frame is later modified. Unlike
+   * this method, {@link #hashCode()} always hashes the current frame content, consistent with
+   * {@link #equals(Object)}.
+   */
+  public int frameHashCode(final int i) {
+    final ByteBuf frame = frame(i);
+    int[] hashes = this.hashes;
+    if (hashes == null || hashes.length < size) {
+      hashes = this.hashes = new int[frames.length];
+    }
+    int h = hashes[i];
+    if (h == 0) {
+      h = frame.hashCode();
+      hashes[i] = h;
+    }
+    return h;
+  }
+
+  /**
+   * Count this message against a receive queue until it is deallocated.
+   */
+  void enqueued(final ZMTPReceiveQueue queue, final long bytes) {
+    this.queue = queue;
+    this.queuedBytes = bytes;
+  }
+
   @Override
   protected void deallocate() {
-    for (final ByteBuf frame : frames) {
-      frame.release();
+    for (int i = 0; i < size; i++) {
+      frames[i].release();
+    }
+    if (queue != null) {
+      final ZMTPReceiveQueue queue = this.queue;
+      this.queue = null;
+      queue.remove(queuedBytes);
+    }
+    if (handle != null) {
+      Arrays.fill(frames, 0, size, null);
+      clearCaches();
+      size = 0;
+      RECYCLER.recycle(this, handle);
+    }
+  }
+
+  private void clearCaches() {
+    if (strings != null) {
+      Arrays.fill(strings, null);
+    }
+    if (asciiStrings != null) {
+      Arrays.fill(asciiStrings, null);
+    }
+    if (hashes != null) {
+      Arrays.fill(hashes, 0);
     }
   }
 
@@ -161,20 +327,31 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
     if (this == o) { return true; }
     if (o == null || getClass() != o.getClass()) { return false; }
 
-    final ZMTPMessage byteBufs = (ZMTPMessage) o;
-
-    return Arrays.equals(frames, byteBufs.frames);
+    final ZMTPMessage that = (ZMTPMessage) o;
 
+    if (size != that.size) {
+      return false;
+    }
+    for (int i = 0; i < size; i++) {
+      if (!frames[i].equals(that.frames[i])) {
+        return false;
+      }
+    }
+    return true;
   }
 
   @Override
   public int hashCode() {
-    return frames != null ? Arrays.hashCode(frames) : 0;
+    int result = 1;
+    for (int i = 0; i < size; i++) {
+      result = 31 * result + frames[i].hashCode();
+    }
+    return result;
   }
 
   @Override
   public String toString() {
-    return "ZMTPMessage{" + toString(frames) + '}';
+    return "ZMTPMessage{" + toString(frames, size) + '}';
   }
 
   /**
@@ -188,7 +365,7 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
     if (data == null) {
       return null;
     }
-    final StringBuilder sb = new StringBuilder();
+    final StringBuilder sb = new StringBuilder(data.readableBytes());
     for (int i = data.readerIndex(); i < data.writerIndex(); i++) {
       final byte b = data.getByte(i);
       if (b > 31 && b < 127) {
@@ -198,7 +375,8 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
         sb.append((char) b);
       } else {
         sb.append('%');
-        sb.append(String.format("%02X", b));
+        sb.append(HEX[(b >> 4) & 0xF]);
+        sb.append(HEX[b & 0xF]);
       }
     }
     return sb.toString();
@@ -209,16 +387,17 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    * and hex encoding everything else.
    *
    * @param frames The ZMTP frames.
+   * @param size   The number of frames.
    * @return A human readable string representation of the frames.
    */
-  private static String toString(final ByteBuf[] frames) {
+  private static String toString(final ByteBuf[] frames, final int size) {
     final StringBuilder builder = new StringBuilder("[");
-    for (int i = 0; i < frames.length; i++) {
+    for (int i = 0; i < size; i++) {
       final ByteBuf frame = frames[i];
       builder.append('"');
       builder.append(toString(frame));
       builder.append('"');
-      if (i < frames.length - 1) {
+      if (i < size - 1) {
         builder.append(',');
       }
     }
@@ -234,29 +413,27 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
     final int mark = in.readerIndex();
     final ZMTPWireFormat wireFormat = ZMTPWireFormats.wireFormat(version);
     final ZMTPWireFormat.Header header = wireFormat.header();
-    final RecyclableArrayList frames = RecyclableArrayList.newInstance();
+    final ZMTPMessage message = newInstance();
     while (true) {
       final boolean read = header.read(in);
       if (!read) {
-        frames.recycle();
+        message.release();
         in.readerIndex(mark);
         return null;
       }
       if (in.readableBytes() < header.length()) {
-        frames.recycle();
+        message.release();
         in.readerIndex(mark);
         return null;
       }
       if (header.length() > Integer.MAX_VALUE) {
+        message.release();
         throw new ZMTPParsingException("frame is too large: " + header.length());
       }
       final ByteBuf frame = in.readSlice((int) header.length());
       frame.retain();
-      frames.add(frame);
+      message.add(frame);
       if (!header.more()) {
-        @SuppressWarnings("unchecked") final ZMTPMessage message =
-            ZMTPMessage.from((List<ByteBuf>) (Object) frames);
-        frames.recycle();
         return message;
       }
     }
@@ -297,12 +474,12 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    * Create a new {@link ZMTPMessage} with a frame added at the front.
    */
   public ZMTPMessage push(final ByteBuf frame) {
-    for (final ByteBuf f : frames) {
-      f.retain();
+    for (int i = 0; i < size; i++) {
+      this.frames[i].retain();
     }
-    final ByteBuf[] frames = new ByteBuf[this.frames.length + 1];
+    final ByteBuf[] frames = new ByteBuf[size + 1];
     frames[0] = frame;
-    System.arraycopy(this.frames, 0, frames, 1, this.frames.length);
+    System.arraycopy(this.frames, 0, frames, 1, size);
     return new ZMTPMessage(frames);
   }
 
@@ -310,10 +487,10 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
    * Create a new {@link ZMTPMessage} with the front frame removed.
    */
   public ZMTPMessage pop() {
-    if (this.frames.length == 0) {
+    if (size == 0) {
       throw new IllegalStateException("empty message");
     }
-    final ByteBuf[] frames = new ByteBuf[this.frames.length - 1];
+    final ByteBuf[] frames = new ByteBuf[size - 1];
     System.arraycopy(this.frames, 1, frames, 0, frames.length);
     for (final ByteBuf f : frames) {
       f.retain();
@@ -330,7 +507,7 @@ public class ZMTPMessage extends AbstractReferenceCounted implements Iterable<By
 
     @Override
     public boolean hasNext() {
-      return i < frames.length;
+      return i < size;
     }
 
     @Override
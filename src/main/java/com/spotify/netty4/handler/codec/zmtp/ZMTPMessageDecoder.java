@@ -16,7 +16,6 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
@@ -28,27 +27,62 @@ public class ZMTPMessageDecoder implements ZMTPDecoder {
   public static final Factory FACTORY = new Factory() {
     @Override
     public ZMTPDecoder decoder(final ZMTPSession session) {
-      return new ZMTPMessageDecoder();
+      return new ZMTPMessageDecoder(false, session.config().frameCopyRatio());
+    }
+  };
+
+  /**
+   * Creates decoders that produce recycled {@link ZMTPMessage} instances. Such messages must not be
+   * used after they have been released.
+   */
+  public static final Factory RECYCLING_FACTORY = new Factory() {
+    @Override
+    public ZMTPDecoder decoder(final ZMTPSession session) {
+      return new ZMTPMessageDecoder(true, session.config().frameCopyRatio());
     }
   };
 
   private static final ByteBuf DELIMITER = Unpooled.EMPTY_BUFFER;
 
-  private final List<ByteBuf> frames = new ArrayList<ByteBuf>();
+  private final boolean recycle;
+  private final int copyRatio;
+
+  private ZMTPMessage message;
   private int frameLength;
 
+  public ZMTPMessageDecoder() {
+    this(false);
+  }
+
   /**
-   * Reset parser in preparation for the next message.
+   * @param recycle Whether to take messages from a thread local pool, returning them to the pool
+   *                when they are deallocated.
    */
-  private void reset() {
-    frames.clear();
-    frameLength = 0;
+  public ZMTPMessageDecoder(final boolean recycle) {
+    this(recycle, 0);
+  }
+
+  /**
+   * @param recycle   Whether to take messages from a thread local pool, returning them to the pool
+   *                  when they are deallocated.
+   * @param copyRatio Copy frames instead of slicing them from the input buffer when the input
+   *                  buffer is more than this many times larger than the frame. 0 to always slice.
+   */
+  public ZMTPMessageDecoder(final boolean recycle, final int copyRatio) {
+    if (copyRatio < 0) {
+      throw new IllegalArgumentException("copyRatio must not be negative: " + copyRatio);
+    }
+    this.recycle = recycle;
+    this.copyRatio = copyRatio;
   }
 
   @Override
   public void header(final ChannelHandlerContext ctx, final long length, final boolean more,
                      final List<Object> out) {
     frameLength = (int) length;
+    if (message == null) {
+      message = recycle ? ZMTPMessage.newRecycledInstance() : ZMTPMessage.newInstance();
+    }
   }
 
   @Override
@@ -59,27 +93,46 @@ public class ZMTPMessageDecoder implements ZMTPDecoder {
     }
 
     if (frameLength == 0) {
-      frames.add(DELIMITER);
+      message.add(DELIMITER);
       return;
     }
 
-    final ByteBuf frame = data.readSlice(frameLength);
+    message.add(readFrame(data, frameLength, copyRatio));
+  }
+
+  /**
+   * Read the content of a frame from the input buffer of the framing decoder. The content is a
+   * retained slice of the input buffer, unless the input buffer is more than {@code copyRatio} times
+   * larger than the frame, in which case it is copied into a right-sized buffer. A small sliced
+   * frame would otherwise keep the whole input buffer, e.g. the cumulation buffer of a {@link
+   * io.netty.handler.codec.ByteToMessageDecoder}, from being freed for as long as it is held.
+   *
+   * @param copyRatio The input buffer to frame size ratio above which frames are copied, or 0 to
+   *                  always slice.
+   */
+  static ByteBuf readFrame(final ByteBuf data, final int length, final int copyRatio) {
+    if (copyRatio > 0 && (long) length * copyRatio < data.capacity()) {
+      final ByteBuf frame = data.alloc().buffer(length, length);
+      frame.writeBytes(data, length);
+      return frame;
+    }
+    final ByteBuf frame = data.readSlice(length);
     frame.retain();
-    frames.add(frame);
+    return frame;
   }
 
   @Override
   public void finish(final ChannelHandlerContext ctx, final List<Object> out) {
-    final ZMTPMessage message = ZMTPMessage.from(frames);
-    reset();
     out.add(message);
+    message = null;
+    frameLength = 0;
   }
 
   @Override
   public void close() {
-    for (final ByteBuf frame : frames) {
-      frame.release();
+    if (message != null) {
+      message.release();
+      message = null;
     }
-    frames.clear();
   }
 }
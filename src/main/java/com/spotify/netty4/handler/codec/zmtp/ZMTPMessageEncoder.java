@@ -31,8 +31,7 @@ public class ZMTPMessageEncoder implements ZMTPEncoder {
   public void estimate(final Object msg, final ZMTPEstimator estimator) {
     final ZMTPMessage message = (ZMTPMessage) msg;
     for (int i = 0; i < message.size(); i++) {
-      final ByteBuf frame = message.frame(i);
-      estimator.frame(frame.readableBytes());
+      estimator.frame(message.frame(i));
     }
   }
 
@@ -42,8 +41,7 @@ public class ZMTPMessageEncoder implements ZMTPEncoder {
     for (int i = 0; i < message.size(); i++) {
       final ByteBuf frame = message.frame(i);
       final boolean more = i < message.size() - 1;
-      final ByteBuf dst = writer.frame(frame.readableBytes(), more);
-      dst.writeBytes(frame, frame.readerIndex(), frame.readableBytes());
+      writer.frame(frame, more);
     }
   }
 
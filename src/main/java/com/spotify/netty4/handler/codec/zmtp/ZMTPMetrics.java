@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+/**
+ * Receives codec activity of a single ZMTP session. Methods are called on the event loop of the
+ * channel and should return quickly.
+ *
+ * The default {@link #NOOP} metrics discard everything. {@link ZMTPCodecMetrics} counts activity
+ * per session and in aggregate.
+ */
+public interface ZMTPMetrics {
+
+  /**
+   * The ZMTP handshake completed.
+   *
+   * @param nanos The time in nanoseconds from the greeting being sent until the handshake
+   *              completed.
+   */
+  void handshakeSuccess(long nanos);
+
+  /**
+   * The ZMTP handshake failed.
+   *
+   * @param nanos The time in nanoseconds from the greeting being sent until the handshake failed.
+   * @param cause The cause of the failure.
+   */
+  void handshakeFailure(long nanos, Throwable cause);
+
+  /**
+   * Bytes were read from the channel by the framing decoder.
+   */
+  void bytesReceived(int bytes);
+
+  /**
+   * A frame header was parsed.
+   *
+   * @param length The length in bytes of the frame content.
+   */
+  void frameReceived(long length);
+
+  /**
+   * A message was decoded.
+   *
+   * @param frames The number of frames of the message.
+   * @param length The total length in bytes of the frame content of the message.
+   */
+  void messageReceived(int frames, long length);
+
+  /**
+   * A message was discarded undecoded as the receive high water mark was reached.
+   */
+  void messageDropped();
+
+  /**
+   * A frame was encoded. Frames of {@link ZMTPEncodedMessage}s are encoded ahead of time, once, but
+   * are reported by every framing encoder that sends them.
+   *
+   * @param length The length in bytes of the frame content.
+   */
+  void frameSent(int length);
+
+  /**
+   * A message was dropped or failed by the framing encoder as the send high water mark was reached.
+   */
+  void messageRejected();
+
+  /**
+   * The framing encoder flushed pending messages to the channel.
+   *
+   * @param messages The number of messages flushed, which is 0 if only commands such as heartbeats
+   *                 were flushed.
+   * @param bytes    The number of encoded bytes flushed.
+   */
+  void flushed(int messages, int bytes);
+
+  /**
+   * Metrics that discard everything.
+   */
+  ZMTPMetrics NOOP = new ZMTPMetrics() {
+    @Override
+    public void handshakeSuccess(final long nanos) {
+    }
+
+    @Override
+    public void handshakeFailure(final long nanos, final Throwable cause) {
+    }
+
+    @Override
+    public void bytesReceived(final int bytes) {
+    }
+
+    @Override
+    public void frameReceived(final long length) {
+    }
+
+    @Override
+    public void messageReceived(final int frames, final long length) {
+    }
+
+    @Override
+    public void messageDropped() {
+    }
+
+    @Override
+    public void frameSent(final int length) {
+    }
+
+    @Override
+    public void messageRejected() {
+    }
+
+    @Override
+    public void flushed(final int messages, final int bytes) {
+    }
+  };
+
+  /**
+   * Creates {@link ZMTPMetrics} instances.
+   */
+  interface Factory {
+
+    /**
+     * A factory of {@link ZMTPMetrics#NOOP}, the default.
+     */
+    Factory NOOP = new Factory() {
+      @Override
+      public ZMTPMetrics metrics(final ZMTPSession session) {
+        return ZMTPMetrics.NOOP;
+      }
+    };
+
+    /**
+     * Create {@link ZMTPMetrics} for a {@link ZMTPSession}. Called when the session is created,
+     * before the handshake.
+     */
+    ZMTPMetrics metrics(ZMTPSession session);
+  }
+}
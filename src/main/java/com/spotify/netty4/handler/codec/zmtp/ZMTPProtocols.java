@@ -20,4 +20,6 @@ public class ZMTPProtocols {
 
   public static final ZMTPProtocol ZMTP10 = new ZMTP10Protocol();
   public static final ZMTPProtocol ZMTP20 = new ZMTP20Protocol();
+  public static final ZMTPProtocol ZMTP30 = new ZMTP30Protocol(0);
+  public static final ZMTPProtocol ZMTP31 = new ZMTP30Protocol(1);
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+
+/**
+ * Counts the {@link ZMTPMessage}s received from a peer that have not yet been released by the
+ * application, turning off auto read while the receive high water mark is exceeded.
+ *
+ * Messages are counted on the channel event loop but may be released on any thread, so the counters
+ * are updated atomically instead of under a lock. Auto read is only changed on the event loop.
+ */
+class ZMTPReceiveQueue {
+
+  private static final AtomicIntegerFieldUpdater<ZMTPReceiveQueue> MESSAGES_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(ZMTPReceiveQueue.class, "messages");
+  private static final AtomicLongFieldUpdater<ZMTPReceiveQueue> BYTES_UPDATER =
+      AtomicLongFieldUpdater.newUpdater(ZMTPReceiveQueue.class, "bytes");
+  private static final AtomicIntegerFieldUpdater<ZMTPReceiveQueue> RESUMING_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(ZMTPReceiveQueue.class, "resuming");
+
+  private final int highWaterMark;
+  private final long highWaterMarkBytes;
+
+  private volatile Channel channel;
+  private volatile int messages;
+  private volatile long bytes;
+  private volatile int paused;
+  private volatile int resuming;
+
+  private final Runnable resumeTask = new Runnable() {
+    @Override
+    public void run() {
+      resuming = 0;
+      resume();
+    }
+  };
+
+  /**
+   * @param highWaterMark      The maximum number of messages, or 0 for no limit.
+   * @param highWaterMarkBytes The maximum number of bytes, or 0 for no limit.
+   */
+  ZMTPReceiveQueue(final int highWaterMark, final long highWaterMarkBytes) {
+    this.highWaterMark = highWaterMark;
+    this.highWaterMarkBytes = highWaterMarkBytes;
+  }
+
+  /**
+   * Check whether the queue is at or above either high water mark.
+   */
+  boolean full() {
+    return (highWaterMark > 0 && messages >= highWaterMark) ||
+           (highWaterMarkBytes > 0 && bytes >= highWaterMarkBytes);
+  }
+
+  /**
+   * Count a received message until it is released.
+   */
+  void add(final ZMTPMessage message, final long bytes) {
+    MESSAGES_UPDATER.incrementAndGet(this);
+    BYTES_UPDATER.addAndGet(this, bytes);
+    message.enqueued(this, bytes);
+  }
+
+  /**
+   * Stop reading from the channel until the queue is drained below the high water marks. Called on
+   * the event loop of the channel.
+   */
+  void pause(final Channel channel) {
+    this.channel = channel;
+    if (paused != 0) {
+      return;
+    }
+    // Turn off reading before publishing the paused flag, so that a concurrent release that sees
+    // the flag always finds reading turned off.
+    channel.config().setAutoRead(false);
+    paused = 1;
+    // The queue might have drained before the paused flag was published
+    resume();
+  }
+
+  /**
+   * Called when a message counted by {@link #add} is released, on any thread.
+   */
+  void remove(final long bytes) {
+    MESSAGES_UPDATER.decrementAndGet(this);
+    BYTES_UPDATER.addAndGet(this, -bytes);
+    if (paused == 0 || full()) {
+      return;
+    }
+    final EventLoop eventLoop = channel.eventLoop();
+    if (eventLoop.inEventLoop()) {
+      resume();
+    } else if (RESUMING_UPDATER.compareAndSet(this, 0, 1)) {
+      eventLoop.execute(resumeTask);
+    }
+  }
+
+  /**
+   * Resume reading if paused and drained. Only called on the event loop, which makes it the only
+   * thread that changes auto read and the paused flag, so the two cannot get out of step.
+   */
+  private void resume() {
+    if (paused != 0 && !full()) {
+      paused = 0;
+      channel.config().setAutoRead(true);
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * An immutable table of values, e.g. peers, by ZMTP identity. Lookups are allocation free and do
+ * not modify the identity.
+ *
+ * Identities in the format generated by {@link ZMTPLongIdentityGenerator} and {@link
+ * ZMTPStripedIdentityGenerator}, a zero byte followed by a {@code long}, are keyed by that {@code
+ * long} in an open addressing table. Other identities are keyed by their {@link ZMTPIdentity}, with
+ * its cached hash code mixed and stored alongside, in a second open addressing table.
+ *
+ * Tables are updated by creating a new table, which takes time proportional to the number of
+ * entries. They are meant to be published through a volatile field, as identities are looked up
+ * far more often than they are added and removed.
+ */
+public final class ZMTPRoutingTable<V> {
+
+  private static final int LONG_IDENTITY_LENGTH = 9;
+  private static final int MIN_CAPACITY = 8;
+
+  private static final ZMTPRoutingTable<Object> EMPTY =
+      new ZMTPRoutingTable<Object>(new long[0], new Object[0], new ZMTPIdentity[0], new int[0],
+                                   new Object[0], 0, 0);
+
+  private final long[] longKeys;
+  private final Object[] longValues;
+  private final ZMTPIdentity[] keys;
+  private final int[] hashes;
+  private final Object[] values;
+  private final int longSize;
+  private final int size;
+
+  private ZMTPRoutingTable(final long[] longKeys, final Object[] longValues,
+                           final ZMTPIdentity[] keys, final int[] hashes, final Object[] values,
+                           final int longSize, final int size) {
+    this.longKeys = longKeys;
+    this.longValues = longValues;
+    this.keys = keys;
+    this.hashes = hashes;
+    this.values = values;
+    this.longSize = longSize;
+    this.size = size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public static <V> ZMTPRoutingTable<V> empty() {
+    return (ZMTPRoutingTable<V>) EMPTY;
+  }
+
+  /**
+   * Get the number of entries in this table.
+   */
+  public int size() {
+    return longSize + size;
+  }
+
+  /**
+   * Look up the value of the identity in the readable bytes of a {@link ByteBuf}.
+   *
+   * @return The value, or null if the identity is not in this table.
+   */
+  public V get(final ByteBuf identity) {
+    final int index = identity.readerIndex();
+    final int length = identity.readableBytes();
+    if (isLongIdentity(identity, index, length)) {
+      return getLong(identity.getLong(index + 1));
+    }
+    if (size == 0) {
+      return null;
+    }
+    return get(identity, index, length, hash(identity, index, length));
+  }
+
+  /**
+   * Look up the value of an identity.
+   *
+   * @return The value, or null if the identity is not in this table.
+   */
+  public V get(final ZMTPIdentity identity) {
+    if (isLongIdentity(identity)) {
+      return getLong(longKey(identity));
+    }
+    if (size == 0) {
+      return null;
+    }
+    final int hash = mix(identity.hashCode());
+    final int mask = keys.length - 1;
+    for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash && keys[i].equals(identity)) {
+        return value(values[i]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Create a table with an identity mapped to a value, replacing any previous value.
+   */
+  public ZMTPRoutingTable<V> with(final ZMTPIdentity identity, final V value) {
+    checkNotNull(identity, "identity");
+    checkNotNull(value, "value");
+    if (isLongIdentity(identity)) {
+      final long key = longKey(identity);
+      final boolean replace = getLong(key) != null;
+      final int longSize = replace ? this.longSize : this.longSize + 1;
+      final long[] longKeys = new long[capacity(longSize)];
+      final Object[] longValues = new Object[longKeys.length];
+      copyLongs(longKeys, longValues, key);
+      putLong(longKeys, longValues, key, value);
+      return new ZMTPRoutingTable<V>(longKeys, longValues, keys, hashes, values, longSize, size);
+    }
+    final boolean replace = get(identity) != null;
+    final int size = replace ? this.size : this.size + 1;
+    final ZMTPIdentity[] keys = new ZMTPIdentity[capacity(size)];
+    final int[] hashes = new int[keys.length];
+    final Object[] values = new Object[keys.length];
+    copy(keys, hashes, values, identity);
+    put(keys, hashes, values, identity, value);
+    return new ZMTPRoutingTable<V>(longKeys, longValues, keys, hashes, values, longSize, size);
+  }
+
+  /**
+   * Create a table without an identity, if it is mapped to a specific value.
+   */
+  public ZMTPRoutingTable<V> without(final ZMTPIdentity identity, final V value) {
+    checkNotNull(identity, "identity");
+    final V current = get(identity);
+    if (current == null || !current.equals(value)) {
+      return this;
+    }
+    if (isLongIdentity(identity)) {
+      final long key = longKey(identity);
+      final long[] longKeys = new long[capacity(longSize - 1)];
+      final Object[] longValues = new Object[longKeys.length];
+      copyLongs(longKeys, longValues, key);
+      return new ZMTPRoutingTable<V>(longKeys, longValues, keys, hashes, values, longSize - 1,
+                                     size);
+    }
+    final ZMTPIdentity[] keys = new ZMTPIdentity[capacity(size - 1)];
+    final int[] hashes = new int[keys.length];
+    final Object[] values = new Object[keys.length];
+    copy(keys, hashes, values, identity);
+    return new ZMTPRoutingTable<V>(longKeys, longValues, keys, hashes, values, longSize, size - 1);
+  }
+
+  private V getLong(final long key) {
+    if (longSize == 0) {
+      return null;
+    }
+    final int mask = longKeys.length - 1;
+    for (int i = mix(key) & mask; longValues[i] != null; i = (i + 1) & mask) {
+      if (longKeys[i] == key) {
+        return value(longValues[i]);
+      }
+    }
+    return null;
+  }
+
+  private V get(final ByteBuf identity, final int index, final int length, final int hash) {
+    final int mask = keys.length - 1;
+    for (int i = hash & mask; keys[i] != null; i = (i + 1) & mask) {
+      if (hashes[i] == hash && keys[i].contentEquals(identity)) {
+        return value(values[i]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Copy all long keyed entries except one into new arrays.
+   */
+  private void copyLongs(final long[] longKeys, final Object[] longValues, final long except) {
+    for (int i = 0; i < this.longKeys.length; i++) {
+      if (this.longValues[i] != null && this.longKeys[i] != except) {
+        putLong(longKeys, longValues, this.longKeys[i], this.longValues[i]);
+      }
+    }
+  }
+
+  /**
+   * Copy all byte keyed entries except one into new arrays.
+   */
+  private void copy(final ZMTPIdentity[] keys, final int[] hashes, final Object[] values,
+                    final ZMTPIdentity except) {
+    for (int i = 0; i < this.keys.length; i++) {
+      if (this.keys[i] != null && !this.keys[i].equals(except)) {
+        put(keys, hashes, values, this.keys[i], this.values[i]);
+      }
+    }
+  }
+
+  private static void putLong(final long[] longKeys, final Object[] longValues, final long key,
+                              final Object value) {
+    final int mask = longKeys.length - 1;
+    int i = mix(key) & mask;
+    while (longValues[i] != null) {
+      i = (i + 1) & mask;
+    }
+    longKeys[i] = key;
+    longValues[i] = value;
+  }
+
+  private static void put(final ZMTPIdentity[] keys, final int[] hashes, final Object[] values,
+                          final ZMTPIdentity key, final Object value) {
+    final int hash = mix(key.hashCode());
+    final int mask = keys.length - 1;
+    int i = hash & mask;
+    while (keys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = key;
+    hashes[i] = hash;
+    values[i] = value;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V> V value(final Object value) {
+    return (V) value;
+  }
+
+  /**
+   * Get a power of two capacity that keeps the load factor at or below 0.5.
+   */
+  private static int capacity(final int size) {
+    if (size == 0) {
+      return 0;
+    }
+    return Math.max(MIN_CAPACITY, Integer.highestOneBit(size * 2 - 1) << 1);
+  }
+
+  private static boolean isLongIdentity(final ByteBuf identity, final int index,
+                                        final int length) {
+    return length == LONG_IDENTITY_LENGTH && identity.getByte(index) == 0;
+  }
+
+  private static boolean isLongIdentity(final ZMTPIdentity identity) {
+    return identity.length() == LONG_IDENTITY_LENGTH && identity.get(0) == 0;
+  }
+
+  private static long longKey(final ZMTPIdentity identity) {
+    long key = 0;
+    for (int i = 1; i < LONG_IDENTITY_LENGTH; i++) {
+      key = (key << 8) | (identity.get(i) & 0xFF);
+    }
+    return key;
+  }
+
+  private static int hash(final ByteBuf identity, final int index, final int length) {
+    int hash = 1;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + identity.getByte(index + i);
+    }
+    return mix(hash);
+  }
+
+  private static int mix(final long key) {
+    long h = key;
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    return (int) h;
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import static java.lang.System.arraycopy;
+
+/**
+ * Counts the messages that have been flushed by a {@link ZMTPFramingEncoder} but not yet written to
+ * the socket.
+ *
+ * Each flush hands a single buffer to the channel. Outbound buffers are written in order, so a
+ * flushed batch has been written once the number of bytes flushed in total, less the pending write
+ * bytes of the channel, has passed the end of the batch. This keeps promise listeners off the write
+ * path. Only accessed from the channel event loop.
+ */
+class ZMTPSendQueue {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private long[] ends = new long[INITIAL_CAPACITY];
+  private int[] counts = new int[INITIAL_CAPACITY];
+  private int head;
+  private int batches;
+
+  private long flushed;
+  private int messages;
+
+  /**
+   * Record a flushed batch.
+   *
+   * @param messages The number of messages in the batch.
+   * @param bytes    The size of the batch on the wire.
+   */
+  void flushed(final int messages, final int bytes) {
+    if (batches == ends.length) {
+      grow();
+    }
+    flushed += bytes;
+    final int tail = (head + batches) & (ends.length - 1);
+    ends[tail] = flushed;
+    counts[tail] = messages;
+    batches++;
+    this.messages += messages;
+  }
+
+  /**
+   * Get the number of flushed messages not yet written to the socket.
+   *
+   * @param pendingWriteBytes The number of bytes pending in the outbound buffer of the channel.
+   */
+  int messages(final long pendingWriteBytes) {
+    final long written = flushed - pendingWriteBytes;
+    while (batches > 0 && ends[head] <= written) {
+      messages -= counts[head];
+      head = (head + 1) & (ends.length - 1);
+      batches--;
+    }
+    return messages;
+  }
+
+  private void grow() {
+    final int capacity = ends.length;
+    final long[] ends = new long[capacity * 2];
+    final int[] counts = new int[capacity * 2];
+    final int n = capacity - head;
+    arraycopy(this.ends, head, ends, 0, n);
+    arraycopy(this.ends, 0, ends, n, head);
+    arraycopy(this.counts, head, counts, 0, n);
+    arraycopy(this.counts, 0, counts, n, head);
+    this.ends = ends;
+    this.counts = counts;
+    this.head = 0;
+  }
+}
@@ -16,9 +16,8 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
-import java.nio.ByteBuffer;
-
 import io.netty.util.concurrent.DefaultPromise;
+import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GlobalEventExecutor;
 
@@ -29,15 +28,17 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
  */
 public class ZMTPSession {
 
-  private final DefaultPromise<ZMTPHandshake> handshake = new DefaultPromise<ZMTPHandshake>(
-      GlobalEventExecutor.INSTANCE);
+  private final HandshakePromise handshake = new HandshakePromise();
 
   private final ZMTPConfig config;
+  private final ZMTPMetrics metrics;
 
-  private volatile ByteBuffer peerIdentity;
+  private volatile ZMTPIdentity peerIdentity;
+  private boolean peerAnonymous;
 
   ZMTPSession(final ZMTPConfig config) {
     this.config = checkNotNull(config, "config");
+    this.metrics = checkNotNull(config.metrics().metrics(this), "metrics");
   }
 
   /**
@@ -47,21 +48,31 @@ public class ZMTPSession {
     return config;
   }
 
+  /**
+   * The metrics that codec activity of this session is reported to.
+   */
+  public ZMTPMetrics metrics() {
+    return metrics;
+  }
+
   /**
    * Get the peer identity.
    */
-  public ByteBuffer peerIdentity() {
-    if (!handshake.isDone()) {
+  public ZMTPIdentity peerIdentity() {
+    final ZMTPIdentity peerIdentity = this.peerIdentity;
+    if (peerIdentity == null) {
       throw new IllegalStateException("handshake not complete");
     }
-    return peerIdentity.asReadOnlyBuffer();
+    return peerIdentity;
   }
 
   /**
    * Check whether the peer is anonymous and the peer identity is generated.
    */
   public boolean isPeerAnonymous() {
-    return !handshake().remoteIdentity().hasRemaining();
+    // Read the volatile identity first, as the flag is written before it
+    peerIdentity();
+    return peerAnonymous;
   }
 
   /**
@@ -72,19 +83,30 @@ public class ZMTPSession {
   }
 
   /**
-   * Get a future that will be notified when the ZMTP handshake is complete.
+   * Get a future that will be notified when the ZMTP handshake is complete. Once the codec is added
+   * to a channel pipeline, listeners are notified on the event loop of the channel.
    */
   public Future<ZMTPHandshake> handshakeFuture() {
     return handshake;
   }
 
+  /**
+   * Bind the handshake future to the executor that listeners should be notified on, normally the
+   * event loop of the channel.
+   */
+  void executor(final EventExecutor executor) {
+    handshake.executor = checkNotNull(executor, "executor");
+  }
+
   /**
    * Signal ZMTP handshake success.
    */
   void handshakeSuccess(final ZMTPHandshake handshake) {
-    peerIdentity = handshake.remoteIdentity().hasRemaining()
-                   ? handshake.remoteIdentity()
-                   : config.identityGenerator().generateIdentity(this);
+    final ZMTPIdentity remoteIdentity = handshake.remoteIdentity();
+    peerAnonymous = remoteIdentity.isEmpty();
+    peerIdentity = peerAnonymous
+                   ? ZMTPIdentity.from(config.identityGenerator().generateIdentity(this))
+                   : remoteIdentity;
     this.handshake.setSuccess(handshake);
   }
 
@@ -115,4 +137,18 @@ public class ZMTPSession {
   public static ZMTPSession from(final ZMTPConfig config) {
     return new ZMTPSession(config);
   }
+
+  /**
+   * A promise that notifies listeners on the {@link GlobalEventExecutor} until it is bound to the
+   * event loop of a channel.
+   */
+  private static class HandshakePromise extends DefaultPromise<ZMTPHandshake> {
+
+    private volatile EventExecutor executor = GlobalEventExecutor.INSTANCE;
+
+    @Override
+    protected EventExecutor executor() {
+      return executor;
+    }
+  }
 }
@@ -0,0 +1,1095 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import com.spotify.netty4.util.BatchFlusher;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.internal.logging.InternalLogger;
+import io.netty.util.internal.logging.InternalLoggerFactory;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * A ZMTP socket implementing the ZeroMQ routing rules of the DEALER, ROUTER, PUB, SUB, PUSH and
+ * PULL socket types on top of {@link ZMTPCodec}.
+ *
+ * <ul>
+ * <li>DEALER and PUSH sockets round robin outgoing messages over the connected peers, skipping
+ * peers that are not writable.</li>
+ * <li>ROUTER sockets push the peer identity onto incoming messages and route outgoing messages to
+ * the peer identified by their first frame.</li>
+ * <li>PUB sockets send outgoing messages to the peers subscribed to a prefix of their first frame.
+ * Subscriptions are indexed in a {@link ZMTPSubscriptions} trie. Peers speaking ZMTP/1.0, which
+ * filter messages themselves, are subscribed to everything.</li>
+ * <li>SUB sockets send subscriptions made using {@link #subscribe} to all peers, including peers
+ * connecting later, and drop incoming messages they are not subscribed to. Other outgoing messages
+ * are broadcast to all peers.</li>
+ * <li>PULL sockets cannot send and PUSH sockets drop incoming messages.</li>
+ * </ul>
+ *
+ * The set of peers is a copy-on-write array swapped with a compare-and-set, and ROUTER identities
+ * are looked up in a concurrent map, so sending never takes a lock. Each peer queues outgoing
+ * messages in its own channel, subject to the high water marks of the {@link ZMTPConfig}, and
+ * writes are gathered by a {@link BatchFlusher} per peer. Incoming messages are fair-queued: every
+ * channel does a single read each time its event loop services it before the next peer gets its
+ * turn.
+ *
+ * Sending transfers ownership of the message to the socket.
+ */
+public class ZMTPSocket implements Closeable {
+
+  private static final InternalLogger log = InternalLoggerFactory.getInstance(ZMTPSocket.class);
+
+  private static final Peer[] NO_PEERS = new Peer[0];
+
+  private static final AtomicReferenceFieldUpdater<ZMTPSocket, Peer[]> PEERS_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(ZMTPSocket.class, Peer[].class, "peers");
+  private static final AtomicReferenceFieldUpdater<ZMTPSocket, Peer[]> SUBSCRIBERS_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(ZMTPSocket.class, Peer[].class, "subscribers");
+
+  /**
+   * The subscriber index of a SUB socket in its own subscriptions.
+   */
+  private static final int SELF = 0;
+
+  private static final byte SUBSCRIBE = 1;
+  private static final byte UNSUBSCRIBE = 0;
+
+  private static final String SUBSCRIBE_COMMAND = "SUBSCRIBE";
+  private static final String CANCEL_COMMAND = "CANCEL";
+
+  /**
+   * Represents a connected peer.
+   */
+  public interface ZMTPPeer {
+
+    /**
+     * Get the ZMTP session for this peer.
+     */
+    ZMTPSession session();
+
+    /**
+     * Send a message to this peer.
+     */
+    Future<Void> send(ZMTPMessage message);
+  }
+
+  /**
+   * Handles incoming messages and connection events. Called on the event loop of the peer.
+   */
+  public interface Handler {
+
+    /**
+     * A peer connected.
+     */
+    void connected(ZMTPSocket socket, ZMTPPeer peer);
+
+    /**
+     * A peer disconnected.
+     */
+    void disconnected(ZMTPSocket socket, ZMTPPeer peer);
+
+    /**
+     * A message was received from a peer. The handler is responsible for releasing the message.
+     */
+    void message(ZMTPSocket socket, ZMTPPeer peer, ZMTPMessage message);
+  }
+
+  private interface Sender {
+
+    Future<Void> send(ZMTPMessage message);
+  }
+
+  private interface Receiver {
+
+    void receive(final ZMTPPeer peer, ZMTPMessage message);
+  }
+
+  private final ChannelGroup channelGroup = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+  private volatile Peer[] peers = NO_PEERS;
+
+  /**
+   * The peers by identity. Read without locking. Updates copy the table, which is O(n), so they
+   * are serialized on {@link #routingLock} rather than retried in a CAS loop, which would go
+   * quadratic when many peers connect or disconnect at once.
+   */
+  private volatile ZMTPRoutingTable<Peer> routing = ZMTPRoutingTable.empty();
+  private final Object routingLock = new Object();
+
+  /**
+   * The peers of a PUB socket by their subscriber index.
+   */
+  private volatile Peer[] subscribers = NO_PEERS;
+
+  /**
+   * The subscriptions of the peers of a PUB socket, or the own subscriptions of a SUB socket.
+   */
+  private final ZMTPSubscriptions subscriptions = new ZMTPSubscriptions();
+
+  private final Sender sender;
+  private final Receiver receiver;
+
+  private final Handler handler;
+  private final ZMTPConfig config;
+  private final EventLoopGroup group;
+  private final Class<? extends Channel> channel;
+  private final Class<? extends ServerChannel> serverChannel;
+
+  private volatile boolean closed;
+
+  /**
+   * Create a new socket.
+   */
+  private ZMTPSocket(final Builder builder) {
+    this.handler = checkNotNull(builder.handler, "handler");
+    final ZMTPConfig config = builder.config.build();
+    final ZMTPHighWaterMarkPolicy policy = (builder.highWaterMarkPolicy != null)
+                                           ? builder.highWaterMarkPolicy
+                                           : highWaterMarkPolicy(config.socketType());
+    this.config = config.toBuilder()
+        .identityGenerator(ZMTPStripedIdentityGenerator.GLOBAL)
+        .decoder(decoder(config.socketType()))
+        .encoder(encoder(config.socketType()))
+        .highWaterMarkPolicy(policy)
+        .build();
+    this.group = (builder.group != null) ? builder.group : DefaultGroup.INSTANCE;
+    this.channel = checkNotNull(builder.channel, "channel");
+    this.serverChannel = checkNotNull(builder.serverChannel, "serverChannel");
+    this.sender = sender(config.socketType());
+    this.receiver = receiver(config.socketType());
+  }
+
+  /**
+   * Bind this socket to an endpoint, e.g. {@code tcp://127.0.0.1:*}.
+   */
+  public Future<InetSocketAddress> bind(final String endpoint) {
+    final Promise<InetSocketAddress> promise = GlobalEventExecutor.INSTANCE.newPromise();
+    address(endpoint).addListener(new FutureListener<InetSocketAddress>() {
+      @Override
+      public void operationComplete(final Future<InetSocketAddress> future) {
+        if (future.isSuccess()) {
+          cascade(bind(future.getNow()), promise);
+        } else {
+          promise.setFailure(future.cause());
+        }
+      }
+    });
+    return promise;
+  }
+
+  /**
+   * Bind this socket to an address.
+   */
+  public Future<InetSocketAddress> bind(final InetSocketAddress address) {
+    final ServerBootstrap b = new ServerBootstrap()
+        .channel(serverChannel)
+        .group(group)
+        .childOption(ChannelOption.MAX_MESSAGES_PER_READ, 1)
+        .childHandler(new ChannelInitializer());
+    final ChannelFuture f = b.bind(address);
+    channelGroup.add(f.channel());
+    if (closed) {
+      f.channel().close();
+      return GlobalEventExecutor.INSTANCE.newFailedFuture(new ClosedChannelException());
+    }
+    final Promise<InetSocketAddress> promise = GlobalEventExecutor.INSTANCE.newPromise();
+    f.addListener(new ChannelFutureListener() {
+      @Override
+      public void operationComplete(final ChannelFuture future) {
+        if (future.isSuccess()) {
+          promise.setSuccess((InetSocketAddress) future.channel().localAddress());
+        } else {
+          promise.setFailure(future.cause());
+        }
+      }
+    });
+    return promise;
+  }
+
+  /**
+   * Connect this socket to an endpoint, e.g. {@code tcp://127.0.0.1:4711}.
+   */
+  public Future<Void> connect(final String endpoint) {
+    final Promise<Void> promise = GlobalEventExecutor.INSTANCE.newPromise();
+    address(endpoint).addListener(new FutureListener<InetSocketAddress>() {
+      @Override
+      public void operationComplete(final Future<InetSocketAddress> future) {
+        if (future.isSuccess()) {
+          cascade(connect(future.getNow()), promise);
+        } else {
+          promise.setFailure(future.cause());
+        }
+      }
+    });
+    return promise;
+  }
+
+  /**
+   * Connect this socket to an address.
+   */
+  public Future<Void> connect(final InetSocketAddress address) {
+    final Bootstrap b = new Bootstrap()
+        .group(group)
+        .channel(channel)
+        .option(ChannelOption.MAX_MESSAGES_PER_READ, 1)
+        .handler(new ChannelInitializer());
+    final ChannelFuture f = b.connect(address);
+    if (closed) {
+      f.channel().close();
+      return GlobalEventExecutor.INSTANCE.newFailedFuture(new ClosedChannelException());
+    }
+    return f;
+  }
+
+  /**
+   * Send a message on this socket.
+   */
+  public Future<Void> send(final ZMTPMessage message) {
+    return sender.send(message);
+  }
+
+  /**
+   * Subscribe a SUB socket to messages whose first frame starts with a prefix. The empty prefix
+   * subscribes to all messages.
+   */
+  public void subscribe(final ByteBuffer prefix) {
+    send(subscription(SUBSCRIBE, prefix));
+  }
+
+  /**
+   * Subscribe a SUB socket to messages whose first frame starts with a UTF-8 prefix.
+   */
+  public void subscribe(final CharSequence prefix) {
+    subscribe(CharsetUtil.UTF_8.encode(CharBuffer.wrap(prefix)));
+  }
+
+  /**
+   * Cancel a subscription of a SUB socket.
+   */
+  public void unsubscribe(final ByteBuffer prefix) {
+    send(subscription(UNSUBSCRIBE, prefix));
+  }
+
+  /**
+   * Cancel a subscription of a SUB socket to a UTF-8 prefix.
+   */
+  public void unsubscribe(final CharSequence prefix) {
+    unsubscribe(CharsetUtil.UTF_8.encode(CharBuffer.wrap(prefix)));
+  }
+
+  private ZMTPMessage subscription(final byte type, final ByteBuffer prefix) {
+    if (config.socketType() != ZMTPSocketType.SUB) {
+      throw new IllegalStateException("not a SUB socket: " + config.socketType());
+    }
+    final ByteBuf frame = Unpooled.buffer(1 + prefix.remaining());
+    frame.writeByte(type);
+    frame.writeBytes(prefix.duplicate());
+    final ZMTPMessage message = ZMTPMessage.newInstance();
+    message.add(frame);
+    return message;
+  }
+
+  /**
+   * Close this socket.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    channelGroup.close().awaitUninterruptibly();
+  }
+
+  /**
+   * Get a list of all connected peers.
+   */
+  public List<ZMTPPeer> peers() {
+    return Collections.<ZMTPPeer>unmodifiableList(Arrays.asList(peers));
+  }
+
+  /**
+   * The configuration used for the peers of this socket.
+   */
+  public ZMTPConfig config() {
+    return config;
+  }
+
+  private void register(final Peer peer) {
+    addRoute(peer);
+    switch (config.socketType()) {
+      case PUB:
+        peer.index = addSubscriber(peer);
+        if (peer.remoteSocketType == null) {
+          // ZMTP/1.0 peers do not send subscriptions
+          subscriptions.subscribe(peer.index, ZMTPConfig.ANONYMOUS);
+        }
+        addPeer(peer);
+        break;
+      case SUB:
+        // Ensure that the peer gets every subscription exactly once
+        synchronized (subscriptions) {
+          addPeer(peer);
+          for (final ByteBuffer prefix : subscriptions.subscriptions(SELF)) {
+            peer.send(subscription(SUBSCRIBE, prefix));
+          }
+        }
+        break;
+      default:
+        addPeer(peer);
+    }
+  }
+
+  private void addPeer(final Peer peer) {
+    while (true) {
+      final Peer[] peers = this.peers;
+      final Peer[] newPeers = Arrays.copyOf(peers, peers.length + 1);
+      newPeers[peers.length] = peer;
+      if (PEERS_UPDATER.compareAndSet(this, peers, newPeers)) {
+        return;
+      }
+    }
+  }
+
+  private void deregister(final Peer peer) {
+    removeRoute(peer);
+    if (peer.index >= 0) {
+      subscriptions.unsubscribeAll(peer.index);
+      removeSubscriber(peer.index);
+    }
+    while (true) {
+      final Peer[] peers = this.peers;
+      final int i = indexOf(peers, peer);
+      if (i < 0) {
+        return;
+      }
+      final Peer[] newPeers = new Peer[peers.length - 1];
+      System.arraycopy(peers, 0, newPeers, 0, i);
+      System.arraycopy(peers, i + 1, newPeers, i, newPeers.length - i);
+      if (PEERS_UPDATER.compareAndSet(this, peers, newPeers)) {
+        return;
+      }
+    }
+  }
+
+  private void addRoute(final Peer peer) {
+    final ZMTPIdentity identity = peer.session().peerIdentity();
+    synchronized (routingLock) {
+      routing = routing.with(identity, peer);
+    }
+  }
+
+  private void removeRoute(final Peer peer) {
+    final ZMTPIdentity identity = peer.session().peerIdentity();
+    synchronized (routingLock) {
+      routing = routing.without(identity, peer);
+    }
+  }
+
+  /**
+   * Assign the lowest free subscriber index to a peer.
+   */
+  private int addSubscriber(final Peer peer) {
+    while (true) {
+      final Peer[] subscribers = this.subscribers;
+      final int i = indexOf(subscribers, null);
+      final Peer[] newSubscribers = Arrays.copyOf(
+          subscribers, (i < 0) ? subscribers.length + 1 : subscribers.length);
+      final int index = (i < 0) ? subscribers.length : i;
+      newSubscribers[index] = peer;
+      if (SUBSCRIBERS_UPDATER.compareAndSet(this, subscribers, newSubscribers)) {
+        return index;
+      }
+    }
+  }
+
+  private void removeSubscriber(final int index) {
+    while (true) {
+      final Peer[] subscribers = this.subscribers;
+      final Peer[] newSubscribers = subscribers.clone();
+      newSubscribers[index] = null;
+      if (SUBSCRIBERS_UPDATER.compareAndSet(this, subscribers, newSubscribers)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Apply a subscription message or ZMTP/3.1 SUBSCRIBE or CANCEL command from a peer.
+   */
+  private void subscription(final Peer peer, final boolean subscribe, final ByteBuffer prefix) {
+    if (peer.index < 0) {
+      return;
+    }
+    if (subscribe) {
+      subscriptions.subscribe(peer.index, prefix);
+    } else {
+      subscriptions.unsubscribe(peer.index, prefix);
+    }
+  }
+
+  private static int indexOf(final Peer[] peers, final Peer peer) {
+    for (int i = 0; i < peers.length; i++) {
+      if (peers[i] == peer) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Get the default high water mark policy of a socket type.
+   */
+  private static ZMTPHighWaterMarkPolicy highWaterMarkPolicy(final ZMTPSocketType socketType) {
+    switch (socketType) {
+      case PUB:
+        return ZMTPHighWaterMarkPolicy.DROP;
+      default:
+        return ZMTPHighWaterMarkPolicy.BLOCK;
+    }
+  }
+
+  /**
+   * Get an encoder for a socket type.
+   */
+  private static ZMTPEncoder.Factory encoder(final ZMTPSocketType socketType) {
+    switch (socketType) {
+      case ROUTER:
+        return RoutingEncoder.FACTORY;
+      default:
+        return ZMTPMessageEncoder.FACTORY;
+    }
+  }
+
+  /**
+   * Get a decoder for a socket type.
+   */
+  private static ZMTPDecoder.Factory decoder(final ZMTPSocketType socketType) {
+    switch (socketType) {
+      case ROUTER:
+        return RoutingDecoder.FACTORY;
+      default:
+        return ZMTPMessageDecoder.FACTORY;
+    }
+  }
+
+  /**
+   * Get a receiver that implements the appropriate socket type behavior.
+   */
+  private Receiver receiver(final ZMTPSocketType socketType) {
+    switch (socketType) {
+      case PUSH:
+        return new DropReceiver();
+      case PUB:
+        return new SubscriptionReceiver();
+      case SUB:
+        return new FilterReceiver();
+      case DEALER:
+      case ROUTER:
+      case PULL:
+        return new PassReceiver();
+      default:
+        throw new IllegalArgumentException("Unsupported socket type: " + socketType);
+    }
+  }
+
+  /**
+   * Get a sender that implements the appropriate socket type behavior.
+   */
+  private Sender sender(final ZMTPSocketType socketType) {
+    switch (socketType) {
+      case PUSH:
+      case DEALER:
+        return new RoundRobinSender();
+      case ROUTER:
+        return new RoutingSender();
+      case PUB:
+        return new PublishSender();
+      case SUB:
+        return new SubscribeSender();
+      case PULL:
+        return new UnsupportedOperationSender();
+      default:
+        throw new IllegalArgumentException("Unsupported socket type: " + socketType);
+    }
+  }
+
+  /**
+   * Resolve an endpoint into an address. Async to avoid blocking on DNS resolution.
+   */
+  private static Future<InetSocketAddress> address(final String endpoint) {
+    return GlobalEventExecutor.INSTANCE.submit(new Callable<InetSocketAddress>() {
+      @Override
+      public InetSocketAddress call() throws Exception {
+        final URI uri = URI.create(endpoint);
+        checkArgument("tcp".equals(uri.getScheme()),
+                      "Unsupported endpoint type: %s", uri.getScheme());
+        final String authority = uri.getAuthority();
+        final int colon = authority.lastIndexOf(':');
+        checkArgument(colon > 0, "Invalid endpoint: %s", endpoint);
+        final String hostString = authority.substring(0, colon);
+        final InetAddress host = hostString.equals("*") ? null : InetAddress.getByName(hostString);
+        final String portString = authority.substring(colon + 1);
+        final int port = portString.equals("*") ? 0 : Integer.valueOf(portString);
+        return new InetSocketAddress(host, port);
+      }
+    });
+  }
+
+  private static <T> void cascade(final Future<T> future, final Promise<T> promise) {
+    future.addListener(new FutureListener<T>() {
+      @Override
+      public void operationComplete(final Future<T> future) {
+        if (future.isSuccess()) {
+          promise.setSuccess(future.getNow());
+        } else {
+          promise.setFailure(future.cause());
+        }
+      }
+    });
+  }
+
+  private static Future<Void> failed(final ZMTPMessage message, final Throwable cause) {
+    message.release();
+    return GlobalEventExecutor.INSTANCE.newFailedFuture(cause);
+  }
+
+  /**
+   * Handles a single connected peer.
+   */
+  private class Peer extends ChannelInboundHandlerAdapter implements ZMTPPeer {
+
+    private final Channel ch;
+    private final BatchFlusher flusher;
+    private final ZMTPSession session;
+
+    private int index = -1;
+    private ZMTPSocketType remoteSocketType;
+
+    public Peer(final Channel ch, final ZMTPSession session) {
+      this.ch = ch;
+      this.session = session;
+      this.flusher = new BatchFlusher(ch);
+    }
+
+    @Override
+    public ZMTPSession session() {
+      return session;
+    }
+
+    @Override
+    public Future<Void> send(final ZMTPMessage message) {
+      return write(message);
+    }
+
+    Future<Void> write(final Object message) {
+      final ChannelFuture f = ch.write(message);
+      flusher.flush();
+      return f;
+    }
+
+    boolean isWritable() {
+      return ch.isWritable();
+    }
+
+    @Override
+    public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt)
+        throws Exception {
+      if (evt instanceof ZMTPHandshakeSuccess) {
+        remoteSocketType = ((ZMTPHandshakeSuccess) evt).handshake().remoteSocketType();
+        register(this);
+        try {
+          handler.connected(ZMTPSocket.this, this);
+        } catch (Exception e) {
+          log.error("handler threw exception", e);
+        }
+      }
+      super.userEventTriggered(ctx, evt);
+    }
+
+    @Override
+    public void channelInactive(final ChannelHandlerContext ctx) throws Exception {
+      if (!session.handshakeFuture().isSuccess()) {
+        return;
+      }
+      deregister(this);
+      try {
+        handler.disconnected(ZMTPSocket.this, this);
+      } catch (Exception e) {
+        log.error("handler threw exception", e);
+      }
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg)
+        throws Exception {
+      if (msg instanceof ZMTPMessage) {
+        try {
+          receiver.receive(this, (ZMTPMessage) msg);
+        } catch (Exception e) {
+          log.error("handler threw exception", e);
+        }
+      } else if (msg instanceof ZMTPCommand) {
+        final ZMTPCommand command = (ZMTPCommand) msg;
+        if (SUBSCRIBE_COMMAND.equals(command.name())) {
+          subscription(this, true, command.data());
+        } else if (CANCEL_COMMAND.equals(command.name())) {
+          subscription(this, false, command.data());
+        }
+      }
+    }
+
+    @Override
+    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause)
+        throws Exception {
+      log.warn("exception", cause);
+      ctx.close();
+    }
+  }
+
+  private class ChannelInitializer extends io.netty.channel.ChannelInitializer<Channel> {
+
+    @Override
+    protected void initChannel(final Channel ch) throws Exception {
+      channelGroup.add(ch);
+      final ZMTPCodec codec = ZMTPCodec.from(config);
+      final Peer peer = new Peer(ch, codec.session());
+      ch.pipeline().addLast(codec, peer);
+    }
+  }
+
+  /**
+   * A sender that round robin load balances messages over all connected peers, skipping peers that
+   * are not writable as long as there is one that is.
+   */
+  private class RoundRobinSender implements Sender {
+
+    private final AtomicInteger i = new AtomicInteger();
+
+    @Override
+    public Future<Void> send(final ZMTPMessage message) {
+      final Peer[] peers = ZMTPSocket.this.peers;
+      if (peers.length == 0) {
+        return failed(message, new ClosedChannelException());
+      }
+      final int start = i.getAndIncrement() & Integer.MAX_VALUE;
+      for (int j = 0; j < peers.length; j++) {
+        final Peer peer = peers[(start + j) % peers.length];
+        if (peer.isWritable()) {
+          return peer.send(message);
+        }
+      }
+      return peers[start % peers.length].send(message);
+    }
+  }
+
+  /**
+   * A sender that routes message to the appropriate peer using the front identity frame.
+   */
+  private class RoutingSender implements Sender {
+
+    @Override
+    public Future<Void> send(final ZMTPMessage message) {
+      if (message.size() == 0) {
+        return failed(message, new IllegalArgumentException("empty message"));
+      }
+      final ByteBuf identity = message.frame(0);
+      final Peer peer = routing.get(identity);
+      if (peer == null) {
+        return failed(message, new ClosedChannelException());
+      }
+      return peer.send(message);
+    }
+  }
+
+  /**
+   * A sender that sends messages to the peers subscribed to a prefix of the first frame. The
+   * message is encoded once per wire format and the encoded content is shared by all peers.
+   */
+  private class PublishSender implements Sender {
+
+    @Override
+    public Future<Void> send(final ZMTPMessage message) {
+      // Read the peers before matching so that a matched index cannot refer to a later peer
+      final Peer[] subscribers = ZMTPSocket.this.subscribers;
+      final ByteBuf topic = (message.size() == 0) ? Unpooled.EMPTY_BUFFER : message.frame(0);
+      final BitSet matches = subscriptions.match(topic);
+      final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(message);
+      for (int i = matches.nextSetBit(0); i >= 0 && i < subscribers.length;
+           i = matches.nextSetBit(i + 1)) {
+        final Peer peer = subscribers[i];
+        if (peer != null) {
+          peer.write(encoded.retain());
+        }
+      }
+      encoded.release();
+      return GlobalEventExecutor.INSTANCE.newSucceededFuture(null);
+    }
+  }
+
+  /**
+   * A sender that keeps track of outgoing subscription messages and broadcasts messages to all
+   * connected peers.
+   */
+  private class SubscribeSender implements Sender {
+
+    @Override
+    public Future<Void> send(final ZMTPMessage message) {
+      if (message.size() == 1 && message.frame(0).isReadable()) {
+        final ByteBuf frame = message.frame(0);
+        final byte type = frame.getByte(frame.readerIndex());
+        if (type == SUBSCRIBE || type == UNSUBSCRIBE) {
+          final ByteBuffer prefix = frame.nioBuffer(frame.readerIndex() + 1,
+                                                    frame.readableBytes() - 1);
+          synchronized (subscriptions) {
+            final boolean changed = (type == SUBSCRIBE)
+                                    ? subscriptions.subscribe(SELF, prefix)
+                                    : subscriptions.unsubscribe(SELF, prefix);
+            if (!changed) {
+              message.release();
+              return GlobalEventExecutor.INSTANCE.newSucceededFuture(null);
+            }
+            return broadcast(message);
+          }
+        }
+      }
+      return broadcast(message);
+    }
+
+    private Future<Void> broadcast(final ZMTPMessage message) {
+      final Peer[] peers = ZMTPSocket.this.peers;
+      for (final Peer peer : peers) {
+        peer.send(message.retain());
+      }
+      message.release();
+      return GlobalEventExecutor.INSTANCE.newSucceededFuture(null);
+    }
+  }
+
+  /**
+   * A sender that immediately fails all send operations.
+   */
+  private static class UnsupportedOperationSender implements Sender {
+
+    @Override
+    public Future<Void> send(final ZMTPMessage message) {
+      return failed(message, new UnsupportedOperationException());
+    }
+  }
+
+  /**
+   * A receiver that drops all incoming messages.
+   */
+  private static class DropReceiver implements Receiver {
+
+    @Override
+    public void receive(final ZMTPPeer peer, final ZMTPMessage message) {
+      message.release();
+    }
+  }
+
+  /**
+   * A receiver that applies incoming subscription messages and drops all other messages.
+   */
+  private class SubscriptionReceiver implements Receiver {
+
+    @Override
+    public void receive(final ZMTPPeer peer, final ZMTPMessage message) {
+      try {
+        if (message.size() == 1 && message.frame(0).isReadable()) {
+          final ByteBuf frame = message.frame(0);
+          final byte type = frame.getByte(frame.readerIndex());
+          if (type == SUBSCRIBE || type == UNSUBSCRIBE) {
+            final ByteBuffer prefix = frame.nioBuffer(frame.readerIndex() + 1,
+                                                      frame.readableBytes() - 1);
+            subscription((Peer) peer, type == SUBSCRIBE, prefix);
+          }
+        }
+      } finally {
+        message.release();
+      }
+    }
+  }
+
+  /**
+   * A receiver that passes on incoming messages matching a subscription to the {@link Handler}.
+   */
+  private class FilterReceiver extends PassReceiver {
+
+    @Override
+    public void receive(final ZMTPPeer peer, final ZMTPMessage message) {
+      final ByteBuf topic = (message.size() == 0) ? Unpooled.EMPTY_BUFFER : message.frame(0);
+      if (subscriptions.matches(SELF, topic)) {
+        super.receive(peer, message);
+      } else {
+        message.release();
+      }
+    }
+  }
+
+  /**
+   * A receiver that passes on all incoming messages to the {@link Handler}.
+   */
+  private class PassReceiver implements Receiver {
+
+    @Override
+    public void receive(final ZMTPPeer peer, final ZMTPMessage message) {
+      try {
+        handler.message(ZMTPSocket.this, peer, message);
+      } catch (Exception e) {
+        log.error("handler threw exception", e);
+      }
+    }
+  }
+
+  /**
+   * A {@link ZMTPMessage} decoder that pushes the peer identity onto the front of the message.
+   */
+  private static class RoutingDecoder implements ZMTPDecoder {
+
+    private static final ZMTPDecoder.Factory FACTORY = new Factory() {
+      @Override
+      public ZMTPDecoder decoder(final ZMTPSession session) {
+        return new RoutingDecoder(session.peerIdentity(), session.config().frameCopyRatio());
+      }
+    };
+
+    private static final ByteBuf DELIMITER = Unpooled.EMPTY_BUFFER;
+
+    private final ByteBuf identity;
+    private final int copyRatio;
+
+    private ZMTPMessage message;
+    private int frameLength;
+
+    RoutingDecoder(final ZMTPIdentity identity, final int copyRatio) {
+      this.identity = identity.buf();
+      this.copyRatio = copyRatio;
+    }
+
+    @Override
+    public void header(final ChannelHandlerContext ctx, final long length, final boolean more,
+                       final List<Object> out) {
+      frameLength = (int) length;
+      if (message == null) {
+        message = ZMTPMessage.newInstance();
+        message.add(identity.duplicate());
+      }
+    }
+
+    @Override
+    public void content(final ChannelHandlerContext ctx, final ByteBuf data,
+                        final List<Object> out) {
+      if (data.readableBytes() < frameLength) {
+        return;
+      }
+      if (frameLength == 0) {
+        message.add(DELIMITER);
+        return;
+      }
+      message.add(ZMTPMessageDecoder.readFrame(data, frameLength, copyRatio));
+    }
+
+    @Override
+    public void finish(final ChannelHandlerContext ctx, final List<Object> out) {
+      out.add(message);
+      message = null;
+    }
+
+    @Override
+    public void close() {
+      if (message != null) {
+        message.release();
+        message = null;
+      }
+    }
+  }
+
+  /**
+   * A {@link ZMTPMessage} encoder that pops the peer identity from the front of the message.
+   */
+  private static class RoutingEncoder implements ZMTPEncoder {
+
+    private static final ZMTPEncoder.Factory FACTORY = new Factory() {
+      @Override
+      public ZMTPEncoder encoder(final ZMTPSession session) {
+        return new RoutingEncoder();
+      }
+    };
+
+    @Override
+    public void estimate(final Object msg, final ZMTPEstimator estimator) {
+      final ZMTPMessage message = (ZMTPMessage) msg;
+      for (int i = 1; i < message.size(); i++) {
+        estimator.frame(message.frame(i));
+      }
+    }
+
+    @Override
+    public void encode(final Object msg, final ZMTPWriter writer) {
+      final ZMTPMessage message = (ZMTPMessage) msg;
+      for (int i = 1; i < message.size(); i++) {
+        final boolean more = i < message.size() - 1;
+        writer.frame(message.frame(i), more);
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static class Builder {
+
+    private final ZMTPConfig.Builder config = ZMTPConfig.builder();
+    private Handler handler;
+    private ZMTPHighWaterMarkPolicy highWaterMarkPolicy;
+    private EventLoopGroup group;
+    private Class<? extends Channel> channel = NioSocketChannel.class;
+    private Class<? extends ServerChannel> serverChannel = NioServerSocketChannel.class;
+
+    private Builder() {
+    }
+
+    public Builder handler(final Handler handler) {
+      this.handler = handler;
+      return this;
+    }
+
+    public Builder protocol(final ZMTPProtocol protocol) {
+      config.protocol(protocol);
+      return this;
+    }
+
+    public Builder interop(final boolean interop) {
+      config.interop(interop);
+      return this;
+    }
+
+    public Builder type(final ZMTPSocketType socketType) {
+      config.socketType(socketType);
+      return this;
+    }
+
+    public Builder identity(final CharSequence identity) {
+      config.localIdentity(identity);
+      return this;
+    }
+
+    public Builder identity(final byte[] identity) {
+      config.localIdentity(identity);
+      return this;
+    }
+
+    public Builder identity(final ByteBuffer localIdentity) {
+      config.localIdentity(localIdentity);
+      return this;
+    }
+
+    public Builder sendHighWaterMark(final int sendHighWaterMark) {
+      config.sendHighWaterMark(sendHighWaterMark);
+      return this;
+    }
+
+    public Builder receiveHighWaterMark(final int receiveHighWaterMark) {
+      config.receiveHighWaterMark(receiveHighWaterMark);
+      return this;
+    }
+
+    /**
+     * Set the high water mark policy. Defaults to {@link ZMTPHighWaterMarkPolicy#DROP} for PUB
+     * sockets and {@link ZMTPHighWaterMarkPolicy#BLOCK} otherwise.
+     */
+    public Builder highWaterMarkPolicy(final ZMTPHighWaterMarkPolicy highWaterMarkPolicy) {
+      this.highWaterMarkPolicy = highWaterMarkPolicy;
+      return this;
+    }
+
+    /**
+     * Set the event loop group to use. Defaults to a shared group of NIO event loops running on
+     * daemon threads.
+     */
+    public Builder group(final EventLoopGroup group) {
+      this.group = group;
+      return this;
+    }
+
+    /**
+     * Set the channel types to use for connecting and binding. Must match the event loop group.
+     */
+    public Builder channel(final Class<? extends Channel> channel,
+                           final Class<? extends ServerChannel> serverChannel) {
+      this.channel = channel;
+      this.serverChannel = serverChannel;
+      return this;
+    }
+
+    public ZMTPSocket build() {
+      return new ZMTPSocket(this);
+    }
+  }
+
+  /**
+   * The default event loop group, created on first use.
+   */
+  private static class DefaultGroup {
+
+    private static final EventLoopGroup INSTANCE = new NioEventLoopGroup(
+        0, new DefaultThreadFactory(ZMTPSocket.class, true));
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.DefaultByteBufHolder;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * A {@link ZMTPDecoder} that passes on frame content as it arrives instead of buffering entire
+ * frames. For each ZMTP message, the following events are produced, in order:
+ *
+ * <ol>
+ * <li>For each frame: a {@link FrameStart}, zero or more {@link FrameContent} chunks and a
+ * {@link FrameEnd}.</li>
+ * <li>A {@link MessageEnd}.</li>
+ * </ol>
+ *
+ * Each {@link FrameContent} holds a retained slice of the input and must be released by the
+ * consumer. This allows very large frames, up to 2 GiB, to be forwarded with bounded memory usage.
+ */
+public class ZMTPStreamingDecoder implements ZMTPDecoder {
+
+  public static final Factory FACTORY = new Factory() {
+    @Override
+    public ZMTPDecoder decoder(final ZMTPSession session) {
+      return new ZMTPStreamingDecoder();
+    }
+  };
+
+  private long remaining;
+
+  @Override
+  public void header(final ChannelHandlerContext ctx, final long length, final boolean more,
+                     final List<Object> out) {
+    remaining = length;
+    out.add(new FrameStart(length, more));
+  }
+
+  @Override
+  public void content(final ChannelHandlerContext ctx, final ByteBuf data, final List<Object> out) {
+    final int n = data.readableBytes();
+    if (n > 0) {
+      final ByteBuf chunk = data.readSlice(n);
+      chunk.retain();
+      out.add(new FrameContent(chunk));
+      remaining -= n;
+    }
+    if (remaining == 0) {
+      out.add(FrameEnd.INSTANCE);
+    }
+  }
+
+  @Override
+  public void finish(final ChannelHandlerContext ctx, final List<Object> out) {
+    out.add(MessageEnd.INSTANCE);
+  }
+
+  @Override
+  public void close() {
+  }
+
+  /**
+   * Signals the start of a ZMTP frame.
+   */
+  public static class FrameStart {
+
+    private final long length;
+    private final boolean more;
+
+    FrameStart(final long length, final boolean more) {
+      this.length = length;
+      this.more = more;
+    }
+
+    /**
+     * The total length in bytes of the frame content.
+     */
+    public long length() {
+      return length;
+    }
+
+    /**
+     * {@code true} if there are additional frames following this one in the current message.
+     */
+    public boolean more() {
+      return more;
+    }
+
+    @Override
+    public String toString() {
+      return "FrameStart{" +
+             "length=" + length +
+             ", more=" + more +
+             '}';
+    }
+  }
+
+  /**
+   * A chunk of ZMTP frame content. Must be released by the consumer.
+   */
+  public static class FrameContent extends DefaultByteBufHolder {
+
+    FrameContent(final ByteBuf data) {
+      super(data);
+    }
+
+    @Override
+    public FrameContent retain() {
+      super.retain();
+      return this;
+    }
+
+    @Override
+    public FrameContent retain(final int increment) {
+      super.retain(increment);
+      return this;
+    }
+  }
+
+  /**
+   * Signals that all content of the current ZMTP frame has been produced.
+   */
+  public static class FrameEnd {
+
+    static final FrameEnd INSTANCE = new FrameEnd();
+
+    private FrameEnd() {
+    }
+
+    @Override
+    public String toString() {
+      return "FrameEnd";
+    }
+  }
+
+  /**
+   * Signals the end of a ZMTP message, i.e. the end of a frame without the MORE flag.
+   */
+  public static class MessageEnd {
+
+    static final MessageEnd INSTANCE = new MessageEnd();
+
+    private MessageEnd() {
+    }
+
+    @Override
+    public String toString() {
+      return "MessageEnd";
+    }
+  }
+}
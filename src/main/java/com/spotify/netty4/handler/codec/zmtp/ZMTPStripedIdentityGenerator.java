@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.FastThreadLocal;
+
+/**
+ * A {@link ZMTPIdentityGenerator} that generates identities without contention between threads.
+ *
+ * Every thread, typically an event loop, is assigned its own stripe of identities on first use and
+ * counts through it without synchronization. Identities have the same format as those of {@link
+ * ZMTPLongIdentityGenerator}: a zero byte followed by a {@code long}. They are unique per generator
+ * for up to 2^24 stripes, each providing up to 2^40 identities to a thread before it moves on to a
+ * new stripe. Generation fails rather than repeating identities once all stripes are used up.
+ *
+ * Each generator holds a thread local and a random salt, so generators should be long lived and
+ * shared, e.g. {@link #GLOBAL}, rather than created per socket or session.
+ *
+ * Identities can also be allocated as {@link ByteBuf}s, e.g. from a pooled allocator, to be used
+ * directly as routing envelope frames.
+ */
+public class ZMTPStripedIdentityGenerator implements ZMTPIdentityGenerator {
+
+  public static final ZMTPStripedIdentityGenerator GLOBAL = new ZMTPStripedIdentityGenerator();
+
+  /**
+   * The length of a generated identity.
+   */
+  public static final int IDENTITY_LENGTH = 9;
+
+  private static final int COUNTER_BITS = 40;
+  private static final long STRIPE_SIZE = 1L << COUNTER_BITS;
+  private static final int MAX_STRIPES = 1 << (Long.SIZE - COUNTER_BITS);
+
+  private final long salt = new SecureRandom().nextLong();
+  private final AtomicInteger stripes;
+
+  private final FastThreadLocal<Stripe> stripe = new FastThreadLocal<Stripe>() {
+    @Override
+    protected Stripe initialValue() {
+      return new Stripe();
+    }
+  };
+
+  public ZMTPStripedIdentityGenerator() {
+    this(0);
+  }
+
+  ZMTPStripedIdentityGenerator(final int firstStripe) {
+    this.stripes = new AtomicInteger(firstStripe);
+  }
+
+  @Override
+  public ByteBuffer generateIdentity(final ZMTPSession session) {
+    final ByteBuffer generated = ByteBuffer.allocate(IDENTITY_LENGTH);
+    generated.put((byte) 0);
+    generated.putLong(next());
+    generated.flip();
+    return generated;
+  }
+
+  /**
+   * Generate an identity into a buffer from an allocator.
+   */
+  public ByteBuf generateIdentity(final ByteBufAllocator alloc) {
+    final ByteBuf generated = alloc.buffer(IDENTITY_LENGTH, IDENTITY_LENGTH);
+    writeIdentity(generated);
+    return generated;
+  }
+
+  /**
+   * Generate an identity and write it to a buffer.
+   */
+  public void writeIdentity(final ByteBuf out) {
+    out.writeByte(0);
+    out.writeLong(next());
+  }
+
+  private long next() {
+    return stripe.get().next();
+  }
+
+  /**
+   * A range of identities owned by a single thread.
+   */
+  private class Stripe {
+
+    private long base;
+    private long count = STRIPE_SIZE;
+
+    long next() {
+      if (count == STRIPE_SIZE) {
+        final int index = stripes.getAndIncrement();
+        if (index < 0 || index >= MAX_STRIPES) {
+          // Keep failing instead of wrapping around to reused stripes
+          stripes.set(MAX_STRIPES);
+          throw new IllegalStateException("Identity stripes exhausted");
+        }
+        base = (long) index << COUNTER_BITS;
+        count = 0;
+      }
+      // Scramble with a random salt, which keeps the identities unique
+      return salt ^ (base | count++);
+    }
+  }
+}
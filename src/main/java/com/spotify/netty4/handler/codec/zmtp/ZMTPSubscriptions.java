@@ -0,0 +1,311 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkArgument;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPUtils.checkNotNull;
+
+/**
+ * An index of topic prefix subscriptions, matching topics against the prefixes of all subscribers
+ * in time proportional to the topic length rather than the number of subscribers.
+ *
+ * Subscribers are identified by small non-negative integers. The index is a byte trie where every
+ * node holds a bitset of the subscribers whose prefix ends at that node. Matching walks the topic
+ * down the trie and collects the subscribers of every node on the way.
+ *
+ * The trie is immutable. Subscribing and unsubscribing copy the path to the changed node and swap
+ * the root, so matching never locks and can run concurrently with updates from any thread. Updates
+ * are serialized, which is fine as subscriptions change rarely compared to how often topics are
+ * matched. Subscriptions are counted, i.e. a prefix subscribed twice by the same subscriber must be
+ * unsubscribed twice.
+ */
+public class ZMTPSubscriptions {
+
+  private static final byte[] NO_KEYS = new byte[0];
+  private static final Node[] NO_CHILDREN = new Node[0];
+  private static final long[] NO_SUBSCRIBERS = new long[0];
+  private static final Node EMPTY = new Node(NO_KEYS, NO_CHILDREN, NO_SUBSCRIBERS);
+
+  private volatile Node root = EMPTY;
+
+  /**
+   * The subscription counts per subscriber and prefix. Only accessed while synchronized.
+   */
+  private final Map<Integer, Map<ByteBuffer, Integer>> counts =
+      new HashMap<Integer, Map<ByteBuffer, Integer>>();
+
+  /**
+   * Subscribe to a topic prefix. The empty prefix matches all topics.
+   *
+   * @return true if the subscriber was not already subscribed to the prefix.
+   */
+  public synchronized boolean subscribe(final int subscriber, final ByteBuffer prefix) {
+    checkArgument(subscriber >= 0, "subscriber must not be negative: %d", subscriber);
+    checkNotNull(prefix, "prefix");
+    Map<ByteBuffer, Integer> prefixes = counts.get(subscriber);
+    if (prefixes == null) {
+      prefixes = new HashMap<ByteBuffer, Integer>();
+      counts.put(subscriber, prefixes);
+    }
+    final Integer count = prefixes.get(prefix);
+    if (count != null) {
+      prefixes.put(prefix, count + 1);
+      return false;
+    }
+    final byte[] bytes = bytes(prefix);
+    prefixes.put(ByteBuffer.wrap(bytes), 1);
+    root = update(root, bytes, subscriber, true);
+    return true;
+  }
+
+  /**
+   * Cancel a subscription to a topic prefix.
+   *
+   * @return true if the subscriber is no longer subscribed to the prefix.
+   */
+  public synchronized boolean unsubscribe(final int subscriber, final ByteBuffer prefix) {
+    checkNotNull(prefix, "prefix");
+    final Map<ByteBuffer, Integer> prefixes = counts.get(subscriber);
+    final Integer count = (prefixes == null) ? null : prefixes.get(prefix);
+    if (count == null) {
+      return false;
+    }
+    if (count > 1) {
+      prefixes.put(prefix, count - 1);
+      return false;
+    }
+    prefixes.remove(prefix);
+    if (prefixes.isEmpty()) {
+      counts.remove(subscriber);
+    }
+    root = update(root, bytes(prefix), subscriber, false);
+    return true;
+  }
+
+  /**
+   * Cancel all subscriptions of a subscriber, e.g. when it disconnects.
+   */
+  public synchronized void unsubscribeAll(final int subscriber) {
+    final Map<ByteBuffer, Integer> prefixes = counts.remove(subscriber);
+    if (prefixes == null) {
+      return;
+    }
+    Node root = this.root;
+    for (final ByteBuffer prefix : prefixes.keySet()) {
+      root = update(root, bytes(prefix), subscriber, false);
+    }
+    this.root = root;
+  }
+
+  /**
+   * Get the distinct prefixes a subscriber is subscribed to.
+   */
+  public synchronized List<ByteBuffer> subscriptions(final int subscriber) {
+    final Map<ByteBuffer, Integer> prefixes = counts.get(subscriber);
+    final List<ByteBuffer> subscriptions = new ArrayList<ByteBuffer>();
+    if (prefixes != null) {
+      for (final ByteBuffer prefix : prefixes.keySet()) {
+        subscriptions.add(prefix.asReadOnlyBuffer());
+      }
+    }
+    return subscriptions;
+  }
+
+  /**
+   * Get the subscribers with a prefix of the readable bytes of a topic.
+   */
+  public BitSet match(final ByteBuf topic) {
+    final BitSet subscribers = new BitSet();
+    Node node = root;
+    final int end = topic.writerIndex();
+    for (int i = topic.readerIndex(); ; i++) {
+      node.addSubscribers(subscribers);
+      if (i == end) {
+        break;
+      }
+      node = node.child(topic.getByte(i));
+      if (node == null) {
+        break;
+      }
+    }
+    return subscribers;
+  }
+
+  /**
+   * Check whether a subscriber has a prefix of the readable bytes of a topic.
+   */
+  public boolean matches(final int subscriber, final ByteBuf topic) {
+    Node node = root;
+    final int end = topic.writerIndex();
+    for (int i = topic.readerIndex(); ; i++) {
+      if (node.hasSubscriber(subscriber)) {
+        return true;
+      }
+      if (i == end) {
+        return false;
+      }
+      node = node.child(topic.getByte(i));
+      if (node == null) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Copy the path from the root to the node of a prefix, setting or clearing a subscriber bit at
+   * the end and pruning nodes left empty.
+   */
+  private static Node update(final Node root, final byte[] prefix, final int subscriber,
+                             final boolean set) {
+    final Node[] path = new Node[prefix.length + 1];
+    Node node = root;
+    int depth = 0;
+    for (; depth < prefix.length && node != null; depth++) {
+      path[depth] = node;
+      node = node.child(prefix[depth]);
+    }
+    if (node == null) {
+      if (!set) {
+        return root;
+      }
+      depth--;
+    } else {
+      path[depth] = node;
+    }
+    for (int i = depth + 1; i <= prefix.length; i++) {
+      path[i] = EMPTY;
+    }
+    Node updated = path[prefix.length].withSubscriber(subscriber, set);
+    for (int i = prefix.length - 1; i >= 0; i--) {
+      updated = path[i].withChild(prefix[i], updated.isEmpty() ? null : updated);
+    }
+    return updated;
+  }
+
+  private static byte[] bytes(final ByteBuffer buffer) {
+    final byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static class Node {
+
+    private final byte[] keys;
+    private final Node[] children;
+    private final long[] subscribers;
+
+    Node(final byte[] keys, final Node[] children, final long[] subscribers) {
+      this.keys = keys;
+      this.children = children;
+      this.subscribers = subscribers;
+    }
+
+    Node child(final byte key) {
+      final int i = Arrays.binarySearch(keys, key);
+      return (i < 0) ? null : children[i];
+    }
+
+    boolean isEmpty() {
+      return children.length == 0 && subscribers.length == 0;
+    }
+
+    boolean hasSubscriber(final int subscriber) {
+      final int word = subscriber >>> 6;
+      return word < subscribers.length && (subscribers[word] & (1L << subscriber)) != 0;
+    }
+
+    void addSubscribers(final BitSet out) {
+      for (int i = 0; i < subscribers.length; i++) {
+        long word = subscribers[i];
+        while (word != 0) {
+          out.set((i << 6) + Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+    }
+
+    /**
+     * Get a copy of this node with a subscriber bit set or cleared. Trailing zero words are
+     * trimmed so that a node without subscribers has an empty bitset.
+     */
+    Node withSubscriber(final int subscriber, final boolean set) {
+      final int word = subscriber >>> 6;
+      long[] subscribers = Arrays.copyOf(this.subscribers,
+                                         Math.max(this.subscribers.length, word + 1));
+      if (set) {
+        subscribers[word] |= 1L << subscriber;
+      } else {
+        subscribers[word] &= ~(1L << subscriber);
+      }
+      int length = subscribers.length;
+      while (length > 0 && subscribers[length - 1] == 0) {
+        length--;
+      }
+      if (length == 0) {
+        subscribers = NO_SUBSCRIBERS;
+      } else if (length < subscribers.length) {
+        subscribers = Arrays.copyOf(subscribers, length);
+      }
+      return new Node(keys, children, subscribers);
+    }
+
+    /**
+     * Get a copy of this node with a child replaced, added or, if null, removed.
+     */
+    Node withChild(final byte key, final Node child) {
+      final int i = Arrays.binarySearch(keys, key);
+      if (i >= 0) {
+        if (child != null) {
+          final Node[] children = this.children.clone();
+          children[i] = child;
+          return new Node(keys, children, subscribers);
+        }
+        final byte[] keys = new byte[this.keys.length - 1];
+        final Node[] children = new Node[this.children.length - 1];
+        System.arraycopy(this.keys, 0, keys, 0, i);
+        System.arraycopy(this.keys, i + 1, keys, i, keys.length - i);
+        System.arraycopy(this.children, 0, children, 0, i);
+        System.arraycopy(this.children, i + 1, children, i, children.length - i);
+        return new Node(keys, children, subscribers);
+      }
+      if (child == null) {
+        return this;
+      }
+      final int insert = -(i + 1);
+      final byte[] keys = new byte[this.keys.length + 1];
+      final Node[] children = new Node[this.children.length + 1];
+      System.arraycopy(this.keys, 0, keys, 0, insert);
+      System.arraycopy(this.keys, insert, keys, insert + 1, this.keys.length - insert);
+      System.arraycopy(this.children, 0, children, 0, insert);
+      System.arraycopy(this.children, insert, children, insert + 1,
+                       this.children.length - insert);
+      keys[insert] = key;
+      children[insert] = child;
+      return new Node(keys, children, subscribers);
+    }
+  }
+}
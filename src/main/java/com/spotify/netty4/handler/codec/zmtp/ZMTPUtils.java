@@ -16,6 +16,8 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import io.netty.buffer.ByteBuf;
+
 import static java.lang.String.format;
 
 class ZMTPUtils {
@@ -32,4 +34,88 @@ class ZMTPUtils {
       throw new IllegalArgumentException(format(message, args));
     }
   }
+
+  /**
+   * Get the maximum number of bytes needed to encode a {@link CharSequence} as UTF-8.
+   */
+  static int utf8MaxLength(final CharSequence s) {
+    return s.length() * 3;
+  }
+
+  /**
+   * Get the exact number of bytes needed to encode a {@link CharSequence} as UTF-8.
+   */
+  static int utf8Length(final CharSequence s) {
+    final int length = s.length();
+    int bytes = length;
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      if (c < 0x80) {
+        continue;
+      }
+      if (c < 0x800) {
+        bytes += 1;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+                 Character.isLowSurrogate(s.charAt(i + 1))) {
+        // Four bytes for the two chars of the pair
+        bytes += 2;
+        i++;
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        // Unpaired surrogates are replaced with '?'
+      } else {
+        bytes += 2;
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Write a {@link CharSequence} as UTF-8 directly to a {@link ByteBuf}, without intermediate
+   * buffers. Unpaired surrogates are replaced with '?', like {@link String#getBytes}.
+   *
+   * @return The number of bytes written.
+   */
+  static int writeUtf8(final ByteBuf buf, final CharSequence s) {
+    final int start = buf.writerIndex();
+    final int length = s.length();
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      if (c < 0x80) {
+        buf.writeByte(c);
+      } else if (c < 0x800) {
+        buf.writeByte(0xc0 | (c >> 6));
+        buf.writeByte(0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length &&
+                 Character.isLowSurrogate(s.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        buf.writeByte(0xf0 | (codePoint >> 18));
+        buf.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+        buf.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+        buf.writeByte(0x80 | (codePoint & 0x3f));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        buf.writeByte('?');
+      } else {
+        buf.writeByte(0xe0 | (c >> 12));
+        buf.writeByte(0x80 | ((c >> 6) & 0x3f));
+        buf.writeByte(0x80 | (c & 0x3f));
+      }
+    }
+    return buf.writerIndex() - start;
+  }
+
+  /**
+   * Write a {@link CharSequence} as US-ASCII directly to a {@link ByteBuf}. Chars outside of
+   * US-ASCII are replaced with '?'.
+   *
+   * @return The number of bytes written.
+   */
+  static int writeAscii(final ByteBuf buf, final CharSequence s) {
+    final int length = s.length();
+    buf.ensureWritable(length);
+    for (int i = 0; i < length; i++) {
+      final char c = s.charAt(i);
+      buf.writeByte(c < 0x80 ? c : '?');
+    }
+    return length;
+  }
 }
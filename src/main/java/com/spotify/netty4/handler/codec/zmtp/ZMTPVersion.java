@@ -23,7 +23,9 @@ import static java.util.Collections.unmodifiableList;
 
 public enum ZMTPVersion {
   ZMTP10(0, true),
-  ZMTP20(1, true);
+  ZMTP20(1, true),
+  ZMTP30(3, true),
+  ZMTP31(3, true);
 
   private final int revision;
   private final boolean supported;
@@ -41,7 +43,8 @@ public enum ZMTPVersion {
     return supported;
   }
 
-  private static final List<ZMTPVersion> SUPPORTED = unmodifiableList(asList(ZMTP10, ZMTP20));
+  private static final List<ZMTPVersion> SUPPORTED = unmodifiableList(
+      asList(ZMTP10, ZMTP20, ZMTP30, ZMTP31));
 
   public static boolean isSupported(final ZMTPVersion version) {
     return SUPPORTED.contains(version);
@@ -35,5 +35,10 @@ interface ZMTPWireFormat {
     long length();
 
     boolean more();
+
+    /**
+     * Whether the last read frame is a command frame. Only ZMTP/3.x has command frames.
+     */
+    boolean command();
   }
 }
@@ -24,6 +24,9 @@ class ZMTPWireFormats {
         return new ZMTP10WireFormat();
       case ZMTP20:
         return new ZMTP20WireFormat();
+      case ZMTP30:
+      case ZMTP31:
+        return new ZMTP30WireFormat();
       default:
         throw new IllegalArgumentException("Unsupported version: " + version);
     }
@@ -16,7 +16,11 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
 
 import static java.lang.Math.min;
 
@@ -26,22 +30,95 @@ import static java.lang.Math.min;
 public class ZMTPWriter {
 
   private final ZMTPWireFormat.Header header;
+  private final int spliceThreshold;
+  private final ZMTPMetrics metrics;
 
   private ByteBuf buf;
   private int frameSize;
   private int headerIndex;
   private int contentIndex;
+  private int pendingFrameSize = -1;
+
+  private final List<ByteBuf> components = new ArrayList<ByteBuf>();
+  private int spliceIndex;
 
   ZMTPWriter(final ZMTPWireFormat wireFormat) {
-    this(wireFormat.header());
+    this(wireFormat, Integer.MAX_VALUE);
+  }
+
+  ZMTPWriter(final ZMTPWireFormat wireFormat, final int spliceThreshold) {
+    this(wireFormat, spliceThreshold, ZMTPMetrics.NOOP);
+  }
+
+  ZMTPWriter(final ZMTPWireFormat wireFormat, final int spliceThreshold,
+             final ZMTPMetrics metrics) {
+    this(wireFormat.header(), spliceThreshold, metrics);
   }
 
   ZMTPWriter(final ZMTPWireFormat.Header header) {
+    this(header, Integer.MAX_VALUE);
+  }
+
+  ZMTPWriter(final ZMTPWireFormat.Header header, final int spliceThreshold) {
+    this(header, spliceThreshold, ZMTPMetrics.NOOP);
+  }
+
+  ZMTPWriter(final ZMTPWireFormat.Header header, final int spliceThreshold,
+             final ZMTPMetrics metrics) {
     this.header = header;
+    this.spliceThreshold = spliceThreshold;
+    this.metrics = metrics;
   }
 
   void reset(final ByteBuf buf) {
     this.buf = buf;
+    this.components.clear();
+    this.spliceIndex = buf.writerIndex();
+    this.pendingFrameSize = -1;
+  }
+
+  /**
+   * Finish writing and get the output. This is the buffer passed to {@link #reset} unless frames
+   * were spliced, in which case a {@link CompositeByteBuf} made up of slices of that buffer and the
+   * spliced frame content is returned. The reference to the buffer passed to {@link #reset} is
+   * transferred to the returned buffer.
+   */
+  ByteBuf finish() {
+    frameWritten();
+    if (components.isEmpty()) {
+      return buf;
+    }
+    addPending();
+    buf.release();
+    final CompositeByteBuf output = buf.alloc().compositeBuffer(Integer.MAX_VALUE);
+    output.addComponents(components);
+    output.writerIndex(output.capacity());
+    components.clear();
+    return output;
+  }
+
+  /**
+   * Finish writing and add the output to a list of buffers. Unlike {@link #finish()}, the buffer
+   * passed to {@link #reset} and the spliced frame content are not gathered into a {@link
+   * CompositeByteBuf} but added separately, in order, for a gathering write.
+   *
+   * @return The number of bytes written.
+   */
+  int finish(final List<ByteBuf> out) {
+    frameWritten();
+    if (components.isEmpty()) {
+      out.add(buf);
+      return buf.readableBytes();
+    }
+    addPending();
+    buf.release();
+    int size = 0;
+    for (final ByteBuf component : components) {
+      size += component.readableBytes();
+    }
+    out.addAll(components);
+    components.clear();
+    return size;
   }
 
   /**
@@ -52,6 +129,8 @@ public class ZMTPWriter {
    * @return A {@link ByteBuf} for writing the frame payload.
    */
   public ByteBuf frame(final int size, final boolean more) {
+    frameWritten();
+    pendingFrameSize = size;
     frameSize = size;
     headerIndex = buf.writerIndex();
     header.set(size, size, more);
@@ -85,12 +164,92 @@ public class ZMTPWriter {
     }
     final int newIndex = contentIndex + min(written, size);
     buf.writerIndex(headerIndex);
+    pendingFrameSize = size;
     header.set(frameSize, size, more);
     header.write(buf);
     buf.writerIndex(newIndex);
     return buf;
   }
 
+  /**
+   * Write a complete ZMTP frame. The content is copied unless it is at least as large as the splice
+   * threshold of this writer, in which case a retained slice of it is spliced into the output
+   * without copying. The {@link ByteBuf#readerIndex()} of {@code content} is not modified.
+   *
+   * @param content The frame payload.
+   * @param more    true if more frames will be written, false if this is the last frame.
+   */
+  public void frame(final ByteBuf content, final boolean more) {
+    final int size = content.readableBytes();
+    final ByteBuf dst = frame(size, more);
+    if (size < spliceThreshold) {
+      dst.writeBytes(content, content.readerIndex(), size);
+      return;
+    }
+    splice(content);
+  }
+
+  /**
+   * Write a complete ZMTP frame with the UTF-8 encoding of a {@link CharSequence} as payload. The
+   * payload is encoded directly into the output, using an upper bound of the encoded size for the
+   * header, which is then rewritten using {@link #reframe} with the actual size.
+   *
+   * @param s    The frame payload.
+   * @param more true if more frames will be written, false if this is the last frame.
+   */
+  public void writeUtf8Frame(final CharSequence s, final boolean more) {
+    final int maxSize = ZMTPUtils.utf8MaxLength(s);
+    final int size = ZMTPUtils.writeUtf8(frame(maxSize, more), s);
+    if (size != maxSize) {
+      reframe(size, more);
+    }
+  }
+
+  /**
+   * Write the already encoded frames of a {@link ZMTPEncodedMessage}. They are always spliced,
+   * regardless of the splice threshold, as the encoded content is shared by all channels the
+   * message is written to.
+   */
+  void encoded(final ByteBuf content) {
+    frameWritten();
+    splice(content);
+  }
+
+  /**
+   * Write a ZMTP/3.x command frame.
+   */
+  void command(final ZMTPCommand command) {
+    frameWritten();
+    ZMTP30WireFormat.writeCommand(buf, command);
+  }
+
+  /**
+   * Report the frame being written, if any, now that its final size is known. Frames may be
+   * resized by {@link #reframe} until the next frame is started or the output is finished.
+   */
+  private void frameWritten() {
+    if (pendingFrameSize >= 0) {
+      metrics.frameSent(pendingFrameSize);
+      pendingFrameSize = -1;
+    }
+  }
+
+  private void splice(final ByteBuf content) {
+    addPending();
+    components.add(content.slice().retain());
+  }
+
+  /**
+   * Add the bytes written to the buffer since the last splice as a component of the output.
+   */
+  private void addPending() {
+    final int length = buf.writerIndex() - spliceIndex;
+    if (length > 0) {
+      components.add(buf.slice(spliceIndex, length).retain());
+      spliceIndex = buf.writerIndex();
+    }
+  }
+
   static ZMTPWriter create(final ZMTPVersion version) {
     return new ZMTPWriter(ZMTPWireFormats.wireFormat(version));
   }
@@ -16,6 +16,7 @@
 
 package com.spotify.netty4.util;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.netty.channel.Channel;
@@ -25,29 +26,68 @@ import io.netty.channel.EventLoop;
  * A helper for doing opportunistic batching of netty channel flushes, allowing for a gathering
  * write to an underlying {@link java.nio.channels.GatheringByteChannel}, collapsing multiple writes
  * into fewer syscalls.
+ *
+ * <p>The flusher adapts to load. While writes are sparse, pending writes are flushed as soon as the
+ * event loop has run the outstanding write tasks. When the observed write rate fills batches, the
+ * flusher lingers: it uses the event loop scheduler to delay the flush by at most the configured
+ * latency budget and grows the batch size, up to {@code maxPending}. A batch that is still
+ * incomplete when the budget runs out is force flushed and the batch size shrinks to match the
+ * observed rate. While the channel is not writable the batch size is kept at its maximum.
+ *
+ * <p>Writes may be flushed from the event loop as well as from other threads. The counters are
+ * updated on the event loop and may be read from any thread.
  */
 public class BatchFlusher {
 
   private static final int DEFAULT_MAX_PENDING = 64;
+  private static final long DEFAULT_LATENCY_BUDGET_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private static final AtomicIntegerFieldUpdater<BatchFlusher> WOKEN =
+      AtomicIntegerFieldUpdater.newUpdater(BatchFlusher.class, "woken");
+  private static final AtomicIntegerFieldUpdater<BatchFlusher> EXTERNAL =
+      AtomicIntegerFieldUpdater.newUpdater(BatchFlusher.class, "external");
 
   private final Channel channel;
   private final EventLoop eventLoop;
   private final int maxPending;
+  private final long latencyBudgetNanos;
 
-  private final AtomicIntegerFieldUpdater<BatchFlusher> WOKEN =
-      AtomicIntegerFieldUpdater.newUpdater(BatchFlusher.class, "woken");
   @SuppressWarnings("UnusedDeclaration") private volatile int woken;
+  @SuppressWarnings("UnusedDeclaration") private volatile int external;
 
+  // Only accessed on the event loop
   private int pending;
+  private int batchSize;
+  private boolean open;
+  private boolean armed;
+  private boolean lingering;
+  private long batchStart;
+
+  // Written on the event loop only
+  private volatile long flushes;
+  private volatile long forcedFlushes;
+  private volatile long flushedWrites;
 
   /**
-   * Used to flush all outstanding writes in the outbound channel buffer.
+   * Used to flush the current batch once the event loop has run the outstanding write tasks, or
+   * once the latency budget of a lingering batch runs out.
    */
   private final Runnable flush = new Runnable() {
     @Override
     public void run() {
-      pending = 0;
-      channel.flush();
+      armed = false;
+      if (!open) {
+        return;
+      }
+      if (lingering) {
+        final long remaining = latencyBudgetNanos - (System.nanoTime() - batchStart);
+        if (remaining > 0) {
+          // A stale deadline from a batch that was already flushed
+          arm(remaining);
+          return;
+        }
+      }
+      flushBatch(lingering);
     }
   };
 
@@ -60,7 +100,7 @@ public class BatchFlusher {
     @Override
     public void run() {
       woken = 0;
-      eventLoop.execute(flush);
+      begin();
     }
   };
 
@@ -69,9 +109,28 @@ public class BatchFlusher {
   }
 
   public BatchFlusher(final Channel channel, final int maxPending) {
+    this(channel, maxPending, DEFAULT_LATENCY_BUDGET_NANOS, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param channel       The channel to flush.
+   * @param maxPending    The maximum number of writes to gather into a single flush.
+   * @param latencyBudget The maximum time to delay a flush while gathering writes.
+   * @param unit          The unit of {@code latencyBudget}.
+   */
+  public BatchFlusher(final Channel channel, final int maxPending, final long latencyBudget,
+                      final TimeUnit unit) {
+    if (maxPending < 1) {
+      throw new IllegalArgumentException("maxPending must be positive: " + maxPending);
+    }
+    if (latencyBudget < 0) {
+      throw new IllegalArgumentException("latencyBudget must not be negative: " + latencyBudget);
+    }
     this.channel = channel;
     this.maxPending = maxPending;
+    this.latencyBudgetNanos = unit.toNanos(latencyBudget);
     this.eventLoop = channel.eventLoop();
+    this.batchSize = maxPending;
   }
 
   /**
@@ -80,14 +139,99 @@ public class BatchFlusher {
   public void flush() {
     if (eventLoop.inEventLoop()) {
       pending++;
-      if (pending >= maxPending) {
-        pending = 0;
-        channel.flush();
+      begin();
+      if (pending >= (lingering ? batchSize : maxPending)) {
+        flushBatch(false);
+      } else if (lingering && System.nanoTime() - batchStart >= latencyBudgetNanos) {
+        flushBatch(true);
+      }
+    } else {
+      EXTERNAL.incrementAndGet(this);
+      if (woken == 0 && WOKEN.compareAndSet(this, 0, 1)) {
+        eventLoop.execute(wakeup);
+      }
+    }
+  }
+
+  /**
+   * @return The number of flushes performed.
+   */
+  public long flushes() {
+    return flushes;
+  }
+
+  /**
+   * @return The number of flushes forced by the latency budget running out before the batch was
+   * complete.
+   */
+  public long forcedFlushes() {
+    return forcedFlushes;
+  }
+
+  /**
+   * @return The average number of writes gathered into a flush.
+   */
+  public double averageBatchSize() {
+    final long flushes = this.flushes;
+    return flushes == 0 ? 0 : (double) flushedWrites / flushes;
+  }
+
+  /**
+   * Open a batch, if not already open, and make sure that a flush is pending for it.
+   */
+  private void begin() {
+    if (!open) {
+      open = true;
+      if (lingering) {
+        batchStart = System.nanoTime();
       }
     }
-    if (woken == 0 && WOKEN.compareAndSet(this, 0, 1)) {
-      woken = 1;
-      eventLoop.execute(wakeup);
+    if (!armed) {
+      arm(lingering ? latencyBudgetNanos : 0);
+    }
+  }
+
+  private void arm(final long delayNanos) {
+    armed = true;
+    if (delayNanos > 0) {
+      eventLoop.schedule(flush, delayNanos, TimeUnit.NANOSECONDS);
+    } else {
+      eventLoop.execute(flush);
+    }
+  }
+
+  private void flushBatch(final boolean forced) {
+    final int n = pending + EXTERNAL.getAndSet(this, 0);
+    pending = 0;
+    open = false;
+    channel.flush();
+    flushes++;
+    flushedWrites += n;
+    if (forced) {
+      forcedFlushes++;
+    }
+    adapt(n, forced);
+  }
+
+  /**
+   * Tune the batch size and lingering from the number of writes gathered by the last flush.
+   */
+  private void adapt(final int n, final boolean forced) {
+    if (!channel.isWritable()) {
+      // The socket is backed up, gather as much as possible until it drains.
+      batchSize = maxPending;
+      lingering = latencyBudgetNanos > 0;
+    } else if (forced) {
+      // The rate did not fill the batch within the budget.
+      batchSize = Math.max(2, n);
+      lingering = n > 1;
+    } else if (lingering) {
+      // The batch filled up within the budget.
+      batchSize = Math.min(maxPending, batchSize * 2);
+    } else if (n > 1 && latencyBudgetNanos > 0) {
+      // Several writes were gathered during a single turn of the event loop.
+      batchSize = Math.min(maxPending, n * 2);
+      lingering = true;
     }
   }
-}
\ No newline at end of file
+}
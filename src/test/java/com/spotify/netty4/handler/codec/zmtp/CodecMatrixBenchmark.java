@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.ReferenceCountUtil;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+
+/**
+ * Encoding and decoding across protocol versions, frame counts, frame sizes and allocators. Decoding
+ * is measured both for whole input and for input arriving in fragments.
+ *
+ * The full matrix takes a long time to run. Restrict it using e.g. {@code -p version=ZMTP20}.
+ */
+@State(Scope.Benchmark)
+public class CodecMatrixBenchmark {
+
+  /**
+   * The number of segments the input is cut into. All {@code 2^(SEGMENTS-1)} ways of fragmenting
+   * the input along segment boundaries are cycled through when decoding fragmented input.
+   */
+  private static final int SEGMENTS = 4;
+
+  @Param({"ZMTP10", "ZMTP20", "ZMTP30"})
+  public ZMTPVersion version;
+
+  @Param({"1", "4", "16"})
+  public int frames;
+
+  @Param({"0", "64", "1024", "65536", "1048576", "16777216"})
+  public int frameSize;
+
+  @Param({"heap", "direct", "pooled"})
+  public String allocator;
+
+  private final List<Object> out = new ArrayList<Object>();
+  private final ZMTPMessageEncoder encoder = new ZMTPMessageEncoder();
+
+  private ByteBufAllocator alloc;
+  private ZMTPMessage message;
+  private ByteBuf incoming;
+  private ZMTPEstimator estimator;
+  private ZMTPWriter writer;
+  private ZMTPFramingDecoder decoder;
+  private List<int[]> fragmentations;
+  private int fragmentation;
+
+  @Setup
+  public void setUp() throws Exception {
+    alloc = allocator(allocator);
+    final ByteBuf[] content = new ByteBuf[frames];
+    for (int i = 0; i < frames; i++) {
+      content[i] = alloc.buffer(frameSize).writeZero(frameSize);
+    }
+    message = ZMTPMessage.from(content);
+    incoming = message.write(alloc, version);
+    estimator = new ZMTPEstimator(wireFormat(version));
+    writer = new ZMTPWriter(wireFormat(version));
+    decoder = new ZMTPFramingDecoder(wireFormat(version), new ZMTPMessageDecoder());
+
+    // Precompute the fragmentations of the input
+    final int length = incoming.readableBytes();
+    final int segments = Math.min(SEGMENTS, Math.max(1, length));
+    fragmentations = new ArrayList<int[]>();
+    new Fragmenter(segments).fragment(new Fragmenter.Consumer() {
+      @Override
+      public void fragments(final int[] limits, final int count) {
+        final int[] offsets = new int[count];
+        for (int i = 0; i < count; i++) {
+          offsets[i] = (int) ((long) length * limits[i] / segments);
+        }
+        fragmentations.add(offsets);
+      }
+    });
+  }
+
+  @TearDown
+  public void tearDown() {
+    message.release();
+    incoming.release();
+  }
+
+  @Benchmark
+  public int encode() {
+    estimator.reset();
+    encoder.estimate(message, estimator);
+    writer.reset(alloc.buffer(estimator.size()));
+    encoder.encode(message, writer);
+    final ByteBuf output = writer.finish();
+    final int size = output.readableBytes();
+    output.release();
+    return size;
+  }
+
+  @Benchmark
+  public void decode(final Blackhole bh) throws ZMTPParsingException {
+    decoder.decode(null, incoming.resetReaderIndex(), out);
+    consumeAndRelease(bh);
+  }
+
+  @Benchmark
+  public void decodeFragmented(final Blackhole bh) throws ZMTPParsingException {
+    final int[] offsets = fragmentations.get(fragmentation);
+    fragmentation = (fragmentation + 1) % fragmentations.size();
+    final int writerIndex = incoming.writerIndex();
+    incoming.resetReaderIndex();
+    for (final int offset : offsets) {
+      incoming.writerIndex(offset);
+      decoder.decode(null, incoming, out);
+    }
+    incoming.writerIndex(writerIndex);
+    consumeAndRelease(bh);
+  }
+
+  @SuppressWarnings("ForLoopReplaceableByForEach")
+  private void consumeAndRelease(final Blackhole bh) {
+    for (int i = 0; i < out.size(); i++) {
+      final Object o = out.get(i);
+      bh.consume(o);
+      ReferenceCountUtil.release(o);
+    }
+    out.clear();
+  }
+
+  static ByteBufAllocator allocator(final String name) {
+    if (name.equals("heap")) {
+      return new UnpooledByteBufAllocator(false);
+    } else if (name.equals("direct")) {
+      return new UnpooledByteBufAllocator(true);
+    } else if (name.equals("pooled")) {
+      return PooledByteBufAllocator.DEFAULT;
+    }
+    throw new IllegalArgumentException("Unknown allocator: " + name + ", expected one of " +
+                                       Arrays.asList("heap", "direct", "pooled"));
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(CodecMatrixBenchmark.class.getSimpleName())
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-codec-matrix.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
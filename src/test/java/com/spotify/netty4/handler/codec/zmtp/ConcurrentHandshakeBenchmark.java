@@ -0,0 +1,129 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+
+/**
+ * Measures the time for many clients to connect and complete the handshake at once, with a
+ * listener on the handshake future of every connection on both ends, as in a mass reconnect.
+ */
+@State(Scope.Benchmark)
+public class ConcurrentHandshakeBenchmark {
+
+  @Param({"1000"})
+  public int connections;
+
+  private final Transport transport = Transport.current();
+
+  private EventLoopGroup group;
+  private Channel server;
+  private volatile CountDownLatch handshakes;
+
+  private final GenericFutureListener<Future<ZMTPHandshake>> listener =
+      new GenericFutureListener<Future<ZMTPHandshake>>() {
+        @Override
+        public void operationComplete(final Future<ZMTPHandshake> future) {
+          handshakes.countDown();
+        }
+      };
+
+  @Setup
+  public void setUp() throws InterruptedException {
+    group = transport.group(0);
+    server = transport.configure(new ServerBootstrap())
+        .group(group)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            final ZMTPCodec codec = ZMTPCodec.of(ROUTER);
+            codec.session().handshakeFuture().addListener(listener);
+            ch.pipeline().addLast(codec);
+          }
+        })
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    server.close().sync();
+    group.shutdownGracefully().sync();
+  }
+
+  @Benchmark
+  public void handshakes() throws InterruptedException {
+    handshakes = new CountDownLatch(connections * 2);
+    final Bootstrap bootstrap = transport.configure(new Bootstrap())
+        .group(group)
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            final ZMTPCodec codec = ZMTPCodec.of(DEALER);
+            codec.session().handshakeFuture().addListener(listener);
+            ch.pipeline().addLast(codec);
+          }
+        });
+    final List<Channel> clients = new ArrayList<Channel>(connections);
+    for (int i = 0; i < connections; i++) {
+      clients.add(bootstrap.connect(server.localAddress()).channel());
+    }
+    handshakes.await();
+    for (final Channel client : clients) {
+      client.close();
+    }
+    for (final Channel client : clients) {
+      client.closeFuture().sync();
+    }
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(ConcurrentHandshakeBenchmark.class.getSimpleName())
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-concurrent-handshake.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -31,13 +31,12 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.ReferenceCountUtil;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP30;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP31;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -49,15 +48,16 @@ import static org.junit.Assert.assertThat;
 public class EndToEndTest {
 
   private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
+  private static final Transport TRANSPORT = Transport.current();
 
   private Channel bind(final SocketAddress address, final ChannelHandler codec,
                        final ChannelHandler handler) {
     final ServerBootstrap bootstrap = new ServerBootstrap();
-    bootstrap.group(new NioEventLoopGroup(1), new NioEventLoopGroup());
-    bootstrap.channel(NioServerSocketChannel.class);
-    bootstrap.childHandler(new ChannelInitializer<NioSocketChannel>() {
+    bootstrap.group(TRANSPORT.group(1), TRANSPORT.group(0));
+    TRANSPORT.configure(bootstrap);
+    bootstrap.childHandler(new ChannelInitializer<Channel>() {
       @Override
-      protected void initChannel(final NioSocketChannel ch) throws Exception {
+      protected void initChannel(final Channel ch) throws Exception {
         ch.pipeline().addLast(codec, handler);
       }
     });
@@ -67,11 +67,11 @@ public class EndToEndTest {
   private Channel connect(final SocketAddress address, final ChannelHandler codec,
                           final ChannelHandler handler) {
     final Bootstrap bootstrap = new Bootstrap();
-    bootstrap.group(new NioEventLoopGroup());
-    bootstrap.channel(NioSocketChannel.class);
-    bootstrap.handler(new ChannelInitializer<NioSocketChannel>() {
+    bootstrap.group(TRANSPORT.group(0));
+    TRANSPORT.configure(bootstrap);
+    bootstrap.handler(new ChannelInitializer<Channel>() {
       @Override
-      protected void initChannel(final NioSocketChannel ch) throws Exception {
+      protected void initChannel(final Channel ch) throws Exception {
         ch.pipeline().addLast(codec, handler);
       }
     });
@@ -183,6 +183,143 @@ public class EndToEndTest {
     testRequestReply(server, client);
   }
 
+  @Test
+  public void test_ZMTP30_Interop_Router_VS_ZMTP30_Interop_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(true)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(true)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP30_NoInterop_Router_VS_ZMTP30_NoInterop_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(false)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(false)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP31_NoInterop_Router_VS_ZMTP30_NoInterop_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP31)
+        .interop(false)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(false)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP31_Interop_Router_VS_ZMTP31_Interop_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP31)
+        .interop(true)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP31)
+        .interop(true)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP30_Interop_Router_VS_ZMTP20_Interop_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(true)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP20)
+        .interop(true)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP20_Interop_Router_VS_ZMTP30_Interop_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP20)
+        .interop(true)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(true)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP30_Interop_Router_VS_ZMTP10_Dealer() throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .interop(true)
+        .socketType(ROUTER)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP10)
+        .socketType(DEALER)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
+  @Test
+  public void test_ZMTP31_Heartbeat_Router_VS_ZMTP31_Heartbeat_Dealer()
+      throws InterruptedException {
+    final ZMTPCodec server = ZMTPCodec.builder()
+        .protocol(ZMTP31)
+        .socketType(ROUTER)
+        .heartbeatInterval(10)
+        .heartbeatTtl(1000)
+        .build();
+
+    final ZMTPCodec client = ZMTPCodec.builder()
+        .protocol(ZMTP31)
+        .socketType(DEALER)
+        .heartbeatInterval(10)
+        .build();
+
+    testRequestReply(server, client);
+  }
+
   private static class Handler extends ChannelInboundHandlerAdapter {
 
     private final BlockingQueue<Channel> connected = Queues.newLinkedBlockingQueue();
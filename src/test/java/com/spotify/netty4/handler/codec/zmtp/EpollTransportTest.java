@@ -0,0 +1,210 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.experimental.theories.DataPoints;
+import org.junit.experimental.theories.Theories;
+import org.junit.experimental.theories.Theory;
+import org.junit.runner.RunWith;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP10;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP30;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+import static io.netty.util.CharsetUtil.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs the codec over the native epoll transport in both edge-triggered and level-triggered mode.
+ * In edge-triggered mode the decoder only gets one notification for data that may take several
+ * reads to drain, so these tests send messages that span many reads and many messages per read.
+ */
+@RunWith(Theories.class)
+public class EpollTransportTest {
+
+  private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
+
+  @DataPoints
+  public static final EpollMode[] MODES = EpollMode.values();
+
+  @DataPoints
+  public static final ZMTPProtocol[] PROTOCOLS = {ZMTP10, ZMTP20, ZMTP30};
+
+  private EventLoopGroup group;
+  private Channel server;
+  private Channel client;
+
+  @BeforeClass
+  public static void checkEpoll() {
+    assumeTrue(Transport.EPOLL.isAvailable());
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (client != null) {
+      client.close().await();
+    }
+    if (server != null) {
+      server.close().await();
+    }
+    if (group != null) {
+      group.shutdownGracefully(0, 0, SECONDS).await();
+    }
+  }
+
+  @Theory
+  public void testLargeMessage(final EpollMode mode, final ZMTPProtocol protocol)
+      throws InterruptedException {
+    final Handler handler = connect(mode, protocol);
+
+    // A message much larger than the receive buffer, so it takes many reads
+    final ZMTPMessage message = ZMTPMessage.from(new ByteBuf[]{
+        frame(1024 * 1024, 'a'), frame(0, 'b'), frame(128 * 1024, 'c')});
+    client.writeAndFlush(message.retain());
+
+    final ZMTPMessage received = handler.messages.poll(10, SECONDS);
+    assertThat(received, is(notNullValue()));
+    assertThat(received, is(message));
+    received.release();
+    message.release();
+  }
+
+  @Theory
+  public void testManyMessages(final EpollMode mode, final ZMTPProtocol protocol)
+      throws InterruptedException {
+    final Handler handler = connect(mode, protocol);
+
+    // Many small messages flushed at once, so each read holds many messages
+    final int n = 10000;
+    for (int i = 0; i < n; i++) {
+      client.write(ZMTPMessage.fromUTF8("", String.valueOf(i)));
+    }
+    client.flush();
+
+    for (int i = 0; i < n; i++) {
+      final ZMTPMessage received = handler.messages.poll(10, SECONDS);
+      assertThat(received, is(notNullValue()));
+      assertThat(received.frame(1).toString(UTF_8), is(String.valueOf(i)));
+      received.release();
+    }
+  }
+
+  private Handler connect(final EpollMode mode, final ZMTPProtocol protocol)
+      throws InterruptedException {
+    group = new EpollEventLoopGroup(2);
+    final Handler handler = new Handler();
+    server = new ServerBootstrap()
+        .group(group)
+        .channel(EpollServerSocketChannel.class)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .childOption(ChannelOption.TCP_NODELAY, true)
+        .childOption(ChannelOption.SO_RCVBUF, 16 * 1024)
+        .childOption(EpollChannelOption.EPOLL_MODE, mode)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            ch.pipeline().addLast(ZMTPCodec.builder()
+                                      .protocol(protocol)
+                                      .socketType(ROUTER)
+                                      .build());
+            ch.pipeline().addLast(handler);
+          }
+        })
+        .bind(ANY_PORT).sync().channel();
+    final CountDownLatch handshake = new CountDownLatch(1);
+    client = new Bootstrap()
+        .group(group)
+        .channel(EpollSocketChannel.class)
+        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .option(ChannelOption.TCP_NODELAY, true)
+        .option(EpollChannelOption.EPOLL_MODE, mode)
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            ch.pipeline().addLast(ZMTPCodec.builder()
+                                      .protocol(protocol)
+                                      .socketType(DEALER)
+                                      .build());
+            ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+              @Override
+              public void userEventTriggered(final ChannelHandlerContext ctx, final Object evt) {
+                if (evt instanceof ZMTPHandshakeSuccess) {
+                  handshake.countDown();
+                }
+              }
+            });
+          }
+        })
+        .connect(server.localAddress()).sync().channel();
+
+    // Messages written before the handshake completes would bypass the codec
+    assertThat(handshake.await(10, SECONDS), is(true));
+    return handler;
+  }
+
+  private static ByteBuf frame(final int size, final char c) {
+    final ByteBuf frame = Unpooled.buffer(size);
+    for (int i = 0; i < size; i++) {
+      frame.writeByte(c);
+    }
+    return frame;
+  }
+
+  private static class Handler extends ChannelInboundHandlerAdapter {
+
+    private final BlockingQueue<ZMTPMessage> messages = new LinkedBlockingQueue<ZMTPMessage>();
+
+    @Override
+    public boolean isSharable() {
+      return true;
+    }
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+      messages.put((ZMTPMessage) msg);
+    }
+  }
+}
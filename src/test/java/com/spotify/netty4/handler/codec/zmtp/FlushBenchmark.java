@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+
+/**
+ * Measures the write and flush path of {@link ZMTPFramingEncoder}. Run with the GC profiler, e.g.
+ * {@code -prof gc}, to verify that flushing does not allocate beyond the output buffer.
+ */
+@State(Scope.Benchmark)
+public class FlushBenchmark {
+
+  @Param({"1", "16"})
+  public int messagesPerFlush;
+
+  @Param({"void", "new"})
+  public String promise;
+
+  private EmbeddedChannel channel;
+  private ZMTPMessage message;
+
+  @Setup
+  public void setUp() {
+    channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTP20), new ZMTPMessageEncoder()));
+    channel.config().setOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+    message = ZMTPMessage.fromUTF8(PooledByteBufAllocator.DEFAULT, "id", "", "hello", "world");
+  }
+
+  @TearDown
+  public void tearDown() {
+    channel.finish();
+    message.release();
+  }
+
+  @Benchmark
+  public int flush() {
+    final boolean newPromise = promise.equals("new");
+    for (int i = 0; i < messagesPerFlush; i++) {
+      final ChannelPromise p = newPromise ? channel.newPromise() : channel.voidPromise();
+      channel.write(message.retain(), p);
+    }
+    channel.flush();
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    final int size = output.readableBytes();
+    output.release();
+    return size;
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(FlushBenchmark.class.getSimpleName())
+        .forks(1)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-flush.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,109 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+
+/**
+ * Measures the CPU cost of a handshake storm: complete handshakes between pairs of in-memory
+ * channels, with the greetings delivered in fragments as when many peers reconnect at once and
+ * their greetings arrive split over several reads. Fragmented greetings used to be parsed again
+ * from the start on every read.
+ */
+@State(Scope.Benchmark)
+public class HandshakeBenchmark {
+
+  @Param({"ZMTP10", "ZMTP20", "ZMTP30"})
+  public String protocol;
+
+  @Param({"false", "true"})
+  public boolean interop;
+
+  @Param({"1", "8", "65536"})
+  public int fragment;
+
+  private ZMTPProtocol zmtpProtocol;
+
+  @Setup
+  public void setUp() throws Exception {
+    zmtpProtocol = (ZMTPProtocol) ZMTPProtocols.class.getField(protocol).get(null);
+  }
+
+  @Benchmark
+  public ZMTPVersion handshake() throws Exception {
+    final ZMTPCodec serverCodec = codec(ROUTER);
+    final ZMTPCodec clientCodec = codec(DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    final ZMTPSession serverSession = serverCodec.session();
+    final ZMTPSession clientSession = clientCodec.session();
+    while (!serverSession.handshakeFuture().isDone() ||
+           !clientSession.handshakeFuture().isDone()) {
+      shuttle(client, server);
+      shuttle(server, client);
+    }
+    server.finish();
+    client.finish();
+    return serverSession.negotiatedVersion();
+  }
+
+  private ZMTPCodec codec(final ZMTPSocketType socketType) {
+    return ZMTPCodec.builder()
+        .protocol(zmtpProtocol)
+        .interop(interop)
+        .socketType(socketType)
+        .build();
+  }
+
+  private void shuttle(final EmbeddedChannel from, final EmbeddedChannel to) {
+    ByteBuf buf;
+    while ((buf = (ByteBuf) from.readOutbound()) != null) {
+      while (buf.isReadable()) {
+        to.writeInbound(buf.readSlice(Math.min(fragment, buf.readableBytes())).retain());
+      }
+      buf.release();
+    }
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(HandshakeBenchmark.class.getSimpleName())
+        .forks(1)
+        .addProfiler(GCProfiler.class)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-handshake.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
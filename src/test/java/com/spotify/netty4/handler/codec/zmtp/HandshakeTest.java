@@ -13,12 +13,15 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
 import static com.spotify.netty4.handler.codec.zmtp.Buffers.buf;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.PUB;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.REQ;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.SUB;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP30;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP31;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.notNullValue;
@@ -111,12 +114,10 @@ public class HandshakeTest {
     ZMTPHandshaker h = new ZMTP20Protocol.Handshaker(PUB, FOO, false);
     assertThat(h.greeting(), is(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0, 0x7f, 0x1, 0x1, 0, 0x3, 0x66, 0x6f, 0x6f)));
 
-    try {
-      h.handshake(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x4, 0x7f), ctx);
-      fail("not enough data in greeting (because compat mode) should have thrown exception");
-    } catch (IndexOutOfBoundsException e) {
-      // expected
-    }
+    // not enough data in greeting (because compat mode), so nothing is consumed
+    final ByteBuf signature = buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x4, 0x7f);
+    assertThat(h.handshake(signature, ctx), is(nullValue()));
+    assertThat(signature.readableBytes(), is(10));
     ZMTPHandshake handshake = h.handshake(
         buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x4, 0x7f, 0x1, 0x1, 0, 0x03, 0x62, 0x61, 0x72), ctx);
     assertThat(handshake, is(notNullValue()));
@@ -156,6 +157,87 @@ public class HandshakeTest {
     verify(ctx).writeAndFlush(buf(1, 1, 0, 8, 0x69, 0x64, 0x65, 0x6e, 0x74, 0x69, 0x74, 0x79));
   }
 
+  @Test
+  public void test3To3Handshake() throws Exception {
+    final ZMTP30Protocol.Handshaker h = new ZMTP30Protocol.Handshaker(DEALER, FOO, false, 1);
+    final ByteBuf greeting = Unpooled.buffer();
+    ZMTP30WireFormat.writeGreeting(greeting, 1);
+    assertThat(h.greeting(), is(greeting));
+    assertThat(greeting.readableBytes(), is(64));
+
+    final ByteBuf remoteGreeting = Unpooled.buffer();
+    ZMTP30WireFormat.writeGreeting(remoteGreeting, 0);
+    assertThat(h.handshake(remoteGreeting, ctx), is(nullValue()));
+    final ByteBuf ready = Unpooled.buffer();
+    ZMTP30WireFormat.writeReady(ready, DEALER, FOO);
+    verify(ctx).writeAndFlush(ready);
+
+    final ByteBuf remoteReady = Unpooled.buffer();
+    ZMTP30WireFormat.writeReady(remoteReady, ROUTER, BAR);
+    final ZMTPHandshake handshake = h.handshake(remoteReady, ctx);
+    verifyNoMoreInteractions(ctx);
+    assertEquals(ZMTPHandshake.of(ZMTP30, BAR, ROUTER), handshake);
+  }
+
+  @Test
+  public void test3HugeReadyRejectedBeforeBody() throws Exception {
+    final ZMTP30Protocol.Handshaker h = new ZMTP30Protocol.Handshaker(DEALER, FOO, false, 1);
+    final ByteBuf remoteGreeting = Unpooled.buffer();
+    ZMTP30WireFormat.writeGreeting(remoteGreeting, 1);
+    assertThat(h.handshake(remoteGreeting, ctx), is(nullValue()));
+
+    // Only the header of a 4GB READY command
+    try {
+      h.handshake(buf(0x06, 0, 0, 0, 1, 0, 0, 0, 0), ctx);
+      fail();
+    } catch (ZMTPParsingException ignore) {
+    }
+  }
+
+  @Test
+  public void test3InteropTo3InteropHandshake() throws Exception {
+    final ZMTP30Protocol.Handshaker h = new ZMTP30Protocol.Handshaker(SUB, FOO, true, 1);
+    assertThat(h.greeting(), is(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x04, 0x7f)));
+    assertThat(h.handshake(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x01, 0x7f), ctx), is(nullValue()));
+    verify(ctx).writeAndFlush(buf(0x03));
+
+    final ByteBuf body = Unpooled.buffer();
+    ZMTP30WireFormat.writeGreetingBody(body, 1);
+    assertThat(h.handshake(buf(0x03), ctx), is(nullValue()));
+    verify(ctx).writeAndFlush(body);
+
+    assertThat(h.handshake(body.copy(), ctx), is(nullValue()));
+    final ByteBuf ready = Unpooled.buffer();
+    ZMTP30WireFormat.writeReady(ready, SUB, FOO);
+    verify(ctx).writeAndFlush(ready);
+
+    final ByteBuf remoteReady = Unpooled.buffer();
+    ZMTP30WireFormat.writeReady(remoteReady, PUB, ZMTPConfig.ANONYMOUS);
+    final ZMTPHandshake handshake = h.handshake(remoteReady, ctx);
+    verifyNoMoreInteractions(ctx);
+    assertEquals(ZMTPHandshake.of(ZMTP31, ZMTPConfig.ANONYMOUS, PUB), handshake);
+  }
+
+  @Test
+  public void test3InteropTo2InteropHandshake() throws Exception {
+    final ZMTP30Protocol.Handshaker h = new ZMTP30Protocol.Handshaker(PUB, FOO, true, 0);
+    assertThat(h.handshake(buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0x04, 0x7f), ctx), is(nullValue()));
+    verify(ctx).writeAndFlush(buf(0x03));
+    assertThat(h.handshake(buf(0x01), ctx), is(nullValue()));
+    verify(ctx).writeAndFlush(buf(0x01, 0x00, 0x03, 0x66, 0x6f, 0x6f));
+    final ZMTPHandshake handshake = h.handshake(buf(0x01, 0x00, 0x03, 0x62, 0x61, 0x72), ctx);
+    verifyNoMoreInteractions(ctx);
+    assertEquals(ZMTPHandshake.of(ZMTP20, BAR, PUB), handshake);
+  }
+
+  @Test
+  public void test3InteropTo1Handshake() throws Exception {
+    final ZMTP30Protocol.Handshaker h = new ZMTP30Protocol.Handshaker(ROUTER, FOO, true, 0);
+    final ZMTPHandshake handshake = h.handshake(buf(0x04, 0x00, 0x62, 0x61, 0x72), ctx);
+    verify(ctx).writeAndFlush(buf(0x66, 0x6f, 0x6f));
+    assertEquals(ZMTPHandshake.of(ZMTP10, BAR, null), handshake);
+  }
+
   @Test
   public void testReadZMTP2Greeting() throws Exception {
     final ByteBuf in = buf(0xff, 0, 0, 0, 0, 0, 0, 0, 0, 0x7f, 0x01, 0x02, 0x00, 0x01, 0x61);
@@ -0,0 +1,68 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compares identity generators under contention from many threads, as when many peers connect
+ * across all event loops at once.
+ */
+@State(Scope.Benchmark)
+@Threads(32)
+public class IdentityGeneratorBenchmark {
+
+  @Param({"long", "striped"})
+  public String generator;
+
+  private ZMTPIdentityGenerator identityGenerator;
+
+  @Setup
+  public void setUp() {
+    identityGenerator = generator.equals("long")
+                        ? new ZMTPLongIdentityGenerator()
+                        : new ZMTPStripedIdentityGenerator();
+  }
+
+  @Benchmark
+  public ByteBuffer generateIdentity() {
+    return identityGenerator.generateIdentity(null);
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(IdentityGeneratorBenchmark.class.getSimpleName())
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-identity-generator.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+
+/**
+ * Simulates a slow consumer that holds on to a sample of the most recently received messages, e.g.
+ * every 100th message, while the rest are released right away. Compares the memory that the held
+ * messages keep alive when frames are sliced from the cumulation buffer and when small frames are
+ * copied, with the merge and composite cumulators.
+ *
+ * Input arrives in reads that do not line up with message boundaries. After each iteration the
+ * buffer memory retained by the held messages is printed, counting every distinct underlying
+ * buffer once.
+ */
+@State(Scope.Benchmark)
+public class RetentionBenchmark {
+
+  private static final double MB = 1024 * 1024;
+
+  @Param({"0", "8"})
+  public int frameCopyRatio;
+
+  @Param({"merge", "composite"})
+  public String cumulator;
+
+  @Param({"100"})
+  public int frameSize;
+
+  @Param({"65000"})
+  public int readSize;
+
+  @Param({"1", "100"})
+  public int sample;
+
+  @Param({"10000"})
+  public int held;
+
+  private final ArrayDeque<ZMTPMessage> messages = new ArrayDeque<ZMTPMessage>();
+
+  private EmbeddedChannel channel;
+  private ByteBuf input;
+  private int offset;
+  private long received;
+
+  @Setup
+  public void setUp() {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageDecoder(false, frameCopyRatio));
+    decoder.setCumulator(cumulator.equals("composite")
+                         ? ByteToMessageDecoder.COMPOSITE_CUMULATOR
+                         : ByteToMessageDecoder.MERGE_CUMULATOR);
+    channel = new EmbeddedChannel(decoder);
+    channel.config().setAllocator(PooledByteBufAllocator.DEFAULT);
+
+    // A stream of two frame messages, at least as long as a read, that is read repeatedly
+    final ZMTPWriter writer = ZMTPWriter.create(ZMTPVersion.ZMTP20);
+    writer.reset(PooledByteBufAllocator.DEFAULT.buffer());
+    for (int size = 0; size < readSize; ) {
+      writer.frame(0, true);
+      writer.frame(frameSize, false).writeZero(frameSize);
+      size += 2 + frameSize;
+    }
+    input = writer.finish();
+  }
+
+  @TearDown
+  public void tearDown() {
+    while (!messages.isEmpty()) {
+      messages.poll().release();
+    }
+    channel.finish();
+    input.release();
+  }
+
+  @TearDown(Level.Iteration)
+  public void endIteration() {
+    final Map<ByteBuf, Boolean> buffers = new IdentityHashMap<ByteBuf, Boolean>();
+    for (final ZMTPMessage message : messages) {
+      for (int i = 0; i < message.size(); i++) {
+        ByteBuf buf = message.frame(i);
+        while (buf.unwrap() != null) {
+          buf = buf.unwrap();
+        }
+        buffers.put(buf, true);
+      }
+    }
+    long retained = 0;
+    for (final ByteBuf buf : buffers.keySet()) {
+      retained += buf.capacity();
+    }
+    System.out.printf("%ncopy ratio %d, %s, 1/%d held: %.1f MB retained by %d messages " +
+                      "(%d bytes each)%n",
+                      frameCopyRatio, cumulator, sample, retained / MB, messages.size(),
+                      retained / Math.max(1, messages.size()));
+  }
+
+  @Benchmark
+  public void receive() {
+    // A fresh buffer per read, like a socket channel, that does not line up with the messages
+    final ByteBuf read = PooledByteBufAllocator.DEFAULT.buffer(readSize);
+    while (read.isWritable()) {
+      final int n = Math.min(read.writableBytes(), input.readableBytes() - offset);
+      read.writeBytes(input, offset, n);
+      offset = (offset + n) % input.readableBytes();
+    }
+    channel.writeInbound(read);
+    ZMTPMessage message;
+    while ((message = (ZMTPMessage) channel.readInbound()) != null) {
+      if (received++ % sample != 0) {
+        message.release();
+        continue;
+      }
+      messages.add(message);
+      if (messages.size() > held) {
+        messages.poll().release();
+      }
+    }
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(RetentionBenchmark.class.getSimpleName())
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-retention.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
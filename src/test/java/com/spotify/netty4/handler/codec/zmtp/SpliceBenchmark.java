@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+
+/**
+ * Compares copying and splicing of frame content when encoding messages of varying frame sizes.
+ */
+@State(Scope.Benchmark)
+public class SpliceBenchmark {
+
+  private static final ByteBufAllocator ALLOC = PooledByteBufAllocator.DEFAULT;
+
+  @Param({"64", "1024", "65536", "1048576", "4194304"})
+  public int frameSize;
+
+  @Param({"copy", "splice"})
+  public String mode;
+
+  private final ZMTPMessageEncoder encoder = new ZMTPMessageEncoder();
+
+  private ZMTPMessage message;
+  private ZMTPEstimator estimator;
+  private ZMTPWriter writer;
+
+  @Setup
+  public void setUp() {
+    final int spliceThreshold = mode.equals("splice") ? 8192 : ZMTPConfig.NO_SPLICING;
+    estimator = new ZMTPEstimator(wireFormat(ZMTP20), spliceThreshold);
+    writer = new ZMTPWriter(wireFormat(ZMTP20), spliceThreshold);
+    final ByteBuf content = ALLOC.directBuffer(frameSize);
+    content.writerIndex(frameSize);
+    message = ZMTPMessage.from(new ByteBuf[]{
+        ALLOC.buffer(9).writeZero(9),
+        ALLOC.buffer(0),
+        content});
+  }
+
+  @TearDown
+  public void tearDown() {
+    message.release();
+  }
+
+  @Benchmark
+  public int encode() {
+    estimator.reset();
+    encoder.estimate(message, estimator);
+    writer.reset(ALLOC.buffer(estimator.size()));
+    encoder.encode(message, writer);
+    final ByteBuf output = writer.finish();
+    final int size = output.readableBytes();
+    output.release();
+    return size;
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(SpliceBenchmark.class.getSimpleName())
+        .forks(1)
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,148 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.internal.PlatformDependent;
+
+/**
+ * The socket transports that tests and benchmarks can run over. The transport is selected using
+ * the {@code zmtp.transport} system property, which the {@code epoll} maven profile sets.
+ */
+public enum Transport {
+
+  NIO {
+    @Override
+    public boolean isAvailable() {
+      return true;
+    }
+
+    @Override
+    public EventLoopGroup group(final int threads) {
+      return new NioEventLoopGroup(threads);
+    }
+
+    @Override
+    public Class<? extends Channel> channel() {
+      return NioSocketChannel.class;
+    }
+
+    @Override
+    public Class<? extends ServerChannel> serverChannel() {
+      return NioServerSocketChannel.class;
+    }
+  },
+
+  /**
+   * The native Linux epoll transport, using edge-triggered reads.
+   */
+  EPOLL {
+    /**
+     * The epoll event loops need {@code sun.misc.Unsafe} to allocate their native buffers, which
+     * netty 4.0 cannot access on all JVMs even where the native library loads.
+     */
+    @Override
+    public boolean isAvailable() {
+      return Epoll.isAvailable() && PlatformDependent.hasUnsafe();
+    }
+
+    @Override
+    public EventLoopGroup group(final int threads) {
+      return new EpollEventLoopGroup(threads);
+    }
+
+    @Override
+    public Class<? extends Channel> channel() {
+      return EpollSocketChannel.class;
+    }
+
+    @Override
+    public Class<? extends ServerChannel> serverChannel() {
+      return EpollServerSocketChannel.class;
+    }
+
+    @Override
+    public Bootstrap configure(final Bootstrap bootstrap) {
+      return super.configure(bootstrap)
+          .option(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+    }
+
+    @Override
+    public ServerBootstrap configure(final ServerBootstrap bootstrap) {
+      return super.configure(bootstrap)
+          .childOption(EpollChannelOption.EPOLL_MODE, EpollMode.EDGE_TRIGGERED);
+    }
+  };
+
+  public static final String PROPERTY = "zmtp.transport";
+
+  public abstract boolean isAvailable();
+
+  /**
+   * Create an event loop group with the given number of threads, or the netty default if 0.
+   */
+  public abstract EventLoopGroup group(int threads);
+
+  public abstract Class<? extends Channel> channel();
+
+  public abstract Class<? extends ServerChannel> serverChannel();
+
+  /**
+   * Set the channel class and the recommended options for request/reply traffic on a client
+   * bootstrap.
+   */
+  public Bootstrap configure(final Bootstrap bootstrap) {
+    return bootstrap
+        .channel(channel())
+        .option(ChannelOption.TCP_NODELAY, true);
+  }
+
+  /**
+   * Set the channel class and the recommended options for request/reply traffic on a server
+   * bootstrap.
+   */
+  public ServerBootstrap configure(final ServerBootstrap bootstrap) {
+    return bootstrap
+        .channel(serverChannel())
+        .childOption(ChannelOption.TCP_NODELAY, true);
+  }
+
+  /**
+   * Get the transport selected by the {@code zmtp.transport} system property, defaulting to NIO.
+   */
+  public static Transport current() {
+    final Transport transport = valueOf(System.getProperty(PROPERTY, "nio").toUpperCase());
+    if (!transport.isAvailable()) {
+      throw new IllegalStateException(transport + " transport is not available");
+    }
+    return transport;
+  }
+}
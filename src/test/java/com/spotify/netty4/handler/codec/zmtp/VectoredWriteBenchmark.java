@@ -0,0 +1,175 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.ReferenceCountUtil;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+
+/**
+ * Compares copying, splicing into a composite buffer and vectored writes when sending messages
+ * made up of many medium sized frames over a loopback connection.
+ *
+ * The CPU time of the process per GB sent is printed after each iteration. Every message is
+ * flushed on its own, and with splicing each flush is sent with a gathering write as long as the
+ * socket accepts all of it. Syscall counts can be compared by running under {@code strace -c -f},
+ * e.g. {@code strace -c -f -e trace=write,writev java ... VectoredWriteBenchmark}, or with the
+ * {@code perfnorm} profiler.
+ */
+@State(Scope.Benchmark)
+public class VectoredWriteBenchmark {
+
+  private static final int SPLICE_THRESHOLD = 1024;
+  private static final double GB = 1024 * 1024 * 1024;
+
+  @Param({"copy", "composite", "vectored"})
+  public String mode;
+
+  @Param({"16"})
+  public int frames;
+
+  @Param({"4096", "65536"})
+  public int frameSize;
+
+  @Param({"64"})
+  public int batch;
+
+  private final Transport transport = Transport.current();
+
+  private EventLoopGroup group;
+  private Channel server;
+  private Channel client;
+  private ZMTPMessage message;
+  private volatile CountDownLatch received;
+
+  private long bytes;
+  private long iterationCpuTime;
+
+  @Setup
+  public void setUp() throws InterruptedException {
+    group = transport.group(0);
+    server = transport.configure(new ServerBootstrap())
+        .group(group)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            ch.pipeline().addLast(ZMTPCodec.of(DEALER), new ChannelInboundHandlerAdapter() {
+              @Override
+              public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+                ReferenceCountUtil.release(msg);
+                received.countDown();
+              }
+            });
+          }
+        })
+        .bind(new InetSocketAddress("127.0.0.1", 0)).sync().channel();
+
+    final ZMTPCodec codec = ZMTPCodec.builder()
+        .socketType(DEALER)
+        .spliceThreshold(mode.equals("copy") ? ZMTPConfig.NO_SPLICING : SPLICE_THRESHOLD)
+        .vectoredWrites(mode.equals("vectored"))
+        .build();
+    client = transport.configure(new Bootstrap())
+        .group(group)
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            ch.pipeline().addLast(codec);
+          }
+        })
+        .connect(server.localAddress()).sync().channel();
+    codec.session().handshakeFuture().sync();
+
+    final ByteBuf[] content = new ByteBuf[frames];
+    for (int i = 0; i < frames; i++) {
+      content[i] = PooledByteBufAllocator.DEFAULT.directBuffer(frameSize).writeZero(frameSize);
+    }
+    message = ZMTPMessage.from(content);
+  }
+
+  @TearDown
+  public void tearDown() throws InterruptedException {
+    client.close().sync();
+    server.close().sync();
+    group.shutdownGracefully().sync();
+    message.release();
+  }
+
+  @Setup(Level.Iteration)
+  public void startIteration() {
+    bytes = 0;
+    iterationCpuTime = cpuTime();
+  }
+
+  @TearDown(Level.Iteration)
+  public void endIteration() {
+    final double gb = bytes / GB;
+    System.out.printf("%n%s: %.1f ms CPU/GB%n", mode, (cpuTime() - iterationCpuTime) / 1e6 / gb);
+  }
+
+  @Benchmark
+  public void send() throws InterruptedException {
+    received = new CountDownLatch(batch);
+    for (int i = 0; i < batch; i++) {
+      client.writeAndFlush(message.retain());
+    }
+    received.await();
+    bytes += (long) batch * frames * frameSize;
+  }
+
+  private static long cpuTime() {
+    return ((com.sun.management.OperatingSystemMXBean)
+                ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(VectoredWriteBenchmark.class.getSimpleName())
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-vectored-write.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -17,7 +17,6 @@
 package com.spotify.netty4.handler.codec.zmtp;
 
 import com.google.common.base.Strings;
-import com.google.common.util.concurrent.ListenableFuture;
 
 import org.junit.After;
 import org.junit.Before;
@@ -38,6 +37,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP20;
@@ -243,7 +243,7 @@ public class ZMQIntegrationTest {
         .identity(identity)
         .build();
 
-    final ListenableFuture<Void> f = zmtpSocket.connect("tcp://127.0.0.1:" + port);
+    final Future<Void> f = zmtpSocket.connect("tcp://127.0.0.1:" + port);
     f.get(5, TimeUnit.SECONDS);
 
     return zmtpSocket;
@@ -259,7 +259,7 @@ public class ZMQIntegrationTest {
         .identity(identity)
         .build();
 
-    final ListenableFuture<InetSocketAddress> f = zmtpSocket.bind("tcp://127.0.0.1:*");
+    final Future<InetSocketAddress> f = zmtpSocket.bind("tcp://127.0.0.1:*");
     final InetSocketAddress address = f.get(5, TimeUnit.SECONDS);
     port = address.getPort();
 
@@ -278,10 +278,10 @@ public class ZMQIntegrationTest {
     final ZMTPSession session = peers.get(0).session();
     if (ANONYMOUS.equals(zmqIdentity)) {
       assertThat(session.isPeerAnonymous(), is(true));
-      assertThat(UTF_8.decode(session.peerIdentity()).toString(), not(isEmptyString()));
+      assertThat(session.peerIdentity().toString(), not(isEmptyString()));
     } else {
       assertThat(session.isPeerAnonymous(), is(false));
-      assertThat(session.peerIdentity(), is(UTF_8.encode(zmqIdentity)));
+      assertThat(session.peerIdentity(), is(ZMTPIdentity.from(UTF_8.encode(zmqIdentity))));
     }
   }
 }
@@ -0,0 +1,168 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.Collections;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPCodecTest.handshake;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPCodecTest.shuttle;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPCodecMetricsTest {
+
+  private final ZMTPCodecMetrics metrics = new ZMTPCodecMetrics();
+
+  @Test
+  public void testNoopByDefault() {
+    final ZMTPCodec codec = ZMTPCodec.of(DEALER);
+    assertThat(codec.session().metrics(), is(sameInstance(ZMTPMetrics.NOOP)));
+    assertThat(metrics.session(codec.session()), is(nullValue()));
+  }
+
+  @Test
+  public void testMessages() throws Exception {
+    final ZMTPCodec serverCodec = codec(ROUTER);
+    final ZMTPCodec clientCodec = codec(DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    handshake(server, serverCodec.session(), client, clientCodec.session(), Integer.MAX_VALUE);
+
+    client.write(ZMTPMessage.fromUTF8("", "hello"));
+    client.write(ZMTPMessage.fromUTF8("", "world!"));
+    client.flush();
+    shuttle(client, server, Integer.MAX_VALUE);
+    ((ZMTPMessage) server.readInbound()).release();
+    ((ZMTPMessage) server.readInbound()).release();
+
+    final ZMTPCodecMetrics.Session clientMetrics = metrics.session(clientCodec.session());
+    final ZMTPCodecMetrics.Session serverMetrics = metrics.session(serverCodec.session());
+
+    assertThat(metrics.sessions(), is(2L));
+    assertThat(metrics.handshakes(), is(2L));
+    assertThat(clientMetrics.handshakeNanos(), is(greaterThan(0L)));
+
+    assertThat(clientMetrics.messagesSent(), is(2L));
+    assertThat(clientMetrics.framesSent(), is(4L));
+    assertThat(clientMetrics.flushes(), is(1L));
+    assertThat(clientMetrics.averageFlushSize(), is(2.0));
+    assertThat(serverMetrics.messagesReceived(), is(2L));
+    assertThat(serverMetrics.framesReceived(), is(4L));
+    assertThat(serverMetrics.bytesReceived(), is(clientMetrics.bytesSent()));
+    assertThat(serverMetrics.bytesReceived(), is(greaterThan(11L)));
+
+    assertThat(metrics.messagesSent(), is(2L));
+    assertThat(metrics.messagesReceived(), is(2L));
+    assertThat(metrics.bytesSent(), is(metrics.bytesReceived()));
+
+    // Empty delimiter frames and 5 and 6 byte frames in the [4, 8) bucket
+    final long[] frameSizes = metrics.receivedFrameSizes();
+    assertThat(frameSizes[0], is(2L));
+    assertThat(frameSizes[3], is(2L));
+    assertThat(metrics.sentFrameSizes(), is(frameSizes));
+    assertThat(metrics.flushSizes()[2], is(1L));
+  }
+
+  @Test
+  public void testEncodedMessages() throws Exception {
+    final ZMTPCodec serverCodec = codec(ROUTER);
+    final ZMTPCodec clientCodec = codec(DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    handshake(server, serverCodec.session(), client, clientCodec.session(), Integer.MAX_VALUE);
+
+    // Passed through on its own, and then batched with another message
+    final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(
+        ZMTPMessage.fromUTF8("", "hello"));
+    client.writeAndFlush(encoded.retain());
+    client.write(ZMTPMessage.fromUTF8("", "world!"));
+    client.write(encoded);
+    client.flush();
+    shuttle(client, server, Integer.MAX_VALUE);
+    for (int i = 0; i < 3; i++) {
+      ((ZMTPMessage) server.readInbound()).release();
+    }
+
+    final ZMTPCodecMetrics.Session clientMetrics = metrics.session(clientCodec.session());
+    final ZMTPCodecMetrics.Session serverMetrics = metrics.session(serverCodec.session());
+    assertThat(clientMetrics.messagesSent(), is(3L));
+    assertThat(clientMetrics.framesSent(), is(6L));
+    assertThat(serverMetrics.framesReceived(), is(6L));
+    assertThat(metrics.sentFrameSizes(), is(metrics.receivedFrameSizes()));
+  }
+
+  @Test
+  public void testCommandOnlyFlush() throws Exception {
+    final ZMTPCodec serverCodec = codec(ROUTER, ZMTPProtocols.ZMTP31);
+    final ZMTPCodec clientCodec = codec(DEALER, ZMTPProtocols.ZMTP31);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    handshake(server, serverCodec.session(), client, clientCodec.session(), Integer.MAX_VALUE);
+
+    client.writeAndFlush(ZMTPMessage.fromUTF8("", "hello"));
+    client.writeAndFlush(ZMTPCommand.of(ZMTPHeartbeatHandler.PING, ByteBuffer.allocate(2)));
+    shuttle(client, server, Integer.MAX_VALUE);
+    ((ZMTPMessage) server.readInbound()).release();
+
+    // The PING is sent but not counted as a flush
+    final ZMTPCodecMetrics.Session clientMetrics = metrics.session(clientCodec.session());
+    final ZMTPCodecMetrics.Session serverMetrics = metrics.session(serverCodec.session());
+    assertThat(clientMetrics.flushes(), is(1L));
+    assertThat(clientMetrics.averageFlushSize(), is(1.0));
+    assertThat(metrics.flushSizes()[0], is(0L));
+    assertThat(serverMetrics.bytesReceived(), is(clientMetrics.bytesSent()));
+  }
+
+  @Test
+  public void testHandshakeFailure() throws Exception {
+    final ZMTPCodec codec = codec(DEALER);
+    final EmbeddedChannel channel = new EmbeddedChannel(codec);
+    channel.close();
+
+    assertThat(codec.session().handshakeFuture().isSuccess(), is(false));
+    assertThat(metrics.handshakes(), is(0L));
+    assertThat(metrics.handshakeFailures(),
+               is(Collections.singletonMap(ClosedChannelException.class.getName(), 1L)));
+    assertThat(metrics.session(codec.session()).handshakeNanos(), is(-1L));
+  }
+
+  private ZMTPCodec codec(final ZMTPSocketType socketType) {
+    return ZMTPCodec.builder()
+        .socketType(socketType)
+        .metrics(metrics)
+        .build();
+  }
+
+  private ZMTPCodec codec(final ZMTPSocketType socketType, final ZMTPProtocol protocol) {
+    return ZMTPCodec.builder()
+        .protocol(protocol)
+        .socketType(socketType)
+        .metrics(metrics)
+        .build();
+  }
+}
@@ -0,0 +1,250 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import com.google.common.base.Strings;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP10;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP30;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP31;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPCodecTest {
+
+  @Test
+  public void testHandshakeByteByByte() throws Exception {
+    final ZMTPProtocol[] protocols = {ZMTP10, ZMTP20, ZMTP30, ZMTP31};
+    final boolean[] interops = {false, true};
+    for (final ZMTPProtocol protocol : protocols) {
+      for (final boolean interop : interops) {
+        testHandshake(protocol, interop, protocol, interop, 1);
+      }
+    }
+  }
+
+  @Test
+  public void testInteropHandshakeByteByByte() throws Exception {
+    testHandshake(ZMTP20, true, ZMTP10, false, 1);
+    testHandshake(ZMTP30, true, ZMTP10, false, 1);
+    testHandshake(ZMTP30, true, ZMTP20, true, 1);
+    testHandshake(ZMTP31, true, ZMTP30, true, 1);
+  }
+
+  @Test
+  public void testHandshakeFollowedByMessage() throws Exception {
+    final ZMTPCodec serverCodec = codec(ZMTP20, false, ROUTER);
+    final ZMTPCodec clientCodec = codec(ZMTP20, false, DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+
+    // Deliver the client greeting and a message to the server in one read
+    shuttle(server, client, Integer.MAX_VALUE);
+    assertThat(clientCodec.session().handshakeFuture().isSuccess(), is(true));
+    client.writeAndFlush(ZMTPMessage.fromUTF8("", "hello"));
+    final ByteBuf in = Unpooled.buffer();
+    ByteBuf buf;
+    while ((buf = (ByteBuf) client.readOutbound()) != null) {
+      in.writeBytes(buf);
+      buf.release();
+    }
+    server.writeInbound(in);
+
+    assertThat(serverCodec.session().handshakeFuture().isSuccess(), is(true));
+    final ZMTPMessage message = (ZMTPMessage) server.readInbound();
+    assertThat(message, is(notNullValue()));
+    assertThat(message, is(ZMTPMessage.fromUTF8("", "hello")));
+    message.release();
+  }
+
+  @Test
+  public void testHandshakeListenerNotifiedOnEventLoop() throws Exception {
+    final ZMTPCodec serverCodec = codec(ZMTP30, false, ROUTER);
+    final ZMTPCodec clientCodec = codec(ZMTP30, false, DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    final AtomicReference<Thread> listenerThread = new AtomicReference<Thread>();
+    serverCodec.session().handshakeFuture().addListener(
+        new GenericFutureListener<Future<ZMTPHandshake>>() {
+          @Override
+          public void operationComplete(final Future<ZMTPHandshake> future) {
+            listenerThread.set(Thread.currentThread());
+          }
+        });
+
+    handshake(server, serverCodec.session(), client, clientCodec.session(), Integer.MAX_VALUE);
+
+    // The embedded channel event loop runs tasks on the calling thread
+    assertThat(listenerThread.get(), is(Thread.currentThread()));
+  }
+
+  @Test
+  public void testBootstrapHandler() throws Exception {
+    final EventLoopGroup group = new LocalEventLoopGroup(1);
+    try {
+      final LocalAddress address = new LocalAddress("zmtp-codec-test");
+      final Channel server = new ServerBootstrap()
+          .group(group)
+          .channel(LocalServerChannel.class)
+          .childHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(final Channel ch) {
+              ch.pipeline().addLast(codec(ZMTP30, false, ROUTER));
+            }
+          })
+          .bind(address).sync().channel();
+
+      // The codec is added to the pipeline before the channel is registered to an event loop
+      final ZMTPCodec codec = codec(ZMTP30, false, DEALER);
+      final Channel client = new Bootstrap()
+          .group(group)
+          .channel(LocalChannel.class)
+          .handler(codec)
+          .connect(address).sync().channel();
+      assertThat(client.pipeline().first(), is(notNullValue()));
+
+      final AtomicReference<Boolean> inEventLoop = new AtomicReference<Boolean>();
+      final CountDownLatch notified = new CountDownLatch(1);
+      codec.session().handshakeFuture().addListener(
+          new GenericFutureListener<Future<ZMTPHandshake>>() {
+            @Override
+            public void operationComplete(final Future<ZMTPHandshake> future) {
+              inEventLoop.set(client.eventLoop().inEventLoop());
+              notified.countDown();
+            }
+          });
+      assertThat(notified.await(10, SECONDS), is(true));
+      assertThat(codec.session().handshakeFuture().isSuccess(), is(true));
+      assertThat(inEventLoop.get(), is(true));
+
+      client.close().sync();
+      server.close().sync();
+    } finally {
+      group.shutdownGracefully(0, 0, SECONDS).sync();
+    }
+  }
+
+  @Test
+  public void testCompositeCumulatorWithCopiedFrames() throws Exception {
+    final ZMTPCodec serverCodec = ZMTPCodec.builder()
+        .protocol(ZMTP30)
+        .socketType(ROUTER)
+        .cumulator(ByteToMessageDecoder.COMPOSITE_CUMULATOR)
+        .frameCopyRatio(4)
+        .build();
+    final ZMTPCodec clientCodec = codec(ZMTP30, false, DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    handshake(server, serverCodec.session(), client, clientCodec.session(), Integer.MAX_VALUE);
+
+    final ZMTPMessage expected = ZMTPMessage.fromUTF8("", "hello", Strings.repeat("x", 1000));
+    client.writeAndFlush(expected.retain());
+    shuttle(client, server, 7);
+
+    final ZMTPMessage message = (ZMTPMessage) server.readInbound();
+    assertThat(message, is(expected));
+    message.release();
+    expected.release();
+    assertThat(server.finish(), is(false));
+  }
+
+  private static void testHandshake(final ZMTPProtocol serverProtocol, final boolean serverInterop,
+                                    final ZMTPProtocol clientProtocol, final boolean clientInterop,
+                                    final int fragment) throws Exception {
+    final ZMTPCodec serverCodec = codec(serverProtocol, serverInterop, ROUTER);
+    final ZMTPCodec clientCodec = codec(clientProtocol, clientInterop, DEALER);
+    final EmbeddedChannel server = new EmbeddedChannel(serverCodec);
+    final EmbeddedChannel client = new EmbeddedChannel(clientCodec);
+    handshake(server, serverCodec.session(), client, clientCodec.session(), fragment);
+    assertThat(serverCodec.session().handshakeFuture().isSuccess(), is(true));
+    assertThat(clientCodec.session().handshakeFuture().isSuccess(), is(true));
+    assertThat(serverCodec.session().negotiatedVersion(),
+               is(clientCodec.session().negotiatedVersion()));
+    assertThat(server.finish(), is(false));
+    assertThat(client.finish(), is(false));
+  }
+
+  /**
+   * Pass data between two channels in fragments until both sessions have completed the handshake.
+   */
+  static void handshake(final EmbeddedChannel server, final ZMTPSession serverSession,
+                        final EmbeddedChannel client, final ZMTPSession clientSession,
+                        final int fragment) throws Exception {
+    while (!serverSession.handshakeFuture().isDone() ||
+           !clientSession.handshakeFuture().isDone()) {
+      final boolean progress = shuttle(client, server, fragment) | shuttle(server, client, fragment);
+      if (!progress) {
+        throw new AssertionError("handshake stalled");
+      }
+    }
+    // Surface any handshake failure
+    serverSession.handshakeFuture().get();
+    clientSession.handshakeFuture().get();
+  }
+
+  /**
+   * Pass all outbound data of a channel to another channel in fragments of at most the given size.
+   */
+  static boolean shuttle(final EmbeddedChannel from, final EmbeddedChannel to,
+                         final int fragment) {
+    boolean progress = false;
+    ByteBuf buf;
+    while ((buf = (ByteBuf) from.readOutbound()) != null) {
+      while (buf.isReadable()) {
+        to.writeInbound(buf.readSlice(Math.min(fragment, buf.readableBytes())).retain());
+        progress = true;
+      }
+      buf.release();
+    }
+    return progress;
+  }
+
+  private static ZMTPCodec codec(final ZMTPProtocol protocol, final boolean interop,
+                                 final ZMTPSocketType socketType) {
+    return ZMTPCodec.builder()
+        .protocol(protocol)
+        .interop(interop)
+        .socketType(socketType)
+        .build();
+  }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.Buffers.buf;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP30;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZMTPFramingDecoderTest {
+
+  private final static ByteBufAllocator ALLOC = new UnpooledByteBufAllocator(false);
+
+  private final List<Object> out = new ArrayList<Object>();
+
+  @Test
+  public void testWithinLimits() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), 5, 3, 10);
+    for (int i = 0; i < 2; i++) {
+      final ByteBuf in = ZMTPMessage.fromUTF8(ALLOC, "aaaaa", "", "bbbbb").write(ALLOC, ZMTP20);
+      decoder.decode(null, in, out);
+      assertFalse(in.isReadable());
+      in.release();
+    }
+    assertEquals(2, out.size());
+    for (final Object message : out) {
+      ((ZMTPMessage) message).release();
+    }
+  }
+
+  @Test
+  public void testFrameTooLong() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), 4, Integer.MAX_VALUE, Long.MAX_VALUE);
+    assertRejected(decoder, ZMTPMessage.fromUTF8(ALLOC, "aaaaa").write(ALLOC, ZMTP20));
+  }
+
+  @Test
+  public void testHugeFrameRejectedBeforeContent() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), 1024 * 1024, Integer.MAX_VALUE,
+        Long.MAX_VALUE);
+    // Only the header of a 4GB frame
+    assertRejected(decoder, buf(0x02, 0, 0, 0, 1, 0, 0, 0, 0));
+  }
+
+  @Test
+  public void testFrameLongerThanIntegerMaxValueRejectedWithoutLimits() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder());
+    // A 2^32 + 5 byte frame must not be decoded as a 5 byte frame
+    assertRejected(decoder, buf(0x02, 0, 0, 0, 1, 0, 0, 0, 5, 'a', 'b', 'c', 'd', 'e'));
+  }
+
+  @Test
+  public void testNegativeFrameLength() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder());
+    try {
+      decoder.decode(null, buf(0x02, 0x80, 0, 0, 0, 0, 0, 0, 0), out);
+      fail();
+    } catch (ZMTPParsingException ignore) {
+    }
+  }
+
+  @Test
+  public void testTooManyFrames() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), Long.MAX_VALUE, 2, Long.MAX_VALUE);
+    assertRejected(decoder, ZMTPMessage.fromUTF8(ALLOC, "a", "b", "c").write(ALLOC, ZMTP20));
+  }
+
+  @Test
+  public void testMessageTooLong() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), Long.MAX_VALUE, Integer.MAX_VALUE, 5);
+    assertRejected(decoder, ZMTPMessage.fromUTF8(ALLOC, "aaa", "bbb").write(ALLOC, ZMTP20));
+  }
+
+  @Test
+  public void testCommand() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP30), new ZMTPMessageDecoder(), 8, 1, 5);
+    final ZMTPCommand ping = ZMTPCommand.of("PING", ByteBuffer.wrap(new byte[]{0, 1}));
+    final ByteBuf in = ALLOC.buffer();
+    ZMTP30WireFormat.writeCommand(in, ping);
+    final ByteBuf message = ZMTPMessage.fromUTF8(ALLOC, "hello").write(ALLOC, ZMTP30);
+    in.writeBytes(message);
+    message.release();
+
+    // Commands are delivered whole and do not count towards the message limits
+    for (int i = 1; i <= in.writerIndex(); i++) {
+      final ByteBuf fragment = in.slice(0, i);
+      fragment.readerIndex(in.readerIndex());
+      decoder.decode(null, fragment, out);
+      in.readerIndex(fragment.readerIndex());
+    }
+    assertEquals(2, out.size());
+    assertEquals(ping, out.get(0));
+    assertEquals(ZMTPMessage.fromUTF8("hello"), out.get(1));
+    ((ZMTPMessage) out.get(1)).release();
+    in.release();
+  }
+
+  @Test
+  public void testHugeCommandRejectedBeforeBody() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP30), new ZMTPMessageDecoder());
+    // Only the header of a 1MB command
+    assertRejected(decoder, buf(0x06, 0, 0, 0, 0, 0, 0x10, 0, 0));
+  }
+
+  @Test
+  public void testReceiveHighWaterMarkDrop() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), Long.MAX_VALUE, Integer.MAX_VALUE,
+        Long.MAX_VALUE, 2, 0, ZMTPHighWaterMarkPolicy.DROP);
+    final ByteBuf in = ALLOC.buffer();
+    for (final String s : new String[]{"a", "b", "c"}) {
+      final ByteBuf message = ZMTPMessage.fromUTF8(ALLOC, s, "").write(ALLOC, ZMTP20);
+      in.writeBytes(message);
+      message.release();
+    }
+    decoder.decode(null, in, out);
+    assertFalse(in.isReadable());
+    assertEquals(2, out.size());
+    assertEquals(ZMTPMessage.fromUTF8("a", ""), out.get(0));
+    assertEquals(ZMTPMessage.fromUTF8("b", ""), out.get(1));
+
+    // Releasing a message makes room for another
+    ((ZMTPMessage) out.remove(0)).release();
+    final ByteBuf more = ZMTPMessage.fromUTF8(ALLOC, "d").write(ALLOC, ZMTP20);
+    decoder.decode(null, more, out);
+    assertEquals(2, out.size());
+    assertEquals(ZMTPMessage.fromUTF8("d"), out.get(1));
+    for (final Object message : out) {
+      ((ZMTPMessage) message).release();
+    }
+    in.release();
+    more.release();
+  }
+
+  @Test
+  public void testReceiveHighWaterMarkBlock() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(new ZMTPFramingDecoder(
+        wireFormat(ZMTP20), new ZMTPMessageDecoder(), Long.MAX_VALUE, Integer.MAX_VALUE,
+        Long.MAX_VALUE, 0, 4, ZMTPHighWaterMarkPolicy.BLOCK));
+    channel.writeInbound(ZMTPMessage.fromUTF8(ALLOC, "aa").write(ALLOC, ZMTP20));
+    assertTrue(channel.config().isAutoRead());
+    channel.writeInbound(ZMTPMessage.fromUTF8(ALLOC, "bb").write(ALLOC, ZMTP20));
+    assertFalse(channel.config().isAutoRead());
+
+    ((ZMTPMessage) channel.readInbound()).release();
+    assertTrue(channel.config().isAutoRead());
+    ((ZMTPMessage) channel.readInbound()).release();
+    assertFalse(channel.finish());
+  }
+
+  private void assertRejected(final ZMTPFramingDecoder decoder, final ByteBuf in)
+      throws Exception {
+    try {
+      decoder.decode(null, in, out);
+      fail();
+    } catch (ZMTPParsingException ignore) {
+    }
+    assertFalse(in.isReadable());
+    assertEquals(0, out.size());
+
+    // Further input is discarded
+    final ByteBuf more = ZMTPMessage.fromUTF8(ALLOC, "a").write(ALLOC, ZMTP20);
+    decoder.decode(null, more, out);
+    assertFalse(more.isReadable());
+    assertEquals(0, out.size());
+
+    decoder.handlerRemoved0(null);
+    in.release();
+    more.release();
+  }
+}
@@ -12,10 +12,14 @@ import org.mockito.runners.MockitoJUnitRunner;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.concurrent.EventExecutor;
 
 import static com.spotify.netty4.handler.codec.zmtp.Buffers.buf;
@@ -24,8 +28,12 @@ import static com.spotify.netty4.handler.codec.zmtp.ZMTPConfig.ANONYMOUS;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP10;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols.ZMTP20;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
 import static io.netty.util.CharsetUtil.UTF_8;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.when;
@@ -48,6 +56,7 @@ public class ZMTPFramingEncoderTest {
     when(ctx.write(bufCaptor.capture(), any(ChannelPromise.class))).thenReturn(promise);
     when(ctx.alloc()).thenReturn(ByteBufAllocator.DEFAULT);
     when(ctx.executor()).thenReturn(executor);
+    when(ctx.channel()).thenReturn(new EmbeddedChannel());
   }
 
   @Test
@@ -126,4 +135,349 @@ public class ZMTPFramingEncoderTest {
     buf.release();
     buf2.release();
   }
+
+  @Test
+  public void testEncodeZMTP2Spliced() throws Exception {
+    ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "id0", "", LARGE_FILL, "f0");
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes(bytes(1, 3, 0x69, 0x64, 0x30,
+                         1, 0,
+                         3, 0, 0, 0, 0, 0, 0, 0x01, 0xf4));
+    buf.writeBytes(LARGE_FILL.getBytes(UTF_8));
+    buf.writeBytes(bytes(0, 2, 0x66, 0x30));
+
+    ZMTPConfig config = ZMTPConfig.builder()
+        .protocol(ZMTP20)
+        .socketType(DEALER)
+        .spliceThreshold(256)
+        .build();
+    ZMTPSession session = new ZMTPSession(config);
+
+    session.handshakeSuccess(ZMTPHandshake.of(ZMTPVersion.ZMTP20, ANONYMOUS));
+
+    ZMTPFramingEncoder enc = new ZMTPFramingEncoder(session, new ZMTPMessageEncoder());
+
+    enc.write(ctx, message, promise);
+    enc.flush(ctx);
+    final ByteBuf buf2 = bufCaptor.getValue();
+
+    assertThat(buf2, is(instanceOf(CompositeByteBuf.class)));
+    assertThat(((CompositeByteBuf) buf2).numComponents(), is(3));
+    assertThat(buf, is(buf2));
+
+    buf.release();
+    buf2.release();
+    assertThat(message.refCnt(), is(0));
+    assertThat(message.frame(2).refCnt(), is(0));
+  }
+
+  @Test
+  public void testEncodeZMTP2Vectored() throws Exception {
+    ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "id0", "", LARGE_FILL, "f0");
+
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(), 256,
+                               Integer.MAX_VALUE, 0, 0, ZMTPHighWaterMarkPolicy.BLOCK, true));
+
+    channel.writeAndFlush(message);
+
+    // The spliced frame content is written as a separate buffer between the copied frames
+    final ByteBuf head = (ByteBuf) channel.readOutbound();
+    final ByteBuf content = (ByteBuf) channel.readOutbound();
+    final ByteBuf tail = (ByteBuf) channel.readOutbound();
+    assertThat(channel.readOutbound(), is(nullValue()));
+
+    assertThat(head, is(buf(1, 3, 0x69, 0x64, 0x30,
+                            1, 0,
+                            3, 0, 0, 0, 0, 0, 0, 0x01, 0xf4)));
+    assertThat(content.toString(UTF_8), is(LARGE_FILL));
+    assertThat(tail, is(buf(0, 2, 0x66, 0x30)));
+
+    head.release();
+    content.release();
+    tail.release();
+    assertThat(message.refCnt(), is(0));
+    assertThat(message.frame(2).refCnt(), is(0));
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testPromises() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder()));
+
+    // A flush without pending messages writes nothing
+    channel.flush();
+    assertThat(channel.readOutbound(), is(nullValue()));
+
+    // A single promise is passed on as is
+    final ChannelPromise p0 = channel.newPromise();
+    channel.writeAndFlush(ZMTPMessage.fromUTF8(ALLOC, "a"), p0);
+    assertThat(p0.isSuccess(), is(true));
+
+    // Void promises are not aggregated
+    final ChannelPromise p1 = channel.newPromise();
+    final ChannelPromise p2 = channel.newPromise();
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"), channel.voidPromise());
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "c"), p1);
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "d"), p2);
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "e"), channel.voidPromise());
+    channel.flush();
+    assertThat(p1.isSuccess(), is(true));
+    assertThat(p2.isSuccess(), is(true));
+
+    final ByteBuf single = (ByteBuf) channel.readOutbound();
+    assertThat(single, is(buf(0, 1, 0x61)));
+    single.release();
+    final ByteBuf batch = (ByteBuf) channel.readOutbound();
+    assertThat(batch, is(buf(0, 1, 0x62, 0, 1, 0x63, 0, 1, 0x64, 0, 1, 0x65)));
+    batch.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testCancelledPromise() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder()));
+
+    // A cancelled or completed promise does not cause the batch to be dropped
+    final ChannelPromise p0 = channel.newPromise();
+    final ChannelPromise p1 = channel.newPromise();
+    final ChannelPromise p2 = channel.newPromise();
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"), p0);
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"), p1);
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "c"), p2);
+    p0.cancel(false);
+    p1.setSuccess();
+    channel.flush();
+    assertThat(p2.isSuccess(), is(true));
+
+    final ByteBuf batch = (ByteBuf) channel.readOutbound();
+    assertThat(batch, is(buf(0, 1, 0x61, 0, 1, 0x62, 0, 1, 0x63)));
+    batch.release();
+
+    // Also when the only promise of the batch was cancelled
+    final ChannelPromise p3 = channel.newPromise();
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "d"));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "e"), p3);
+    p3.cancel(false);
+    channel.flush();
+    final ByteBuf single = (ByteBuf) channel.readOutbound();
+    assertThat(single, is(buf(0, 1, 0x64, 0, 1, 0x65)));
+    single.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testWritability() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder()));
+    channel.config().setWriteBufferLowWaterMark(8);
+    channel.config().setWriteBufferHighWaterMark(16);
+
+    // Buffered messages exceeding the high water mark make the channel unwritable
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "aaaaaaaa"));
+    assertThat(channel.isWritable(), is(true));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "bbbbbbbb"));
+    assertThat(channel.isWritable(), is(false));
+
+    channel.flush();
+    assertThat(channel.isWritable(), is(true));
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output.readableBytes(), is(20));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testWritabilityWithSplicedAndEncodedContent() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(), 4));
+    channel.config().setWriteBufferLowWaterMark(8);
+    channel.config().setWriteBufferHighWaterMark(16);
+
+    // Spliced content counts against the water marks although it is not copied
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, Strings.repeat("a", 20)));
+    assertThat(channel.isWritable(), is(false));
+    channel.flush();
+    assertThat(channel.isWritable(), is(true));
+    ReferenceCountUtil.release(channel.readOutbound());
+
+    // So does the shared content of encoded messages
+    channel.write(ZMTPEncodedMessage.from(ZMTPMessage.fromUTF8(ALLOC, Strings.repeat("b", 20))));
+    assertThat(channel.isWritable(), is(false));
+    channel.flush();
+    assertThat(channel.isWritable(), is(true));
+    ReferenceCountUtil.release(channel.readOutbound());
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testAutoFlushWithSplicedContent() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(), 4, 20));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "aaaaaaaa"));
+    assertThat(channel.readOutbound(), is(nullValue()));
+    channel.write(ZMTPEncodedMessage.from(ZMTPMessage.fromUTF8(ALLOC, "bbbbbbbb")));
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output.readableBytes(), is(20));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testAutoFlush() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(),
+                               ZMTPConfig.NO_SPLICING, 20));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "aaaaaaaa"));
+    assertThat(channel.readOutbound(), is(nullValue()));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "bbbbbbbb"));
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output.readableBytes(), is(20));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testEncodedMessage() throws Exception {
+    final EmbeddedChannel a = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder()));
+    final EmbeddedChannel b = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder()));
+    final ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "a", "bc");
+    final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(message);
+
+    a.writeAndFlush(encoded.retain());
+    b.writeAndFlush(encoded.retain());
+    encoded.release();
+
+    // Both channels get the same read only content
+    final ByteBuf first = (ByteBuf) a.readOutbound();
+    final ByteBuf second = (ByteBuf) b.readOutbound();
+    assertThat(first, is(buf(1, 1, 0x61, 0, 2, 0x62, 0x63)));
+    assertThat(second, is(buf(1, 1, 0x61, 0, 2, 0x62, 0x63)));
+    assertThat(first.unwrap(), is(sameInstance(second.unwrap())));
+    assertThat(first.isWritable(), is(false));
+    assertThat(encoded.refCnt(), is(0));
+    assertThat(message.refCnt(), is(0));
+    first.release();
+    assertThat(second.refCnt(), is(1));
+    second.release();
+    assertThat(second.refCnt(), is(0));
+    assertThat(a.finish(), is(false));
+    assertThat(b.finish(), is(false));
+  }
+
+  @Test
+  public void testEncodedMessageBatched() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP10), new ZMTPMessageEncoder()));
+    final ZMTPEncodedMessage encoded = ZMTPEncodedMessage.from(
+        ZMTPMessage.fromUTF8(ALLOC, "b"));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    channel.write(encoded);
+    channel.flush();
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output, is(buf(2, 0, 0x61, 2, 0, 0x62)));
+    assertThat(encoded.refCnt(), is(0));
+
+    // Encoded content is spliced regardless of the splice threshold
+    assertThat(output, is(instanceOf(CompositeByteBuf.class)));
+    assertThat(((CompositeByteBuf) output).numComponents(), is(2));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testSendHighWaterMarkDrop() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(),
+                               ZMTPConfig.NO_SPLICING, ZMTPConfig.NO_AUTO_FLUSH, 2, 0,
+                               ZMTPHighWaterMarkPolicy.DROP));
+    final ZMTPMessage dropped = ZMTPMessage.fromUTF8(ALLOC, "c");
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+    final ChannelFuture future = channel.write(dropped);
+    assertThat(future.isSuccess(), is(true));
+    assertThat(dropped.refCnt(), is(0));
+
+    // The queue has room again once flushed
+    channel.flush();
+    channel.writeAndFlush(ZMTPMessage.fromUTF8(ALLOC, "d"));
+    ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output, is(buf(0, 1, 0x61, 0, 1, 0x62)));
+    output.release();
+    output = (ByteBuf) channel.readOutbound();
+    assertThat(output, is(buf(0, 1, 0x64)));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testSendHighWaterMarkBytesWithLargePayloads() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(),
+                               16, ZMTPConfig.NO_AUTO_FLUSH, 0, 100,
+                               ZMTPHighWaterMarkPolicy.DROP));
+    final String payload = Strings.repeat("a", 60);
+
+    // Spliced and encoded content counts against the byte high water mark before being flushed
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, payload));
+    channel.write(ZMTPEncodedMessage.from(ZMTPMessage.fromUTF8(ALLOC, payload)));
+    final ZMTPEncodedMessage dropped =
+        ZMTPEncodedMessage.from(ZMTPMessage.fromUTF8(ALLOC, payload));
+    final ChannelFuture future = channel.write(dropped);
+    assertThat(future.isSuccess(), is(true));
+    assertThat(dropped.refCnt(), is(0));
+
+    channel.flush();
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output.readableBytes(), is(124));
+    output.release();
+    assertThat(channel.readOutbound(), is(nullValue()));
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testSendHighWaterMarkFail() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(),
+                               ZMTPConfig.NO_SPLICING, ZMTPConfig.NO_AUTO_FLUSH, 0, 6,
+                               ZMTPHighWaterMarkPolicy.FAIL));
+    final ZMTPMessage failed = ZMTPMessage.fromUTF8(ALLOC, "c");
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+    final ChannelFuture future = channel.write(failed);
+    assertThat(future.cause(), is(instanceOf(ZMTPException.class)));
+    assertThat(failed.refCnt(), is(0));
+
+    channel.flush();
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output, is(buf(0, 1, 0x61, 0, 1, 0x62)));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
+
+  @Test
+  public void testSendHighWaterMarkBlock() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(
+        new ZMTPFramingEncoder(wireFormat(ZMTPVersion.ZMTP20), new ZMTPMessageEncoder(),
+                               ZMTPConfig.NO_SPLICING, ZMTPConfig.NO_AUTO_FLUSH, 2, 0,
+                               ZMTPHighWaterMarkPolicy.BLOCK));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "a"));
+    assertThat(channel.isWritable(), is(true));
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "b"));
+    assertThat(channel.isWritable(), is(false));
+
+    // Messages are still accepted, and the channel turns writable once they have been written
+    channel.write(ZMTPMessage.fromUTF8(ALLOC, "c"));
+    channel.flush();
+    channel.runPendingTasks();
+    assertThat(channel.isWritable(), is(true));
+    final ByteBuf output = (ByteBuf) channel.readOutbound();
+    assertThat(output, is(buf(0, 1, 0x61, 0, 1, 0x62, 0, 1, 0x63)));
+    output.release();
+    assertThat(channel.finish(), is(false));
+  }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPHeartbeatHandler.PING;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPHeartbeatHandler.PONG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ZMTPHeartbeatHandlerTest {
+
+  @Test
+  public void testPong() {
+    final EmbeddedChannel channel = new EmbeddedChannel(new ZMTPHeartbeatHandler(0, 0));
+    channel.writeInbound(ZMTPCommand.of(PING, ByteBuffer.wrap(new byte[]{0, 10, 'c', 't', 'x'})));
+    assertNull(channel.readInbound());
+    assertEquals(ZMTPCommand.of(PONG, ByteBuffer.wrap(new byte[]{'c', 't', 'x'})),
+                 channel.readOutbound());
+
+    // Other commands and messages are passed on
+    final ZMTPCommand command = ZMTPCommand.of("FOO");
+    channel.writeInbound(command);
+    assertEquals(command, channel.readInbound());
+    channel.writeInbound(ZMTPMessage.fromUTF8("hello"));
+    assertEquals(ZMTPMessage.fromUTF8("hello"), channel.readInbound());
+    channel.finish();
+  }
+
+  @Test
+  public void testPing() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(new ZMTPHeartbeatHandler(10, 1000));
+    Thread.sleep(20);
+    channel.runPendingTasks();
+    assertEquals(ZMTPCommand.of(PING, ByteBuffer.wrap(new byte[]{0, 10})),
+                 channel.readOutbound());
+    assertTrue(channel.isOpen());
+    channel.finish();
+  }
+
+  @Test
+  public void testTtl() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(new ZMTPHeartbeatHandler(10, 100));
+    for (int i = 0; i < 10; i++) {
+      Thread.sleep(20);
+      channel.writeInbound(ZMTPCommand.of(PONG));
+      channel.runPendingTasks();
+    }
+    assertTrue(channel.isOpen());
+    Thread.sleep(20);
+    channel.runPendingTasks();
+    assertTrue(channel.isOpen());
+    Thread.sleep(150);
+    channel.runPendingTasks();
+    assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void testRemoteTtl() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(new ZMTPHeartbeatHandler(10, 0));
+    channel.writeInbound(ZMTPCommand.of(PING, ByteBuffer.wrap(new byte[]{0, 1})));
+    Thread.sleep(20);
+    channel.runPendingTasks();
+    assertTrue(channel.isOpen());
+    Thread.sleep(150);
+    channel.runPendingTasks();
+    assertFalse(channel.isOpen());
+  }
+
+  @Test
+  public void testRemoteTtlWithoutInterval() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel(new ZMTPHeartbeatHandler(0, 0));
+    channel.writeInbound(ZMTPCommand.of(PING, ByteBuffer.wrap(new byte[]{0, 1})));
+    assertEquals(ZMTPCommand.of(PONG), channel.readOutbound());
+    Thread.sleep(60);
+    channel.runPendingTasks();
+    assertTrue(channel.isOpen());
+    Thread.sleep(150);
+    channel.runPendingTasks();
+    assertFalse(channel.isOpen());
+
+    // No PINGs are sent without an interval
+    assertNull(channel.readOutbound());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPIdentityTest {
+
+  @Test
+  public void testFrom() {
+    final ByteBuffer buffer = UTF_8.encode("foo");
+    final ZMTPIdentity identity = ZMTPIdentity.from(buffer);
+
+    assertThat(identity.length(), is(3));
+    assertThat(identity.isEmpty(), is(false));
+    assertThat(identity.asByteBuffer(), is(UTF_8.encode("foo")));
+    assertThat(identity.toByteArray(), is("foo".getBytes(UTF_8)));
+    assertThat(identity.hashCode(), is(Arrays.hashCode("foo".getBytes(UTF_8))));
+
+    // The source buffer is neither consumed nor shared
+    assertThat(buffer.remaining(), is(3));
+    buffer.put(0, (byte) 'x');
+    assertThat(identity.get(0), is((byte) 'f'));
+
+    assertThat(ZMTPIdentity.from(Unpooled.copiedBuffer("foo", UTF_8)), is(identity));
+    assertThat(ZMTPIdentity.from(UTF_8.encode("bar")), is(not(identity)));
+  }
+
+  @Test
+  public void testAnonymous() {
+    assertThat(ZMTPIdentity.from(ByteBuffer.allocate(0)), is(sameInstance(ZMTPIdentity.ANONYMOUS)));
+    assertThat(ZMTPIdentity.from(Unpooled.EMPTY_BUFFER), is(sameInstance(ZMTPIdentity.ANONYMOUS)));
+    assertThat(ZMTPIdentity.ANONYMOUS.isEmpty(), is(true));
+  }
+
+  @Test
+  public void testBuf() {
+    final ZMTPIdentity identity = ZMTPIdentity.from(UTF_8.encode("foo"));
+    final ByteBuf buf = identity.buf();
+    buf.skipBytes(1);
+    assertThat(identity.buf().readableBytes(), is(3));
+    assertThat(buf.release(), is(false));
+    assertThat(identity.contentEquals(identity.buf()), is(true));
+    assertThat(identity.contentEquals(buf), is(false));
+
+    final ByteBuf out = Unpooled.buffer();
+    identity.writeTo(out);
+    assertThat(identity.contentEquals(out), is(true));
+  }
+
+  @Test
+  public void testToString() {
+    assertThat(ZMTPIdentity.from(UTF_8.encode("foo")).toString(), is("foo"));
+    assertThat(ZMTPIdentity.from(ByteBuffer.wrap(new byte[]{0, 'a', '%', (byte) 0xff})).toString(),
+               is("%00a%25%FF"));
+  }
+}
@@ -34,6 +34,7 @@ import io.netty.channel.ChannelHandlerContext;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -77,4 +78,63 @@ public class ZMTPMessageDecoderTest {
     assertThat(out, hasSize(1));
     assertThat(out, contains(expected));
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testRecycled() throws Exception {
+    final ZMTPMessageDecoder decoder = new ZMTPMessageDecoder(true);
+
+    final List<Object> out = Lists.newArrayList();
+    for (int i = 0; i < 3; i++) {
+      final ByteBuf f0 = Unpooled.copiedBuffer("hello", UTF_8);
+      final ByteBuf f1 = Unpooled.copiedBuffer("world", UTF_8);
+      decoder.header(ctx, f0.readableBytes(), true, out);
+      decoder.content(ctx, f0, out);
+      decoder.header(ctx, f1.readableBytes(), false, out);
+      decoder.content(ctx, f1, out);
+      decoder.finish(ctx, out);
+      f0.release();
+      f1.release();
+
+      final Object expected = ZMTPMessage.fromUTF8(ALLOC, "hello", "world");
+      assertThat(out, hasSize(1));
+      assertThat(out, contains(expected));
+
+      // The message is returned to the pool on release and reused by the next decode
+      final ZMTPMessage message = (ZMTPMessage) out.remove(0);
+      message.release();
+      assertThat(message.size(), is(0));
+      assertThat(f0.refCnt(), is(0));
+      assertThat(f1.refCnt(), is(0));
+    }
+  }
+
+  @Test
+  public void testCopyRatio() throws Exception {
+    final ZMTPMessageDecoder decoder = new ZMTPMessageDecoder(false, 8);
+
+    // A 1 KiB input buffer holding a small and a large frame
+    final ByteBuf input = Unpooled.buffer(1024);
+    input.writeBytes("hello".getBytes(UTF_8));
+    input.writeZero(200);
+
+    final List<Object> out = Lists.newArrayList();
+    decoder.header(ctx, 5, true, out);
+    decoder.content(ctx, input, out);
+    decoder.header(ctx, 200, false, out);
+    decoder.content(ctx, input, out);
+    decoder.finish(ctx, out);
+
+    assertThat(out, hasSize(1));
+    final ZMTPMessage message = (ZMTPMessage) out.get(0);
+
+    // The small frame is copied into a right-sized buffer and the large frame is sliced
+    assertThat(message.frame(0).toString(UTF_8), is("hello"));
+    assertThat(message.frame(0).capacity(), is(5));
+    assertThat(message.frame(1).readableBytes(), is(200));
+    assertThat(input.refCnt(), is(2));
+
+    message.release();
+    assertThat(input.refCnt(), is(1));
+    input.release();
+  }
+}
@@ -33,10 +33,12 @@ import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
 
+import static io.netty.util.CharsetUtil.US_ASCII;
 import static io.netty.util.CharsetUtil.UTF_8;
 import static java.util.Arrays.asList;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 
@@ -77,6 +79,84 @@ public class ZMTPMessageTest {
     assertThat(m, is(m));
   }
 
+  @Test
+  public void testFromUTF8() {
+    final String[] strings = {
+        "", "hello", "h\u00e9llo w\u20acrld", "\ud83d\ude00", "\ud800x\udc00"};
+    final ZMTPMessage m = ZMTPMessage.fromUTF8(ALLOC, strings);
+    assertThat(m.size(), is(strings.length));
+    for (int i = 0; i < strings.length; i++) {
+      assertThat(m.frame(i), is(Unpooled.wrappedBuffer(strings[i].getBytes(UTF_8))));
+    }
+    m.release();
+  }
+
+  @Test
+  public void testFromASCII() {
+    final ZMTPMessage m = ZMTPMessage.from(ALLOC, US_ASCII, "hello", "w\u00f6rld");
+    assertThat(m.frame(0).toString(US_ASCII), is("hello"));
+    assertThat(m.frame(1).toString(US_ASCII), is("w?rld"));
+    m.release();
+  }
+
+  @Test
+  public void testFrameString() {
+    final ZMTPMessage m = ZMTPMessage.fromUTF8(ALLOC, "hello", "w\u00f6rld");
+    assertThat(m.frameString(0), is("hello"));
+    assertThat(m.frameString(1), is("w\u00f6rld"));
+    assertThat(m.frameString(1), is(sameInstance(m.frameString(1))));
+    m.release();
+  }
+
+  @Test
+  public void testFrameAscii() {
+    final ZMTPMessage m = ZMTPMessage.fromUTF8(ALLOC, "", "hello");
+    final ZMTPAsciiString s = m.frameAscii(1);
+    assertThat(s, is(sameInstance(m.frameAscii(1))));
+    assertThat(s.length(), is(5));
+    assertThat(s.charAt(1), is('e'));
+    assertThat(s.toString(), is("hello"));
+    assertThat(s.hashCode(), is("hello".hashCode()));
+    assertThat(s.contentEquals("hello"), is(true));
+    assertThat(s.contentEquals("hellO"), is(false));
+    assertThat(s.subSequence(1, 3).toString(), is("el"));
+    assertThat(s, is(ZMTPAsciiString.of(Unpooled.copiedBuffer("hello", UTF_8))));
+    assertThat(m.frameAscii(0).length(), is(0));
+    m.release();
+  }
+
+  @Test
+  public void testFrameHashCode() {
+    final ZMTPMessage m1 = ZMTPMessage.fromUTF8(ALLOC, "hello", "world");
+    final ZMTPMessage m2 = ZMTPMessage.fromUTF8(ALLOC, "hello", "world");
+    assertThat(m1.frameHashCode(0), is(m1.frame(0).hashCode()));
+    assertThat(m1.frameHashCode(1), is(m2.frameHashCode(1)));
+    assertThat(m1.hashCode(), is(m2.hashCode()));
+    m1.release();
+    m2.release();
+  }
+
+  @Test
+  public void testHashCodeConsistentWithEqualsAfterModification() {
+    final ZMTPMessage m1 = ZMTPMessage.fromUTF8(ALLOC, "hello");
+    final ZMTPMessage m2 = ZMTPMessage.fromUTF8(ALLOC, "jello");
+    final int frameHash = m1.frameHashCode(0);
+    m1.frame(0).setByte(0, 'j');
+    assertThat(m1, is(m2));
+    assertThat(m1.hashCode(), is(m2.hashCode()));
+    assertThat(m1.frameHashCode(0), is(frameHash));
+    m1.release();
+    m2.release();
+  }
+
+  @Test
+  public void testToString() {
+    final ZMTPMessage m = ZMTPMessage.from(new ByteBuf[]{
+        Unpooled.copiedBuffer("a%", UTF_8), Unpooled.wrappedBuffer(new byte[]{0, (byte) 0xfe})});
+    assertThat(m.toString(), is("ZMTPMessage{[\"a%%\",\"%00%FE\"]}"));
+    m.release();
+  }
+
   @Test
   public void testWriteAndRead() throws ZMTPParsingException {
     final ZMTPMessage message = ZMTPMessage.fromUTF8(ALLOC, "hello", "world");
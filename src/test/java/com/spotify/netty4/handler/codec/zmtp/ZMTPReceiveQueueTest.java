@@ -0,0 +1,101 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.DefaultChannelConfig;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPReceiveQueueTest {
+
+  private final ZMTPReceiveQueue queue = new ZMTPReceiveQueue(1, 0);
+
+  @Test
+  public void testPauseAndResume() {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final ZMTPMessage message = message();
+
+    queue.pause(channel);
+    assertThat(channel.config().isAutoRead(), is(false));
+
+    message.release();
+    assertThat(queue.full(), is(false));
+    assertThat(channel.config().isAutoRead(), is(true));
+  }
+
+  @Test
+  public void testPauseAfterDrain() {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    message().release();
+
+    queue.pause(channel);
+    assertThat(channel.config().isAutoRead(), is(true));
+  }
+
+  /**
+   * A message released by another thread while the event loop is turning off auto read must not
+   * leave the channel paused for good.
+   */
+  @Test
+  public void testReleaseWhilePausing() throws Exception {
+    final ZMTPMessage message = message();
+    final EmbeddedChannel channel = new EmbeddedChannel() {
+      private final ChannelConfig config = new DefaultChannelConfig(this) {
+        @Override
+        public ChannelConfig setAutoRead(final boolean autoRead) {
+          if (!autoRead) {
+            final Thread consumer = new Thread() {
+              @Override
+              public void run() {
+                message.release();
+              }
+            };
+            consumer.start();
+            try {
+              consumer.join();
+            } catch (InterruptedException e) {
+              throw new AssertionError(e);
+            }
+          }
+          return super.setAutoRead(autoRead);
+        }
+      };
+
+      @Override
+      public ChannelConfig config() {
+        return config;
+      }
+    };
+
+    queue.pause(channel);
+
+    assertThat(queue.full(), is(false));
+    assertThat(channel.config().isAutoRead(), is(true));
+  }
+
+  private ZMTPMessage message() {
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("hello");
+    queue.add(message, 5);
+    assertThat(queue.full(), is(true));
+    return message;
+  }
+}
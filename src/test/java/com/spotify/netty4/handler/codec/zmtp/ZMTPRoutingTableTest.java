@@ -0,0 +1,126 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPRoutingTableTest {
+
+  private final ZMTPStripedIdentityGenerator generator = new ZMTPStripedIdentityGenerator();
+
+  @Test
+  public void testLongIdentity() {
+    final ZMTPIdentity identity = generate();
+    final ZMTPRoutingTable<String> table = ZMTPRoutingTable.<String>empty().with(identity, "a");
+
+    assertThat(table.size(), is(1));
+    assertThat(table.get(identity), is("a"));
+    assertThat(table.get(identity.buf()), is("a"));
+    assertThat(table.get(generate()), is(nullValue()));
+  }
+
+  @Test
+  public void testByteIdentity() {
+    final ZMTPRoutingTable<String> table = ZMTPRoutingTable.<String>empty()
+        .with(identity("foo"), "a")
+        .with(identity("bar"), "b");
+
+    assertThat(table.size(), is(2));
+    assertThat(table.get(identity("foo")), is("a"));
+    assertThat(table.get(Unpooled.copiedBuffer("bar", UTF_8)), is("b"));
+    assertThat(table.get(Unpooled.copiedBuffer("baz", UTF_8)), is(nullValue()));
+
+    // The readable bytes of the buffer are the identity
+    final ByteBuf buf = Unpooled.copiedBuffer("xfoo", UTF_8);
+    buf.skipBytes(1);
+    assertThat(table.get(buf), is("a"));
+  }
+
+  @Test
+  public void testReplaceAndRemove() {
+    final ZMTPIdentity id = generate();
+    ZMTPRoutingTable<String> table = ZMTPRoutingTable.<String>empty()
+        .with(id, "a")
+        .with(identity("foo"), "b")
+        .with(id, "c")
+        .with(identity("foo"), "d");
+
+    assertThat(table.size(), is(2));
+    assertThat(table.get(id), is("c"));
+    assertThat(table.get(identity("foo")), is("d"));
+
+    // Only removed if mapped to the value
+    table = table.without(id, "a").without(identity("foo"), "b");
+    assertThat(table.size(), is(2));
+
+    table = table.without(id, "c").without(identity("foo"), "d");
+    assertThat(table.size(), is(0));
+    assertThat(table.get(id), is(nullValue()));
+    assertThat(table.get(identity("foo")), is(nullValue()));
+  }
+
+  @Test
+  public void testManyIdentities() {
+    final Random random = new Random(4711);
+    final List<ZMTPIdentity> identities = new ArrayList<ZMTPIdentity>();
+    ZMTPRoutingTable<Integer> table = ZMTPRoutingTable.empty();
+    for (int i = 0; i < 1000; i++) {
+      final ZMTPIdentity identity;
+      if (i % 2 == 0) {
+        identity = generate();
+      } else {
+        final byte[] bytes = new byte[4 + random.nextInt(16)];
+        random.nextBytes(bytes);
+        bytes[0] = 1;
+        identity = ZMTPIdentity.from(ByteBuffer.wrap(bytes));
+      }
+      identities.add(identity);
+      table = table.with(identity, i);
+    }
+    assertThat(table.size(), is(1000));
+    for (int i = 0; i < identities.size(); i++) {
+      assertThat(table.get(identities.get(i).buf()), is(i));
+    }
+    for (int i = 0; i < identities.size(); i += 3) {
+      table = table.without(identities.get(i), i);
+    }
+    for (int i = 0; i < identities.size(); i++) {
+      assertThat(table.get(identities.get(i)), is(i % 3 == 0 ? null : i));
+    }
+  }
+
+  private ZMTPIdentity generate() {
+    return ZMTPIdentity.from(generator.generateIdentity((ZMTPSession) null));
+  }
+
+  private static ZMTPIdentity identity(final String s) {
+    return ZMTPIdentity.from(UTF_8.encode(s));
+  }
+}
@@ -0,0 +1,191 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.netty.channel.EventLoopGroup;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.PUB;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.PULL;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.PUSH;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.SUB;
+import static io.netty.util.CharsetUtil.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPSocketTest {
+
+  private static final Transport TRANSPORT = Transport.current();
+  private static final EventLoopGroup GROUP = TRANSPORT.group(0);
+
+  private final List<ZMTPSocket> sockets = new ArrayList<ZMTPSocket>();
+
+  @After
+  public void tearDown() {
+    for (final ZMTPSocket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void testRouterDealer() throws Exception {
+    final Handler routerHandler = new Handler();
+    final Handler dealerHandler = new Handler();
+    final ZMTPSocket router = socket(ROUTER, routerHandler);
+    final ZMTPSocket dealer = socket(DEALER, dealerHandler);
+    final InetSocketAddress address = router.bind("tcp://127.0.0.1:*").get();
+    dealer.connect(address).get();
+    assertThat(routerHandler.connected.poll(5, SECONDS), is(notNullValue()));
+    assertThat(dealerHandler.connected.poll(5, SECONDS), is(notNullValue()));
+
+    // The router pushes the peer identity onto the request
+    dealer.send(ZMTPMessage.fromUTF8("", "hello"));
+    final ZMTPMessage request = routerHandler.messages.poll(5, SECONDS);
+    assertThat(request.size(), is(3));
+    assertThat(request.frame(2).toString(UTF_8), is("hello"));
+
+    // And routes the reply using it
+    router.send(request);
+    final ZMTPMessage reply = dealerHandler.messages.poll(5, SECONDS);
+    assertThat(reply, is(ZMTPMessage.fromUTF8("", "hello")));
+    reply.release();
+
+    // Messages for unknown peers fail
+    final ZMTPMessage unroutable = ZMTPMessage.fromUTF8("unknown", "", "hello");
+    assertThat(router.send(unroutable).await().isSuccess(), is(false));
+    assertThat(unroutable.refCnt(), is(0));
+  }
+
+  @Test
+  public void testPushPull() throws Exception {
+    final Handler pushHandler = new Handler();
+    final Handler[] pullHandlers = {new Handler(), new Handler()};
+    final ZMTPSocket push = socket(PUSH, pushHandler);
+    final InetSocketAddress address = push.bind("tcp://127.0.0.1:*").get();
+    for (final Handler pullHandler : pullHandlers) {
+      socket(PULL, pullHandler).connect(address).get();
+      assertThat(pushHandler.connected.poll(5, SECONDS), is(notNullValue()));
+    }
+
+    // Messages are load balanced over the pullers
+    for (int i = 0; i < 4; i++) {
+      push.send(ZMTPMessage.fromUTF8("hello"));
+    }
+    for (final Handler pullHandler : pullHandlers) {
+      for (int i = 0; i < 2; i++) {
+        final ZMTPMessage received = pullHandler.messages.poll(5, SECONDS);
+        assertThat(received, is(ZMTPMessage.fromUTF8("hello")));
+        received.release();
+      }
+    }
+    for (final Handler pullHandler : pullHandlers) {
+      assertThat(pullHandler.messages.poll(100, MILLISECONDS), is(nullValue()));
+    }
+  }
+
+  @Test
+  public void testPubSub() throws Exception {
+    final Handler pubHandler = new Handler();
+    final Handler[] subHandlers = {new Handler(), new Handler(), new Handler()};
+    final ZMTPSocket pub = socket(PUB, pubHandler);
+    final InetSocketAddress address = pub.bind("tcp://127.0.0.1:*").get();
+    final String[] prefixes = {"", "foo", "bar"};
+    for (int i = 0; i < subHandlers.length; i++) {
+      final ZMTPSocket sub = socket(SUB, subHandlers[i]);
+      sub.subscribe(prefixes[i]);
+      sub.connect(address).get();
+      assertThat(pubHandler.connected.poll(5, SECONDS), is(notNullValue()));
+    }
+
+    // Wait for the subscriptions to reach the publisher
+    for (final Handler subHandler : subHandlers) {
+      ZMTPMessage probe;
+      do {
+        pub.send(ZMTPMessage.fromUTF8("foobar", "probe"));
+        pub.send(ZMTPMessage.fromUTF8("barfoo", "probe"));
+        probe = subHandler.messages.poll(100, MILLISECONDS);
+      } while (probe == null);
+      probe.release();
+    }
+    for (final Handler subHandler : subHandlers) {
+      ZMTPMessage probe;
+      while ((probe = subHandler.messages.poll(100, MILLISECONDS)) != null) {
+        probe.release();
+      }
+    }
+
+    // Messages are only sent to matching subscribers
+    final ZMTPMessage message = ZMTPMessage.fromUTF8("foo", "hello");
+    pub.send(message.retain()).get();
+    for (int i = 0; i < 2; i++) {
+      final ZMTPMessage received = subHandlers[i].messages.poll(5, SECONDS);
+      assertThat(received, is(message));
+      received.release();
+    }
+    for (final Handler subHandler : subHandlers) {
+      assertThat(subHandler.messages.poll(100, MILLISECONDS), is(nullValue()));
+    }
+    message.release();
+  }
+
+  private ZMTPSocket socket(final ZMTPSocketType type, final Handler handler) {
+    final ZMTPSocket socket = ZMTPSocket.builder()
+        .type(type)
+        .handler(handler)
+        .group(GROUP)
+        .channel(TRANSPORT.channel(), TRANSPORT.serverChannel())
+        .build();
+    sockets.add(socket);
+    return socket;
+  }
+
+  private static class Handler implements ZMTPSocket.Handler {
+
+    private final BlockingQueue<ZMTPSocket.ZMTPPeer> connected =
+        new LinkedBlockingQueue<ZMTPSocket.ZMTPPeer>();
+    private final BlockingQueue<ZMTPMessage> messages = new LinkedBlockingQueue<ZMTPMessage>();
+
+    @Override
+    public void connected(final ZMTPSocket socket, final ZMTPSocket.ZMTPPeer peer) {
+      connected.add(peer);
+    }
+
+    @Override
+    public void disconnected(final ZMTPSocket socket, final ZMTPSocket.ZMTPPeer peer) {
+    }
+
+    @Override
+    public void message(final ZMTPSocket socket, final ZMTPSocket.ZMTPPeer peer,
+                        final ZMTPMessage message) {
+      messages.add(message);
+    }
+  }
+}
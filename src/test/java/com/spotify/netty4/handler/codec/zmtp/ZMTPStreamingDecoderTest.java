@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import com.spotify.netty4.handler.codec.zmtp.ZMTPStreamingDecoder.FrameContent;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPStreamingDecoder.FrameEnd;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPStreamingDecoder.FrameStart;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPStreamingDecoder.MessageEnd;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
+import static io.netty.util.CharsetUtil.UTF_8;
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ZMTPStreamingDecoderTest {
+
+  private final static ByteBufAllocator ALLOC = new UnpooledByteBufAllocator(false);
+
+  private static final List<String> FRAMES = asList("id", "", "hello", "world!");
+
+  @Test
+  public void testWhole() throws Exception {
+    for (final ZMTPVersion version : ZMTPVersion.supportedVersions()) {
+      final ByteBuf serialized = ZMTPMessage.fromUTF8(ALLOC, FRAMES).write(ALLOC, version);
+      final ZMTPFramingDecoder decoder =
+          new ZMTPFramingDecoder(wireFormat(version), new ZMTPStreamingDecoder());
+      final List<Object> out = new ArrayList<Object>();
+      decoder.decode(null, serialized, out);
+      assertEquals(FRAMES, collect(out));
+      serialized.release();
+    }
+  }
+
+  @Test
+  public void testFragmented() throws Exception {
+    for (final ZMTPVersion version : ZMTPVersion.supportedVersions()) {
+      final ByteBuf serialized = ZMTPMessage.fromUTF8(ALLOC, FRAMES).write(ALLOC, version);
+      final int length = serialized.readableBytes();
+      final ZMTPFramingDecoder decoder =
+          new ZMTPFramingDecoder(wireFormat(version), new ZMTPStreamingDecoder());
+      final List<Object> out = new ArrayList<Object>();
+      for (int i = 1; i <= length; i++) {
+        serialized.writerIndex(i);
+        decoder.decode(null, serialized, out);
+      }
+      assertEquals(FRAMES, collect(out));
+      serialized.release();
+    }
+  }
+
+  /**
+   * Verify event ordering and reassemble the frames from streamed events.
+   */
+  private static List<String> collect(final List<Object> events) {
+    final List<String> frames = new ArrayList<String>();
+    StringBuilder frame = null;
+    long remaining = 0;
+    boolean more = true;
+    for (final Object event : events) {
+      if (event instanceof FrameStart) {
+        assertTrue(frame == null && more);
+        frame = new StringBuilder();
+        remaining = ((FrameStart) event).length();
+        more = ((FrameStart) event).more();
+      } else if (event instanceof FrameContent) {
+        final FrameContent content = (FrameContent) event;
+        assertTrue(frame != null && content.content().isReadable());
+        remaining -= content.content().readableBytes();
+        frame.append(content.content().toString(UTF_8));
+        content.release();
+      } else if (event instanceof FrameEnd) {
+        assertTrue(frame != null);
+        assertEquals(0, remaining);
+        frames.add(frame.toString());
+        frame = null;
+      } else if (event instanceof MessageEnd) {
+        assertTrue(frame == null && !more);
+      } else {
+        throw new AssertionError(event);
+      }
+    }
+    assertTrue(events.get(events.size() - 1) instanceof MessageEnd);
+    return frames;
+  }
+}
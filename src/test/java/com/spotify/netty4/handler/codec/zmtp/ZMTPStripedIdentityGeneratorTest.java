@@ -0,0 +1,106 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import static java.util.Collections.newSetFromMap;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPStripedIdentityGeneratorTest {
+
+  private final ZMTPStripedIdentityGenerator generator = new ZMTPStripedIdentityGenerator();
+
+  @Test
+  public void testFormat() {
+    final ByteBuffer identity = generator.generateIdentity((ZMTPSession) null);
+    assertThat(identity.remaining(), is(ZMTPStripedIdentityGenerator.IDENTITY_LENGTH));
+    assertThat(identity.get(0), is((byte) 0));
+    assertThat(generator.generateIdentity((ZMTPSession) null), is(not(identity)));
+  }
+
+  @Test
+  public void testPooledIdentity() {
+    final ByteBuf identity = generator.generateIdentity(PooledByteBufAllocator.DEFAULT);
+    assertThat(identity.readableBytes(), is(ZMTPStripedIdentityGenerator.IDENTITY_LENGTH));
+    assertThat(identity.getByte(0), is((byte) 0));
+    identity.release();
+  }
+
+  @Test
+  public void testUniqueAcrossThreads() throws InterruptedException {
+    final int threads = 8;
+    final int identities = 10000;
+    final Set<ByteBuffer> generated = newSetFromMap(new ConcurrentHashMap<ByteBuffer, Boolean>());
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      final Thread worker = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < identities; j++) {
+            generated.add(generator.generateIdentity((ZMTPSession) null));
+          }
+        }
+      };
+      worker.start();
+      workers.add(worker);
+    }
+    start.countDown();
+    for (final Thread worker : workers) {
+      worker.join();
+    }
+    assertThat(generated.size(), is(threads * identities));
+  }
+
+  @Test
+  public void testStripesExhausted() throws InterruptedException {
+    final ZMTPStripedIdentityGenerator exhausted = new ZMTPStripedIdentityGenerator((1 << 24) - 1);
+    exhausted.generateIdentity((ZMTPSession) null);
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    final Thread worker = new Thread() {
+      @Override
+      public void run() {
+        try {
+          exhausted.generateIdentity((ZMTPSession) null);
+        } catch (IllegalStateException e) {
+          failures.add(e);
+        }
+      }
+    };
+    worker.start();
+    worker.join();
+    assertThat(failures.size(), is(1));
+  }
+}
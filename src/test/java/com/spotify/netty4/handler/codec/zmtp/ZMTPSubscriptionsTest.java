@@ -0,0 +1,110 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.handler.codec.zmtp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import static io.netty.util.CharsetUtil.UTF_8;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class ZMTPSubscriptionsTest {
+
+  private final ZMTPSubscriptions subscriptions = new ZMTPSubscriptions();
+
+  @Test
+  public void testMatch() {
+    subscriptions.subscribe(0, prefix(""));
+    subscriptions.subscribe(1, prefix("foo"));
+    subscriptions.subscribe(2, prefix("foobar"));
+    subscriptions.subscribe(3, prefix("bar"));
+    subscriptions.subscribe(130, prefix("fo"));
+
+    assertThat(match("foobarbaz"), is(bits(0, 1, 2, 130)));
+    assertThat(match("foo"), is(bits(0, 1, 130)));
+    assertThat(match("f"), is(bits(0)));
+    assertThat(match("bar"), is(bits(0, 3)));
+    assertThat(match(""), is(bits(0)));
+    assertThat(subscriptions.matches(2, topic("foobar")), is(true));
+    assertThat(subscriptions.matches(2, topic("fooba")), is(false));
+  }
+
+  @Test
+  public void testUnsubscribe() {
+    assertThat(subscriptions.subscribe(1, prefix("foo")), is(true));
+    assertThat(subscriptions.subscribe(1, prefix("foo")), is(false));
+    subscriptions.subscribe(2, prefix("foo"));
+    subscriptions.subscribe(2, prefix("foobar"));
+
+    // Subscriptions are counted
+    assertThat(subscriptions.unsubscribe(1, prefix("foo")), is(false));
+    assertThat(match("foobar"), is(bits(1, 2)));
+    assertThat(subscriptions.unsubscribe(1, prefix("foo")), is(true));
+    assertThat(match("foobar"), is(bits(2)));
+    assertThat(subscriptions.unsubscribe(1, prefix("foo")), is(false));
+
+    assertThat(subscriptions.unsubscribe(2, prefix("foo")), is(true));
+    assertThat(match("foo"), is(bits()));
+    assertThat(match("foobar"), is(bits(2)));
+
+    subscriptions.unsubscribeAll(2);
+    assertThat(match("foobar"), is(bits()));
+    assertThat(subscriptions.subscriptions(2).isEmpty(), is(true));
+  }
+
+  @Test
+  public void testSubscriptions() {
+    subscriptions.subscribe(1, prefix("foo"));
+    subscriptions.subscribe(1, prefix("foo"));
+    assertThat(subscriptions.subscriptions(1), contains(prefix("foo")));
+  }
+
+  @Test
+  public void testReaderIndex() {
+    subscriptions.subscribe(1, prefix("foo"));
+    final ByteBuf topic = topic("xfoo");
+    topic.skipBytes(1);
+    assertThat(subscriptions.match(topic), is(bits(1)));
+  }
+
+  private BitSet match(final String topic) {
+    return subscriptions.match(topic(topic));
+  }
+
+  private static ByteBuffer prefix(final String prefix) {
+    return UTF_8.encode(prefix);
+  }
+
+  private static ByteBuf topic(final String topic) {
+    return Unpooled.copiedBuffer(topic, UTF_8);
+  }
+
+  private static BitSet bits(final int... indices) {
+    final BitSet bits = new BitSet();
+    for (final int index : indices) {
+      bits.set(index);
+    }
+    return bits;
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.spotify.netty4.handler.codec.zmtp;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 
 import org.junit.Test;
@@ -29,6 +30,7 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP10;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPVersion.ZMTP20;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPWireFormats.wireFormat;
 import static io.netty.buffer.Unpooled.copiedBuffer;
 import static io.netty.util.CharsetUtil.UTF_8;
@@ -115,6 +117,23 @@ public class ZMTPWriterTest {
     assertThat(out, contains((Object) singletonList(next)));
   }
 
+  @Test
+  public void testWriteUtf8Frame() throws Exception {
+    final ZMTPFramingDecoder decoder = new ZMTPFramingDecoder(wireFormat(ZMTP20), new RawDecoder());
+    final ZMTPWriter writer = ZMTPWriter.create(ZMTP20);
+    final ByteBuf buf = Unpooled.buffer();
+    writer.reset(buf);
+
+    final String s0 = "h\u00e9llo \ud83d\ude00";
+    final String s1 = Strings.repeat("w\u00f6rld", 20);
+    writer.writeUtf8Frame(s0, true);
+    writer.writeUtf8Frame(s1, false);
+
+    decoder.decode(null, buf, out);
+    assertThat(out, hasSize(1));
+    assertThat(out, contains((Object) asList(copiedBuffer(s0, UTF_8), copiedBuffer(s1, UTF_8))));
+  }
+
 
   private class RawDecoder implements ZMTPDecoder {
 
@@ -22,6 +22,7 @@ import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 
+import com.spotify.netty4.handler.codec.zmtp.Transport;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPCodec;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPDecoder;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPEncoder;
@@ -51,9 +52,6 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.DefaultChannelPromise;
 import io.netty.channel.MessageSizeEstimator;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.internal.chmv8.ForkJoinPool;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
@@ -76,6 +74,7 @@ public class CustomReqRepBenchmark {
       };
 
   public static void main(final String... args) throws InterruptedException {
+    final Transport transport = Transport.current();
     final ProgressMeter meter = new ProgressMeter("requests", true);
 
     // Codecs
@@ -94,14 +93,13 @@ public class CustomReqRepBenchmark {
     // Server
     final Executor serverExecutor = new ForkJoinPool(
         1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, UNCAUGHT_EXCEPTION_HANDLER, true);
-    final ServerBootstrap serverBootstrap = new ServerBootstrap()
-        .group(new NioEventLoopGroup(1), new NioEventLoopGroup())
-        .channel(NioServerSocketChannel.class)
+    final ServerBootstrap serverBootstrap = transport.configure(new ServerBootstrap())
+        .group(transport.group(1), transport.group(0))
         .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
         .childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ByteBufSizeEstimator.INSTANCE)
-        .childHandler(new ChannelInitializer<NioSocketChannel>() {
+        .childHandler(new ChannelInitializer<Channel>() {
           @Override
-          protected void initChannel(final NioSocketChannel ch) throws Exception {
+          protected void initChannel(final Channel ch) throws Exception {
             ch.pipeline().addLast(serverCodec);
             ch.pipeline().addLast(new ServerRequestTracker());
             ch.pipeline().addLast(new ServerHandler(serverExecutor));
@@ -113,14 +111,13 @@ public class CustomReqRepBenchmark {
     final Executor clientExecutor = new ForkJoinPool(
         1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, UNCAUGHT_EXCEPTION_HANDLER, true);
     final SocketAddress address = server.localAddress();
-    final Bootstrap clientBootstrap = new Bootstrap()
-        .group(new NioEventLoopGroup())
-        .channel(NioSocketChannel.class)
+    final Bootstrap clientBootstrap = transport.configure(new Bootstrap())
+        .group(transport.group(0))
         .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
         .option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ByteBufSizeEstimator.INSTANCE)
-        .handler(new ChannelInitializer<NioSocketChannel>() {
+        .handler(new ChannelInitializer<Channel>() {
           @Override
-          protected void initChannel(final NioSocketChannel ch) throws Exception {
+          protected void initChannel(final Channel ch) throws Exception {
             ch.pipeline().addLast(clientCodec);
             ch.pipeline().addLast(new ClientRequestTracker());
             ch.pipeline().addLast(new ClientHandler(meter, clientExecutor));
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2012-2015 Spotify AB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.spotify.netty4.handler.codec.zmtp.benchmarks;
+
+import com.spotify.netty4.handler.codec.zmtp.Transport;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPCodec;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPMessage;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPProtocol;
+import com.spotify.netty4.handler.codec.zmtp.ZMTPProtocols;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalEventLoopGroup;
+import io.netty.channel.local.LocalServerChannel;
+
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
+import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
+
+/**
+ * In-JVM end-to-end request/reply round trips between a DEALER and an echoing ROUTER over the
+ * local, NIO and epoll transports. The socket transports are configured as recommended by {@link
+ * Transport}.
+ */
+@State(Scope.Benchmark)
+public class LoopbackBenchmark {
+
+  @Param({"local", "nio", "epoll"})
+  public String transport;
+
+  @Param({"ZMTP10", "ZMTP20", "ZMTP30"})
+  public String protocol;
+
+  @Param({"0", "1024", "65536"})
+  public int payloadSize;
+
+  private final BlockingQueue<ZMTPMessage> replies = new LinkedBlockingQueue<ZMTPMessage>();
+
+  private EventLoopGroup group;
+  private Channel server;
+  private Channel client;
+  private ZMTPMessage request;
+
+  @Setup
+  public void setUp() throws Exception {
+    final ServerBootstrap serverBootstrap = new ServerBootstrap();
+    final Bootstrap bootstrap = new Bootstrap();
+    if (transport.equals("local")) {
+      group = new LocalEventLoopGroup();
+      serverBootstrap.channel(LocalServerChannel.class);
+      bootstrap.channel(LocalChannel.class);
+    } else {
+      final Transport socketTransport = Transport.valueOf(transport.toUpperCase());
+      if (!socketTransport.isAvailable()) {
+        throw new IllegalStateException(transport + " is not available");
+      }
+      group = socketTransport.group(0);
+      socketTransport.configure(serverBootstrap);
+      socketTransport.configure(bootstrap);
+    }
+
+    final ZMTPProtocol zmtpProtocol = (ZMTPProtocol) ZMTPProtocols.class
+        .getField(protocol).get(null);
+
+    server = serverBootstrap
+        .group(group)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .childHandler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            ch.pipeline().addLast(ZMTPCodec.builder()
+                                      .protocol(zmtpProtocol)
+                                      .socketType(ROUTER)
+                                      .build());
+            ch.pipeline().addLast(new Echo());
+          }
+        })
+        .bind(transport.equals("local")
+              ? new LocalAddress(LoopbackBenchmark.class.getSimpleName())
+              : new InetSocketAddress("127.0.0.1", 0))
+        .sync().channel();
+
+    final ZMTPCodec codec = ZMTPCodec.builder()
+        .protocol(zmtpProtocol)
+        .socketType(DEALER)
+        .build();
+    client = bootstrap
+        .group(group)
+        .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+        .handler(new ChannelInitializer<Channel>() {
+          @Override
+          protected void initChannel(final Channel ch) throws Exception {
+            ch.pipeline().addLast(codec);
+            ch.pipeline().addLast(new Receiver());
+          }
+        })
+        .connect(server.localAddress())
+        .sync().channel();
+    codec.session().handshakeFuture().get();
+
+    final StringBuilder payload = new StringBuilder(payloadSize);
+    for (int i = 0; i < payloadSize; i++) {
+      payload.append('d');
+    }
+    request = ZMTPMessage.fromUTF8("", payload.toString());
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    client.close().sync();
+    server.close().sync();
+    group.shutdownGracefully().sync();
+    request.release();
+  }
+
+  @Benchmark
+  public ZMTPMessage roundtrip() throws InterruptedException {
+    client.writeAndFlush(request.retain());
+    final ZMTPMessage reply = replies.take();
+    reply.release();
+    return reply;
+  }
+
+  private static class Echo extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+      ctx.writeAndFlush(msg);
+    }
+  }
+
+  private class Receiver extends ChannelInboundHandlerAdapter {
+
+    @Override
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) {
+      replies.add((ZMTPMessage) msg);
+    }
+  }
+
+  public static void main(final String... args) throws RunnerException, InterruptedException {
+    Options opt = new OptionsBuilder()
+        .include(LoopbackBenchmark.class.getSimpleName())
+        .forks(1)
+        .resultFormat(ResultFormatType.JSON)
+        .result("target/jmh-loopback.json")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -18,6 +18,7 @@ package com.spotify.netty4.handler.codec.zmtp.benchmarks;
 
 import com.google.common.base.Strings;
 
+import com.spotify.netty4.handler.codec.zmtp.Transport;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPCodec;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPHandshakeSuccess;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPMessage;
@@ -34,9 +35,6 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.DEALER;
 import static com.spotify.netty4.handler.codec.zmtp.ZMTPSocketType.ROUTER;
@@ -46,18 +44,18 @@ public class ReqRepBenchmark {
   private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
 
   public static void main(final String... args) throws InterruptedException {
+    final Transport transport = Transport.current();
     final ProgressMeter meter = new ProgressMeter("requests");
 
     // Codecs
 
     // Server
-    final ServerBootstrap serverBootstrap = new ServerBootstrap()
-        .group(new NioEventLoopGroup(1), new NioEventLoopGroup())
-        .channel(NioServerSocketChannel.class)
+    final ServerBootstrap serverBootstrap = transport.configure(new ServerBootstrap())
+        .group(transport.group(1), transport.group(0))
         .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-        .childHandler(new ChannelInitializer<NioSocketChannel>() {
+        .childHandler(new ChannelInitializer<Channel>() {
           @Override
-          protected void initChannel(final NioSocketChannel ch) throws Exception {
+          protected void initChannel(final Channel ch) throws Exception {
             ch.pipeline().addLast(ZMTPCodec.builder()
                                       .socketType(ROUTER)
                                       .build());
@@ -68,13 +66,12 @@ public class ReqRepBenchmark {
 
     // Client
     final SocketAddress address = server.localAddress();
-    final Bootstrap clientBootstrap = new Bootstrap()
-        .group(new NioEventLoopGroup())
-        .channel(NioSocketChannel.class)
+    final Bootstrap clientBootstrap = transport.configure(new Bootstrap())
+        .group(transport.group(0))
         .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-        .handler(new ChannelInitializer<NioSocketChannel>() {
+        .handler(new ChannelInitializer<Channel>() {
           @Override
-          protected void initChannel(final NioSocketChannel ch) throws Exception {
+          protected void initChannel(final Channel ch) throws Exception {
             ch.pipeline().addLast(
                 ZMTPCodec.builder()
                     .socketType(DEALER)
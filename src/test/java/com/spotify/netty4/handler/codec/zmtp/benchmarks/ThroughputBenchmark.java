@@ -16,6 +16,7 @@
 
 package com.spotify.netty4.handler.codec.zmtp.benchmarks;
 
+import com.spotify.netty4.handler.codec.zmtp.Transport;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPCodec;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPHandshakeSuccess;
 import com.spotify.netty4.handler.codec.zmtp.ZMTPMessage;
@@ -34,9 +35,6 @@ import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.MessageSizeEstimator;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.ReferenceCountUtil;
 
 import static com.google.common.base.Strings.repeat;
@@ -52,16 +50,16 @@ public class ThroughputBenchmark {
   private static final InetSocketAddress ANY_PORT = new InetSocketAddress("127.0.0.1", 0);
 
   public static void main(final String... args) throws InterruptedException {
+    final Transport transport = Transport.current();
     final ProgressMeter meter = new ProgressMeter("messages");
 
     // Server
-    final ServerBootstrap serverBootstrap = new ServerBootstrap()
-        .group(new NioEventLoopGroup(1), new NioEventLoopGroup(1))
-        .channel(NioServerSocketChannel.class)
+    final ServerBootstrap serverBootstrap = transport.configure(new ServerBootstrap())
+        .group(transport.group(1), transport.group(1))
         .childOption(ALLOCATOR, PooledByteBufAllocator.DEFAULT)
-        .childHandler(new ChannelInitializer<NioSocketChannel>() {
+        .childHandler(new ChannelInitializer<Channel>() {
           @Override
-          protected void initChannel(final NioSocketChannel ch) throws Exception {
+          protected void initChannel(final Channel ch) throws Exception {
             ch.pipeline().addLast(ZMTPCodec.of(ROUTER));
             ch.pipeline().addLast(new ServerHandler(meter));
           }
@@ -70,14 +68,13 @@ public class ThroughputBenchmark {
 
     // Client
     final SocketAddress address = server.localAddress();
-    final Bootstrap clientBootstrap = new Bootstrap()
-        .group(new NioEventLoopGroup(1))
-        .channel(NioSocketChannel.class)
+    final Bootstrap clientBootstrap = transport.configure(new Bootstrap())
+        .group(transport.group(1))
         .option(ALLOCATOR, PooledByteBufAllocator.DEFAULT)
         .option(ChannelOption.MESSAGE_SIZE_ESTIMATOR, ByteBufSizeEstimator.INSTANCE)
-        .handler(new ChannelInitializer<NioSocketChannel>() {
+        .handler(new ChannelInitializer<Channel>() {
           @Override
-          protected void initChannel(final NioSocketChannel ch) throws Exception {
+          protected void initChannel(final Channel ch) throws Exception {
             ch.pipeline().addLast(ZMTPCodec.of(DEALER));
             ch.pipeline().addLast(new ClientHandler());
           }
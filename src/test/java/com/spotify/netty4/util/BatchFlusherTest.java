@@ -0,0 +1,112 @@
+/*
+* Copyright (c) 2012-2015 Spotify AB
+*
+* Licensed under the Apache License, Version 2.0 (the "License"); you may not
+* use this file except in compliance with the License. You may obtain a copy of
+* the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+* WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+* License for the specific language governing permissions and limitations under
+* the License.
+*/
+
+package com.spotify.netty4.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class BatchFlusherTest {
+
+  @Test
+  public void testFlushesAfterPendingWrites() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final BatchFlusher flusher = new BatchFlusher(channel);
+
+    write(channel, flusher, 3);
+    assertThat(channel.readOutbound(), is(nullValue()));
+
+    channel.runPendingTasks();
+    assertOutbound(channel, 3);
+    assertThat(flusher.flushes(), is(1L));
+    assertThat(flusher.forcedFlushes(), is(0L));
+    assertThat(flusher.averageBatchSize(), is(3.0));
+  }
+
+  @Test
+  public void testFlushesFullBatch() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final BatchFlusher flusher = new BatchFlusher(channel, 4);
+
+    write(channel, flusher, 4);
+    assertOutbound(channel, 4);
+    assertThat(flusher.flushes(), is(1L));
+  }
+
+  @Test
+  public void testSingleWritesAreNotDelayed() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final BatchFlusher flusher = new BatchFlusher(channel, 64, 1, TimeUnit.HOURS);
+
+    for (int i = 0; i < 10; i++) {
+      write(channel, flusher, 1);
+      channel.runPendingTasks();
+      assertOutbound(channel, 1);
+    }
+    assertThat(flusher.flushes(), is(10L));
+    assertThat(flusher.forcedFlushes(), is(0L));
+  }
+
+  @Test
+  public void testLingersUnderLoadWithinLatencyBudget() throws Exception {
+    final EmbeddedChannel channel = new EmbeddedChannel();
+    final BatchFlusher flusher = new BatchFlusher(channel, 64, 10, TimeUnit.MILLISECONDS);
+
+    // Several writes per event loop turn make the flusher linger
+    write(channel, flusher, 4);
+    channel.runPendingTasks();
+    assertOutbound(channel, 4);
+
+    // The next batch is held back until it is full or the budget runs out
+    write(channel, flusher, 2);
+    channel.runPendingTasks();
+    assertThat(channel.readOutbound(), is(nullValue()));
+
+    Thread.sleep(20);
+    channel.runScheduledPendingTasks();
+    assertOutbound(channel, 2);
+    assertThat(flusher.flushes(), is(2L));
+    assertThat(flusher.forcedFlushes(), is(1L));
+    assertThat(flusher.averageBatchSize(), is(3.0));
+
+    // The batch size shrinks to the observed rate
+    write(channel, flusher, 2);
+    assertOutbound(channel, 2);
+    assertThat(flusher.forcedFlushes(), is(1L));
+  }
+
+  private static void write(final EmbeddedChannel channel, final BatchFlusher flusher,
+                            final int n) {
+    for (int i = 0; i < n; i++) {
+      channel.write(i);
+      flusher.flush();
+    }
+  }
+
+  private static void assertOutbound(final EmbeddedChannel channel, final int n) {
+    for (int i = 0; i < n; i++) {
+      assertThat(channel.readOutbound(), is((Object) i));
+    }
+    assertThat(channel.readOutbound(), is(nullValue()));
+  }
+}